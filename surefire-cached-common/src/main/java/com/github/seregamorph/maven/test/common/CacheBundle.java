@@ -0,0 +1,193 @@
+package com.github.seregamorph.maven.test.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Single-object cache entry: all files of the entry (task output and input metadata, packed artifacts) in one
+ * entity, so the cache entry is stored and fetched with a single request.
+ * <p>
+ * Format: magic "SCB1", number of files, index of file names and lengths, then the file contents in the index order.
+ * The metadata is added first, so a stream reader can stop right after it.
+ *
+ * @author Sergey Chernov
+ */
+public final class CacheBundle {
+
+    private static final int MAGIC = 0x53434231;
+
+    private final List<String> fileNames = new ArrayList<>();
+    private final List<byte[]> contents = new ArrayList<>();
+    private final List<File> files = new ArrayList<>();
+
+    public CacheBundle addBytes(String fileName, byte[] content) {
+        fileNames.add(fileName);
+        contents.add(content);
+        files.add(null);
+        return this;
+    }
+
+    public CacheBundle addFile(String fileName, File file) {
+        fileNames.add(fileName);
+        contents.add(null);
+        files.add(file);
+        return this;
+    }
+
+    public static String getBundleFileName(PluginName pluginName) {
+        return pluginName + "-bundle.bin";
+    }
+
+    public void writeTo(File bundleFile) {
+        try (OutputStream fos = Files.newOutputStream(bundleFile.toPath());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGIC);
+            out.writeInt(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                out.writeUTF(fileNames.get(i));
+                byte[] content = contents.get(i);
+                out.writeLong(content == null ? files.get(i).length() : content.length);
+            }
+            for (int i = 0; i < fileNames.size(); i++) {
+                byte[] content = contents.get(i);
+                if (content == null) {
+                    Files.copy(files.get(i).toPath(), out);
+                } else {
+                    out.write(content);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the bundle files one by one.
+     *
+     * @param in     bundle content (not closed)
+     * @param reader called for each file in the bundle order, the unread content is skipped
+     */
+    public static void read(InputStream in, EntryReader reader) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a cache bundle");
+        }
+        int count = dataIn.readInt();
+        List<String> fileNames = new ArrayList<>(count);
+        long[] lengths = new long[count];
+        for (int i = 0; i < count; i++) {
+            fileNames.add(dataIn.readUTF());
+            lengths[i] = dataIn.readLong();
+        }
+        for (int i = 0; i < count; i++) {
+            BoundedInputStream content = new BoundedInputStream(in, lengths[i]);
+            if (!reader.read(fileNames.get(i), content)) {
+                return;
+            }
+            content.skipRemaining();
+        }
+    }
+
+    /**
+     * Read the content of a single file from the beginning of the bundle (e.g. metadata).
+     *
+     * @return the content or null if there is no such file
+     */
+    @Nullable
+    public static byte[] readBytes(InputStream in, String fileName) throws IOException {
+        byte[][] result = new byte[1][];
+        read(in, (entryFileName, content) -> {
+            if (entryFileName.equals(fileName)) {
+                result[0] = IOUtils.toByteArray(content);
+                return false;
+            }
+            return true;
+        });
+        return result[0];
+    }
+
+    @FunctionalInterface
+    public interface EntryReader {
+
+        /**
+         * @param content content of the file (should not be closed)
+         * @return true to continue with the next file
+         */
+        boolean read(String fileName, InputStream content) throws IOException;
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated cache bundle");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Truncated cache bundle");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the bundle stream is closed by the caller
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void skipRemaining() throws IOException {
+            IOUtils.skipFully(this, remaining);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.seregamorph.maven.test.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of existing cache entry keys "$pluginName/$groupId/$artifactId/$hash". It may have false positives,
+ * but never false negatives, so a key which is not in the filter is a definite cache miss and the storage lookup
+ * can be skipped.
+ * <p>
+ * The filter is thread-safe. Filters of the same size can be merged, so independent writers can add their keys to a
+ * shared filter. Format: magic "SCKF", number of hash functions, number of 64-bit words, then the words.
+ *
+ * @author Sergey Chernov
+ */
+public final class CacheKeyFilter {
+
+    private static final int MAGIC = 0x53434b46;
+
+    /**
+     * False positive probability when the filter has the expected number of keys
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final int numHashFunctions;
+    private final AtomicLongArray words;
+
+    private CacheKeyFilter(int numHashFunctions, AtomicLongArray words) {
+        this.numHashFunctions = numHashFunctions;
+        this.words = words;
+    }
+
+    /**
+     * @param expectedKeys number of keys for which the false positive probability is 1%
+     */
+    public static CacheKeyFilter create(int expectedKeys) {
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("expectedKeys must be >= 1");
+        }
+        double ln2 = Math.log(2);
+        long numBits = (long) Math.ceil(-expectedKeys * Math.log(FALSE_POSITIVE_PROBABILITY) / (ln2 * ln2));
+        int numWords = Math.toIntExact((numBits + 63) / 64);
+        int numHashFunctions = Math.max(1, (int) Math.round((double) numWords * 64 / expectedKeys * ln2));
+        return new CacheKeyFilter(numHashFunctions, new AtomicLongArray(numWords));
+    }
+
+    public static String getKey(CacheEntryKey cacheEntryKey) {
+        return cacheEntryKey.toString();
+    }
+
+    /**
+     * @return true if the filter was changed (the key was not there)
+     */
+    public boolean put(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L);
+        long numBits = words.length() * 64L;
+        boolean changed = false;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            int wordIndex = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.getAndAccumulate(wordIndex, mask, (prev, m) -> prev | m);
+            changed |= (word & mask) == 0L;
+        }
+        return changed;
+    }
+
+    /**
+     * @return false if the key is definitely not in the filter
+     */
+    public boolean mightContain(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L);
+        long numBits = words.length() * 64L;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add all keys of the other filter of the same size.
+     */
+    public void merge(CacheKeyFilter other) {
+        if (!isCompatible(other)) {
+            throw new IllegalArgumentException("Filters of different size can not be merged");
+        }
+        for (int i = 0; i < words.length(); i++) {
+            long otherWord = other.words.get(i);
+            words.getAndAccumulate(i, otherWord, (prev, w) -> prev | w);
+        }
+    }
+
+    public boolean isCompatible(CacheKeyFilter other) {
+        return other.numHashFunctions == numHashFunctions && other.words.length() == words.length();
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + words.length() * 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(numHashFunctions);
+            out.writeInt(words.length());
+            for (int i = 0; i < words.length(); i++) {
+                out.writeLong(words.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static CacheKeyFilter read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a cache key filter");
+        }
+        int numHashFunctions = dataIn.readInt();
+        int numWords = dataIn.readInt();
+        if (numHashFunctions < 1 || numWords < 1) {
+            throw new IOException("Invalid cache key filter " + numHashFunctions + " " + numWords);
+        }
+        AtomicLongArray words = new AtomicLongArray(numWords);
+        for (int i = 0; i < numWords; i++) {
+            words.set(i, dataIn.readLong());
+        }
+        return new CacheKeyFilter(numHashFunctions, words);
+    }
+
+    /**
+     * 64-bit FNV-1a of UTF-8 bytes with a final avalanche, stable across JVMs (unlike {@link String#hashCode()}
+     * it's wide enough for the double hashing).
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -5,7 +5,7 @@ package com.github.seregamorph.maven.test.common;
  */
 public final class ServerProtocolVersion {
 
-    public static final int SERVER_PROTOCOL_VERSION = 1;
+    public static final int SERVER_PROTOCOL_VERSION = 4;
     /**
      * Each time when the server has a breaking change, this should be increased
      */
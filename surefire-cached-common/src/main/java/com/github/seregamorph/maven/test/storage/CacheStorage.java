@@ -1,11 +1,21 @@
 package com.github.seregamorph.maven.test.storage;
 
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import javax.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
 
 /**
  * Cache storage reads and writes cache entities locally or remotely. It can also be delegate filtering implementation
  * e.g. to pack/unpack.
+ * <p>
+ * Big entities (packed artifacts) should be transferred via streaming methods. Default implementations of them
+ * buffer the whole entity, so storages that can stream should override them.
  *
  * @author Sergey Chernov
  */
@@ -32,4 +42,129 @@ public interface CacheStorage {
      * @throws CacheStorageException in case of I/O operations
      */
     int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) throws CacheStorageException;
+
+    /**
+     * Open cache entity for reading
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @return stream of existing cache entity content (should be closed by the caller) or null if it does not exist
+     * @throws CacheStorageException in case of I/O operations
+     */
+    @Nullable
+    default InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) throws CacheStorageException {
+        byte[] value = read(cacheEntryKey, fileName);
+        return value == null ? null : new ByteArrayInputStream(value);
+    }
+
+    /**
+     * Write cache entry from the stream (it's not closed)
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @param in            content
+     * @param length        number of bytes of the content or -1 if unknown
+     * @return number of deleted files
+     * @throws CacheStorageException in case of I/O operations
+     */
+    default int writeStream(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        InputStream in,
+        long length
+    ) throws CacheStorageException {
+        byte[] value;
+        try {
+            value = length < 0 ? IOUtils.toByteArray(in) : IOUtils.toByteArray(in, length);
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+        return write(cacheEntryKey, fileName, value);
+    }
+
+    /**
+     * Copy cache entity to the file
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @param target        file to create or overwrite
+     * @return true if the entity exists and was copied, false if it does not exist
+     * @throws CacheStorageException in case of I/O operations
+     */
+    default boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, Path target) throws CacheStorageException {
+        try (InputStream in = readStream(cacheEntryKey, fileName)) {
+            if (in == null) {
+                return false;
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+    }
+
+    /**
+     * Write cache entry from the file
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @param source        content
+     * @return number of deleted files
+     * @throws CacheStorageException in case of I/O operations
+     */
+    default int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source) throws CacheStorageException {
+        try (InputStream in = Files.newInputStream(source)) {
+            return writeStream(cacheEntryKey, fileName, in, Files.size(source));
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + source, e);
+        }
+    }
+
+    /**
+     * Write cache entry from the file with the known content hash (e.g. calculated for
+     * {@link #writeReference(CacheEntryKey, String, String)}), so the storage does not calculate it again
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @param source        content
+     * @param contentHash   SHA-256 hex of the content
+     * @return number of deleted files
+     * @throws CacheStorageException in case of I/O operations
+     */
+    default int writeFile(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        Path source,
+        String contentHash
+    ) throws CacheStorageException {
+        return writeFile(cacheEntryKey, fileName, source);
+    }
+
+    /**
+     * Write cache entry as a reference to the content which is already present in the storage (e.g. the same
+     * artifacts of another cache entry), so the content is not transferred again.
+     *
+     * @param cacheEntryKey
+     * @param fileName
+     * @param contentHash   SHA-256 hex of the content
+     * @return true if the storage has the content and the entry was written, false if the content should be written
+     * @throws CacheStorageException in case of I/O operations
+     */
+    default boolean writeReference(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        String contentHash
+    ) throws CacheStorageException {
+        return false;
+    }
+
+    /**
+     * Check the cache entry without a lookup in the storage (e.g. via a filter of existing keys downloaded once).
+     *
+     * @param cacheEntryKey
+     * @return false if the cache entry definitely does not exist, true if it may exist
+     */
+    default boolean mightContain(CacheEntryKey cacheEntryKey) {
+        return true;
+    }
 }
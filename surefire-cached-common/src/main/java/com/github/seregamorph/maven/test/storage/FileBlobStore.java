@@ -0,0 +1,194 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressable store of cache entity files. Each blob "$blobsDir/$ab/$sha256" is shared by all cache entries
+ * with the same content: entry files are hard links to the blob, so reading an entry is the same as before. The
+ * file system link count is the reference counter: a blob with a single link is not referenced by any entry and is
+ * deleted when an entry referencing it is evicted.
+ * <p>
+ * Each entry directory contains hidden ".blob-$fileName" files with the content hash of the linked entity files,
+ * they are used to find the blobs on eviction. Races between linking and eviction are harmless: an entry linked to a
+ * deleted blob still has its own link to the content.
+ *
+ * @author Sergey Chernov
+ */
+final class FileBlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBlobStore.class);
+
+    private static final String BLOB_REFERENCE_PREFIX = ".blob-";
+
+    private final Path blobsDir;
+
+    private FileBlobStore(Path blobsDir) {
+        this.blobsDir = blobsDir;
+    }
+
+    /**
+     * @return the blob store or null if the file system does not support hard links with link count
+     */
+    @Nullable
+    static FileBlobStore create(Path blobsDir) {
+        try {
+            Files.createDirectories(blobsDir);
+            FileStore fileStore = Files.getFileStore(blobsDir);
+            if (!fileStore.supportsFileAttributeView("unix")) {
+                logger.info("Content-addressable layout is not supported by {}", fileStore);
+                return null;
+            }
+            return new FileBlobStore(blobsDir);
+        } catch (IOException e) {
+            logger.warn("Failed to initialize content-addressable layout at {}", blobsDir, e);
+            return null;
+        }
+    }
+
+    /**
+     * Link the entry file to the existing blob.
+     *
+     * @return true if the blob exists and the entry file was linked
+     */
+    boolean link(String contentHash, Path entryFile) throws IOException {
+        Path blobFile = getBlobFile(contentHash);
+        if (!Files.exists(blobFile)) {
+            return false;
+        }
+        Path linkFile = entryFile.resolveSibling("." + entryFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(linkFile, blobFile);
+        } catch (NoSuchFileException e) {
+            // concurrently evicted
+            return false;
+        } catch (IOException e) {
+            // e.g. too many links
+            logger.debug("Failed to link {} to {}: {}", entryFile, blobFile, e.toString());
+            return false;
+        }
+        try {
+            String previousContentHash = writeReference(entryFile, contentHash);
+            Files.move(linkFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            releaseReplaced(previousContentHash, contentHash);
+        } finally {
+            Files.deleteIfExists(linkFile);
+        }
+        return true;
+    }
+
+    /**
+     * Move the written temp file to the entry file, sharing its content with the other entries.
+     */
+    void store(Path tempFile, String contentHash, Path entryFile) throws IOException {
+        if (link(contentHash, entryFile)) {
+            // the same content was already stored
+            Files.delete(tempFile);
+            return;
+        }
+        Path blobFile = getBlobFile(contentHash);
+        Files.createDirectories(blobFile.getParent());
+        try {
+            Files.createLink(blobFile, tempFile);
+        } catch (FileAlreadyExistsException e) {
+            // concurrently stored by another entry, keep own copy
+        } catch (IOException e) {
+            logger.debug("Failed to store blob {}: {}", blobFile, e.toString());
+        }
+        String previousContentHash = writeReference(entryFile, contentHash);
+        Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        releaseReplaced(previousContentHash, contentHash);
+    }
+
+    /**
+     * @return the blob which the entry file is a hard link to or null (e.g. the entry file is not linked or it's
+     * replaced concurrently)
+     */
+    @Nullable
+    Path getLinkedBlob(Path entryFile) throws IOException {
+        Path referenceFile = entryFile.resolveSibling(BLOB_REFERENCE_PREFIX + entryFile.getFileName());
+        try {
+            Path blobFile = getBlobFile(new String(Files.readAllBytes(referenceFile), UTF_8));
+            // the reference is written before the entry file is moved, so compare the files (inodes)
+            return Files.isSameFile(entryFile, blobFile) ? blobFile : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find the content hashes referenced by the entry directory (should be called before it's deleted).
+     */
+    static List<String> getReferences(Path entryDir) throws IOException {
+        List<String> contentHashes = new ArrayList<>();
+        try (DirectoryStream<Path> references = Files.newDirectoryStream(entryDir, BLOB_REFERENCE_PREFIX + "*")) {
+            for (Path reference : references) {
+                contentHashes.add(new String(Files.readAllBytes(reference), UTF_8));
+            }
+        }
+        return contentHashes;
+    }
+
+    /**
+     * Delete the blobs which are not referenced anymore (after the entry directory is deleted).
+     *
+     * @return number of deleted blobs
+     */
+    int release(List<String> contentHashes) {
+        int deleted = 0;
+        for (String contentHash : contentHashes) {
+            Path blobFile = getBlobFile(contentHash);
+            try {
+                if (Files.exists(blobFile) && ((Number) Files.getAttribute(blobFile, "unix:nlink")).intValue() <= 1) {
+                    Files.deleteIfExists(blobFile);
+                    deleted++;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to release blob {}", blobFile, e);
+            }
+        }
+        return deleted;
+    }
+
+    private void releaseReplaced(@Nullable String previousContentHash, String contentHash) {
+        if (previousContentHash != null && !previousContentHash.equals(contentHash)) {
+            release(Collections.singletonList(previousContentHash));
+        }
+    }
+
+    /**
+     * @return previous content hash of the entry file (if it's overwritten)
+     */
+    @Nullable
+    private static String writeReference(Path entryFile, String contentHash) throws IOException {
+        Path referenceFile = entryFile.resolveSibling(BLOB_REFERENCE_PREFIX + entryFile.getFileName());
+        String previousContentHash = null;
+        if (Files.exists(referenceFile)) {
+            previousContentHash = new String(Files.readAllBytes(referenceFile), UTF_8);
+        }
+        Files.write(referenceFile, contentHash.getBytes(UTF_8));
+        return previousContentHash;
+    }
+
+    private Path getBlobFile(String contentHash) {
+        if (!contentHash.matches("^[0-9a-f]{64}$")) {
+            throw new IllegalArgumentException("Invalid content hash: " + contentHash);
+        }
+        return blobsDir.resolve(contentHash.substring(0, 2)).resolve(contentHash);
+    }
+}
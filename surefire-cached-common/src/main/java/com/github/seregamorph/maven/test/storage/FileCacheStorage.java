@@ -1,15 +1,30 @@
 package com.github.seregamorph.maven.test.storage;
 
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
 import com.github.seregamorph.maven.test.util.MoreFileUtils;
 import com.github.seregamorph.maven.test.util.ValidatorUtils;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,22 +42,40 @@ public class FileCacheStorage implements CacheStorage {
      */
     private static final int MAX_CACHE_ENTRIES = 4;
 
+    /**
+     * Directory of the content-addressable blobs, it does not collide with "$pluginName" directories
+     */
+    private static final String BLOBS_DIR_NAME = "blobs";
+
     private final File baseDir;
     private final int maxCacheEntries;
+    /**
+     * Shares identical content between entries, null if hard links are not supported
+     */
+    @Nullable
+    private final FileBlobStore blobStore;
 
     public FileCacheStorage(File baseDir) {
         this(baseDir, MAX_CACHE_ENTRIES);
     }
 
+    /**
+     * @param maxCacheEntries max number of cache entries per module, {@link Integer#MAX_VALUE} disables the trimming
+     *                        on write (e.g. when the entries are evicted by a subclass)
+     */
     public FileCacheStorage(File baseDir, int maxCacheEntries) {
         if (maxCacheEntries < 1) {
             throw new IllegalArgumentException("maxCacheEntries must be >= 1");
         }
         this.baseDir = baseDir;
         this.maxCacheEntries = maxCacheEntries;
+        this.blobStore = FileBlobStore.create(new File(baseDir, BLOBS_DIR_NAME).toPath());
     }
 
-    private File getEntryFile(CacheEntryKey cacheEntryKey, String fileName) {
+    /**
+     * @return location of the cache entity file (it may not exist)
+     */
+    public File getEntryFile(CacheEntryKey cacheEntryKey, String fileName) {
         ValidatorUtils.validateFileName(fileName);
         String child = cacheEntryKey + "/" + fileName;
         if (child.contains("..")) {
@@ -52,14 +85,118 @@ public class FileCacheStorage implements CacheStorage {
         return new File(baseDir, child);
     }
 
+    /**
+     * @return content-addressable blob which the cache entity file is a hard link to or null if the file is not
+     * linked. Unlike the entity file, the blob is never replaced with another content, so it may be opened later by
+     * path (but it may be deleted if the entry is evicted meanwhile).
+     */
+    @Nullable
+    public File getEntryBlobFile(CacheEntryKey cacheEntryKey, String fileName) {
+        if (blobStore == null) {
+            return null;
+        }
+        File file = getEntryFile(cacheEntryKey, fileName);
+        try {
+            Path blobFile = blobStore.getLinkedBlob(file.toPath());
+            return blobFile == null ? null : blobFile.toFile();
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+    }
+
+    /**
+     * @return directory of the cache entry files (it may not exist)
+     */
+    public File getEntryDirectory(CacheEntryKey cacheEntryKey) {
+        return new File(baseDir, cacheEntryKey.toString());
+    }
+
+    /**
+     * Delete the cache entry with all its files.
+     *
+     * @return true if the entry existed
+     */
+    public boolean deleteEntry(CacheEntryKey cacheEntryKey) {
+        File entryDir = getEntryDirectory(cacheEntryKey);
+        if (!entryDir.isDirectory()) {
+            return false;
+        }
+        deleteEntryDirectory(entryDir);
+        return true;
+    }
+
+    /**
+     * @return keys of all stored cache entries (including incomplete ones)
+     */
+    public List<CacheEntryKey> getEntryKeys() {
+        List<CacheEntryKey> entryKeys = new ArrayList<>();
+        // "$baseDir/$pluginName/$groupId/$artifactId/$hash"
+        for (File pluginDir : listDirectories(baseDir)) {
+            PluginName pluginName;
+            try {
+                pluginName = PluginName.valueOf(pluginDir.getName());
+            } catch (IllegalArgumentException e) {
+                // e.g. blobs
+                continue;
+            }
+            for (File groupDir : listDirectories(pluginDir)) {
+                for (File artifactDir : listDirectories(groupDir)) {
+                    GroupArtifactId groupArtifactId = new GroupArtifactId(groupDir.getName(), artifactDir.getName());
+                    for (File entryDir : listDirectories(artifactDir)) {
+                        entryKeys.add(new CacheEntryKey(pluginName, groupArtifactId, entryDir.getName()));
+                    }
+                }
+            }
+        }
+        return entryKeys;
+    }
+
+    private static List<File> listDirectories(File directory) {
+        File[] files = directory.listFiles(File::isDirectory);
+        return files == null ? Collections.emptyList() : Arrays.asList(files);
+    }
+
     @Override
     public byte[] read(CacheEntryKey cacheEntryKey, String fileName) {
         File file = getEntryFile(cacheEntryKey, fileName);
-        if (!file.exists()) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
             return null;
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
         }
+    }
+
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) {
+        File file = getEntryFile(cacheEntryKey, fileName);
         try {
-            return Files.readAllBytes(file.toPath());
+            return Files.newInputStream(file.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+    }
+
+    @Override
+    public boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, Path target) {
+        File file = getEntryFile(cacheEntryKey, fileName);
+        FileChannel source;
+        try {
+            source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+        try (FileChannel sourceChannel = source;
+             FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(sourceChannel, sourceChannel.size(), targetChannel);
+            return true;
         } catch (IOException e) {
             throw new CacheStorageException("Error reading " + fileName, e);
         }
@@ -67,16 +204,119 @@ public class FileCacheStorage implements CacheStorage {
 
     @Override
     public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        return write(cacheEntryKey, fileName, tempFile -> {
+            Files.write(tempFile, value);
+            return MoreFileUtils.toHex(MoreFileUtils.newSha256().digest(value));
+        });
+    }
+
+    @Override
+    public int writeStream(CacheEntryKey cacheEntryKey, String fileName, InputStream in, long length) {
+        return write(cacheEntryKey, fileName, tempFile -> {
+            DigestInputStream digestIn = new DigestInputStream(in, MoreFileUtils.newSha256());
+            Files.copy(digestIn, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            return MoreFileUtils.toHex(digestIn.getMessageDigest().digest());
+        });
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source) {
+        return writeFile(cacheEntryKey, fileName, source, MoreFileUtils.sha256(source));
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source, String contentHash) {
+        File file = getEntryFile(cacheEntryKey, fileName);
+        int deleted = createParentAndCleanupOld(file.getParentFile());
+        if (link(file, contentHash)) {
+            return deleted;
+        }
+        return deleted + write(cacheEntryKey, fileName, tempFile -> {
+            try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                transfer(sourceChannel, sourceChannel.size(), tempChannel);
+            }
+            return contentHash;
+        });
+    }
+
+    @Override
+    public boolean writeReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+        if (blobStore == null) {
+            return false;
+        }
+        File file = getEntryFile(cacheEntryKey, fileName);
+        createParentAndCleanupOld(file.getParentFile());
+        return link(file, contentHash);
+    }
+
+    private boolean link(File file, String contentHash) {
+        if (blobStore == null) {
+            return false;
+        }
+        try {
+            return blobStore.link(contentHash, file.toPath());
+        } catch (IOException e) {
+            throw new CacheStorageException("Error writing " + file.getName(), e);
+        }
+    }
+
+    /**
+     * The content is written to a temp file in the same directory and then atomically moved, so concurrent readers
+     * (and readers after a crash) never see a partially written file.
+     */
+    private int write(CacheEntryKey cacheEntryKey, String fileName, TempFileWriter tempFileWriter) {
         File file = getEntryFile(cacheEntryKey, fileName);
         int deleted = createParentAndCleanupOld(file.getParentFile());
+        Path tempFile = null;
         try {
-            Files.write(file.toPath(), value);
+            tempFile = Files.createTempFile(file.getParentFile().toPath(), "." + fileName, ".tmp");
+            String contentHash = tempFileWriter.write(tempFile);
+            if (blobStore == null) {
+                moveAtomically(tempFile, file.toPath());
+            } else {
+                blobStore.store(tempFile, contentHash, file.toPath());
+            }
+            tempFile = null;
         } catch (IOException e) {
             throw new CacheStorageException("Error writing " + fileName, e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to delete {}", tempFile, e);
+                }
+            }
         }
         return deleted;
     }
 
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Copy via {@link FileChannel#transferTo}, which is done in the kernel space (e.g. copy_file_range/sendfile on
+     * Linux) without passing the content through the heap.
+     *
+     * @throws EOFException if the source is truncated before the given size is copied
+     */
+    static void transfer(FileChannel source, long size, FileChannel destination) throws IOException {
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position, size - position, destination);
+            if (transferred <= 0L) {
+                throw new EOFException("Unexpected end of source at " + position + " of " + size + " bytes");
+            }
+            position += transferred;
+        }
+    }
+
     /**
      *
      * @param directory
@@ -94,7 +334,7 @@ public class FileCacheStorage implements CacheStorage {
         int deleted = 0;
         // "$baseId/$groupId/$artifactId"
         File layoutDirectory = directory.getParentFile();
-        if (layoutDirectory.exists()) {
+        if (maxCacheEntries != Integer.MAX_VALUE && layoutDirectory.exists()) {
             if (!layoutDirectory.getPath().startsWith(baseDir.getPath())) {
                 // sanity check before deleting directories
                 throw new IllegalStateException("Not a directory under baseDir " + layoutDirectory + " " + baseDir);
@@ -111,7 +351,7 @@ public class FileCacheStorage implements CacheStorage {
             for (int idx = 0; idx <= siblingDirs.size() - maxCacheEntries; idx++) {
                 File siblingDir = siblingDirs.get(idx);
                 LOGGER.debug("Deleting old cache entry {}", siblingDir);
-                MoreFileUtils.delete(siblingDir);
+                deleteEntryDirectory(siblingDir);
                 deleted++;
             }
         }
@@ -119,4 +359,27 @@ public class FileCacheStorage implements CacheStorage {
         directory.mkdirs();
         return deleted;
     }
+
+    private void deleteEntryDirectory(File entryDir) {
+        List<String> contentHashes = Collections.emptyList();
+        if (blobStore != null && entryDir.isDirectory()) {
+            try {
+                contentHashes = FileBlobStore.getReferences(entryDir.toPath());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read blob references of {}", entryDir, e);
+            }
+        }
+        MoreFileUtils.delete(entryDir);
+        if (blobStore != null) {
+            blobStore.release(contentHashes);
+        }
+    }
+
+    private interface TempFileWriter {
+
+        /**
+         * @return SHA-256 of the written content
+         */
+        String write(Path tempFile) throws IOException;
+    }
 }
@@ -5,6 +5,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import javax.annotation.Nullable;
@@ -62,6 +63,74 @@ public class GzipDelegateCacheStorage implements CacheStorage {
         return delegate.write(cacheEntryKey, fileName, bytesToWrite);
     }
 
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) throws CacheStorageException {
+        InputStream in = delegate.readStream(cacheEntryKey, fileName);
+        if (in == null || isAlreadyCompressed(fileName)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw new CacheStorageException("Error unpacking file " + fileName, e);
+        }
+    }
+
+    @Override
+    public int writeStream(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        InputStream in,
+        long length
+    ) throws CacheStorageException {
+        if (isAlreadyCompressed(fileName)) {
+            return delegate.writeStream(cacheEntryKey, fileName, in, length);
+        }
+        // the packed length should be known before writing, only small (not compressed) entities are buffered
+        return CacheStorage.super.writeStream(cacheEntryKey, fileName, in, length);
+    }
+
+    @Override
+    public boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, Path target) throws CacheStorageException {
+        if (isAlreadyCompressed(fileName)) {
+            return delegate.readToFile(cacheEntryKey, fileName, target);
+        }
+        return CacheStorage.super.readToFile(cacheEntryKey, fileName, target);
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source) throws CacheStorageException {
+        if (isAlreadyCompressed(fileName)) {
+            return delegate.writeFile(cacheEntryKey, fileName, source);
+        }
+        return CacheStorage.super.writeFile(cacheEntryKey, fileName, source);
+    }
+
+    @Override
+    public int writeFile(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        Path source,
+        String contentHash
+    ) throws CacheStorageException {
+        if (isAlreadyCompressed(fileName)) {
+            return delegate.writeFile(cacheEntryKey, fileName, source, contentHash);
+        }
+        return CacheStorage.super.writeFile(cacheEntryKey, fileName, source);
+    }
+
+    @Override
+    public boolean writeReference(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        String contentHash
+    ) throws CacheStorageException {
+        // the content hash of the not compressed entity is not the same as of the stored one
+        return isAlreadyCompressed(fileName) && delegate.writeReference(cacheEntryKey, fileName, contentHash);
+    }
+
     private static boolean isAlreadyCompressed(String fileName) {
         return fileName.endsWith(".gz");
     }
@@ -2,33 +2,112 @@ package com.github.seregamorph.maven.test.storage;
 
 import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 
+import com.github.seregamorph.maven.test.common.CacheBundle;
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.InvalidObjectStateException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 /**
  * Cache storage for AWS S3. Can be used directly from Maven extension or in the cache web server.
+ * <p>
+ * With the key filter enabled, the storage maintains Bloom filters of the written cache entries in the same bucket
+ * (one object per plugin/module and expiration period). The filter of a module is downloaded with its first lookup,
+ * so further lookups of missing entries don't need a request. A cache entry is added to the filter object with a
+ * conditional write (concurrent builds retry on conflicts) before the entity which completes it is written, so a
+ * complete entry is never missing in the filter. If the filter object could not be updated, the entity is still
+ * written and the filter object of the module is marked incomplete instead.
+ * <p>
+ * The "complete since" time of the filters is chained via the marker objects of each period: it's taken from the
+ * marker of the previous period or is the creation time if there is none. The filters are used for lookups only when
+ * all non-expired entries were written after this time, until then (e.g. during the first expiration period after
+ * enabling the filter) lookups are not filtered. The same applies to the "complete since" time of a module filter
+ * object, which is reset when it's marked incomplete. The entries written by the clients without the key filter
+ * enabled are not in the filter, so all writers of the bucket should enable it.
  *
  * @author Sergey Chernov
  */
-public class S3CacheStorage implements CacheStorage {
+public class S3CacheStorage implements CacheStorage, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(S3CacheStorage.class);
 
+    /**
+     * Chain markers "filters/$period" and module filter objects "filters/$pluginName/$groupId/$artifactId/$period.bin",
+     * where period is the number of expiration periods since the epoch. A non-expired entry was written during the
+     * current or the previous period, so only these two objects are read.
+     */
+    private static final String FILTER_KEY_PREFIX = "filters/";
+    /**
+     * The filter size is fixed, so the filter objects are compatible between the builds (about 12 KB, 1% false
+     * positives with up to 10000 entries of a module per expiration period)
+     */
+    private static final int FILTER_EXPECTED_KEYS = 10_000;
+    private static final int FILTER_UPDATE_ATTEMPTS = 10;
+    /**
+     * User metadata of the marker and filter objects: epoch millis since which all written entries are in the filter
+     */
+    private static final String FILTER_COMPLETE_SINCE = "complete-since";
+    /**
+     * The filter object is never complete (e.g. written by an older version)
+     */
+    private static final long UNKNOWN_COMPLETE_SINCE = Long.MAX_VALUE;
+    /**
+     * "complete since" of a module filter object which was never marked incomplete: the entries of the module are in
+     * the filter since the time of the chain
+     */
+    private static final long NEVER_RESET = 0L;
+
     private final S3Client s3Client;
     private final S3CacheStorageConfig config;
 
+    private final Object chainLock = new Object();
+    private volatile boolean chainLoaded;
+    /**
+     * "complete since" of the chain markers, null if not loaded or the lookups are not filtered
+     */
+    @Nullable
+    private volatile Long chainCompleteSince;
+    /**
+     * Filters of the existing entries by module, empty if the lookups of the module are not filtered
+     */
+    private final Map<String, Optional<CacheKeyFilter>> keyFilters = new ConcurrentHashMap<>();
+    /**
+     * Keys of the entries written by this build and not yet added to the filter objects by module
+     */
+    private final Map<String, Set<String>> writtenKeys = new ConcurrentHashMap<>();
+    private final Object filterUpdateLock = new Object();
+    /**
+     * The period of the chain marker which is known to exist
+     */
+    private volatile long markedPeriod = Long.MIN_VALUE;
+
     public S3CacheStorage(S3Client s3Client, S3CacheStorageConfig config) {
         this.s3Client = s3Client;
         this.config = config;
@@ -37,27 +116,396 @@ public class S3CacheStorage implements CacheStorage {
     @Nullable
     @Override
     public byte[] read(CacheEntryKey cacheEntryKey, String fileName) throws CacheStorageException {
+        try (InputStream in = readStream(cacheEntryKey, fileName)) {
+            return in == null ? null : IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            logger.warn("Error while reading from S3 {}/{}", cacheEntryKey, fileName, e);
+            return null;
+        }
+    }
+
+    /**
+     * The expiration is checked by the response headers before the content is downloaded, the body of an expired
+     * entity is not transferred.
+     */
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) throws CacheStorageException {
         String awsKey = cacheEntryKey + "/" + fileName;
+        ResponseInputStream<GetObjectResponse> object;
         try {
-            try (ResponseInputStream<GetObjectResponse> object =
-                         s3Client.getObject(b -> b.bucket(config.getBucket()).key(awsKey))) {
-                byte[] bytes = IOUtils.toByteArray(object);
-                String expiresString = object.response().expiresString();
-                ZonedDateTime expires = parseExpires(expiresString);
-                if (isExpired(expires)) {
-                    logger.debug("Skipping cache entry {} expired at {}", awsKey, expires);
-                    return null;
+            object = s3Client.getObject(b -> b.bucket(config.getBucket()).key(awsKey));
+        } catch (NoSuchKeyException | InvalidObjectStateException e) {
+            return null;
+        }
+        if (isExpiryChecked(cacheEntryKey, fileName)) {
+            ZonedDateTime expires = parseExpires(object.response().expiresString());
+            if (isExpired(expires)) {
+                logger.debug("Skipping cache entry {} expired at {}", awsKey, expires);
+                // do not download the rest of the content
+                object.abort();
+                return null;
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Only the entity which completes the cache entry (task output or bundle) is checked for expiration. It's read
+     * first and the artifacts are fetched only if it's valid. The artifacts are written before it and expire a bit
+     * earlier, so a separate check of them could fail the restore of a valid entry.
+     */
+    static boolean isExpiryChecked(CacheEntryKey cacheEntryKey, String fileName) {
+        PluginName pluginName = cacheEntryKey.pluginName();
+        return fileName.equals(pluginName + "-output.json")
+            || fileName.equals(CacheBundle.getBundleFileName(pluginName));
+    }
+
+    @Override
+    public boolean mightContain(CacheEntryKey cacheEntryKey) {
+        if (!config.isKeyFilter()) {
+            return true;
+        }
+        Optional<CacheKeyFilter> filter = keyFilters.computeIfAbsent(getFilterModule(cacheEntryKey),
+            module -> Optional.ofNullable(loadKeyFilter(module)));
+        return !filter.isPresent() || filter.get().mightContain(CacheKeyFilter.getKey(cacheEntryKey));
+    }
+
+    @Nullable
+    private Long getChainCompleteSince() {
+        if (!chainLoaded) {
+            synchronized (chainLock) {
+                if (!chainLoaded) {
+                    chainCompleteSince = loadChainCompleteSince();
+                    chainLoaded = true;
                 }
-                return bytes;
             }
-        } catch (NoSuchKeyException | InvalidObjectStateException e) {
+        }
+        return chainCompleteSince;
+    }
+
+    /**
+     * @return "complete since" of the chain or null if there are no marker objects or they don't cover all
+     * non-expired entries yet (then the lookups are not filtered)
+     */
+    @Nullable
+    private Long loadChainCompleteSince() {
+        long period = getFilterPeriod();
+        try {
+            Long current = readCompleteSince(getChainKey(period));
+            Long previous = readCompleteSince(getChainKey(period - 1));
+            if (current == null && previous == null) {
+                logger.info("Cache key filter objects not found, lookups are not filtered");
+                return null;
+            }
+            // the current marker continues the chain of the previous one (if it existed on creation)
+            long completeSince = current == null ? previous : current;
+            if (completeSince == UNKNOWN_COMPLETE_SINCE) {
+                logger.info("Cache key filter does not cover all entries, lookups are not filtered");
+                return null;
+            }
+            if (!isFilteredSince(completeSince)) {
+                logger.info("Cache key filter does not cover all entries yet, lookups are not filtered until {}",
+                    Instant.ofEpochMilli(completeSince).plus(config.getExpiration()));
+                return null;
+            }
+            return completeSince;
+        } catch (IOException | SdkException e) {
+            logger.warn("Failed to read cache key filter: {}", e.toString());
             return null;
-        } catch (IOException e) {
-            logger.warn("Error while reading from S3 {}", awsKey, e);
+        }
+    }
+
+    /**
+     * @return the filter of the module or null if the lookups of the module are not filtered
+     */
+    @Nullable
+    private CacheKeyFilter loadKeyFilter(String module) {
+        if (getChainCompleteSince() == null) {
+            return null;
+        }
+        long period = getFilterPeriod();
+        try {
+            FilterObject current = readFilterObject(getFilterKey(module, period));
+            FilterObject previous = readFilterObject(getFilterKey(module, period - 1));
+            if (current == null && previous == null) {
+                // no entries of the module
+                return CacheKeyFilter.create(FILTER_EXPECTED_KEYS);
+            }
+            // the current filter object continues the reset time of the previous one (if it existed on creation)
+            long completeSince = current == null ? previous.completeSince : current.completeSince;
+            if (completeSince == UNKNOWN_COMPLETE_SINCE || !isFilteredSince(completeSince)) {
+                logger.debug("Cache key filter of {} does not cover all entries, lookups are not filtered", module);
+                return null;
+            }
+            if (current == null || previous == null) {
+                return current == null ? previous.filter : current.filter;
+            }
+            if (!current.filter.isCompatible(previous.filter)) {
+                logger.debug("Cache key filter objects of {} are not compatible, lookups are not filtered", module);
+                return null;
+            }
+            current.filter.merge(previous.filter);
+            return current.filter;
+        } catch (IOException | SdkException e) {
+            logger.warn("Failed to read cache key filter of {}: {}", module, e.toString());
             return null;
         }
     }
 
+    private boolean isFilteredSince(long completeSince) {
+        return !now().isBefore(Instant.ofEpochMilli(completeSince).plus(config.getExpiration()));
+    }
+
+    @Nullable
+    private FilterObject readFilterObject(String filterKey) throws IOException {
+        try (ResponseInputStream<GetObjectResponse> object =
+                     s3Client.getObject(b -> b.bucket(config.getBucket()).key(filterKey))) {
+            String completeSince = object.response().metadata().get(FILTER_COMPLETE_SINCE);
+            return new FilterObject(CacheKeyFilter.read(object), object.response().eTag(),
+                parseCompleteSince(completeSince));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return "complete since" of the marker object or null if it does not exist
+     */
+    @Nullable
+    private Long readCompleteSince(String markerKey) throws IOException {
+        try (ResponseInputStream<GetObjectResponse> object =
+                     s3Client.getObject(b -> b.bucket(config.getBucket()).key(markerKey))) {
+            return parseCompleteSince(object.response().metadata().get(FILTER_COMPLETE_SINCE));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the time of the filter object, {@link #UNKNOWN_COMPLETE_SINCE} if it's written without it
+     */
+    private static long parseCompleteSince(@Nullable String completeSince) {
+        if (completeSince == null) {
+            return UNKNOWN_COMPLETE_SINCE;
+        }
+        try {
+            return Long.parseLong(completeSince);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_COMPLETE_SINCE;
+        }
+    }
+
+    private long getFilterPeriod() {
+        return now().toEpochMilli() / config.getExpiration().toMillis();
+    }
+
+    protected Instant now() {
+        return Instant.now();
+    }
+
+    private static String getFilterModule(CacheEntryKey cacheEntryKey) {
+        GroupArtifactId groupArtifactId = cacheEntryKey.groupArtifactId();
+        return cacheEntryKey.pluginName() + "/" + groupArtifactId.groupId() + "/" + groupArtifactId.artifactId();
+    }
+
+    private static String getChainKey(long period) {
+        return FILTER_KEY_PREFIX + period;
+    }
+
+    private static String getFilterKey(String module, long period) {
+        return FILTER_KEY_PREFIX + module + "/" + period + ".bin";
+    }
+
+    /**
+     * Add the entry to the filter before the write. The keys are collected and added to the filter object of the
+     * module before the entity which completes the entry is written. A failure to update the filter object does not
+     * fail the write.
+     */
+    private void addWrittenKey(CacheEntryKey cacheEntryKey, String fileName) {
+        if (!config.isKeyFilter()) {
+            return;
+        }
+        String module = getFilterModule(cacheEntryKey);
+        String key = CacheKeyFilter.getKey(cacheEntryKey);
+        writtenKeys.computeIfAbsent(module, m -> ConcurrentHashMap.newKeySet()).add(key);
+        Optional<CacheKeyFilter> filter = keyFilters.get(module);
+        if (filter != null && filter.isPresent()) {
+            // the entry may be read later in the same build
+            filter.get().put(key);
+        }
+        if (isExpiryChecked(cacheEntryKey, fileName)) {
+            updateFilterObject(module);
+        }
+    }
+
+    /**
+     * Add the pending written keys of the module to its filter object of the current period. If the filter object
+     * could not be updated, it's marked incomplete.
+     */
+    private void updateFilterObject(String module) {
+        synchronized (filterUpdateLock) {
+            Set<String> moduleKeys = writtenKeys.get(module);
+            if (moduleKeys == null || moduleKeys.isEmpty()) {
+                return;
+            }
+            List<String> keys = new ArrayList<>(moduleKeys);
+            long period = getFilterPeriod();
+            markChain(period);
+            String filterKey = getFilterKey(module, period);
+            for (int attempt = 1; attempt <= FILTER_UPDATE_ATTEMPTS; attempt++) {
+                try {
+                    FilterObject filterObject = readFilterObject(filterKey);
+                    CacheKeyFilter filter = CacheKeyFilter.create(FILTER_EXPECTED_KEYS);
+                    long completeSince;
+                    if (filterObject != null && filter.isCompatible(filterObject.filter)) {
+                        filter = filterObject.filter;
+                        completeSince = filterObject.completeSince;
+                    } else {
+                        completeSince = getNewCompleteSince(module, period, filter);
+                    }
+                    keys.forEach(filter::put);
+                    putFilterObject(filterKey, filter.toByteArray(), completeSince, b -> {
+                        if (filterObject == null) {
+                            b.ifNoneMatch("*");
+                        } else {
+                            b.ifMatch(filterObject.eTag);
+                        }
+                    });
+                    moduleKeys.removeAll(keys);
+                    logger.info("Added {} entries to cache key filter {}", keys.size(), filterKey);
+                    return;
+                } catch (S3Exception e) {
+                    // 412 Precondition Failed or 409 Conflict: the filter was updated concurrently
+                    if (e.statusCode() != 412 && e.statusCode() != 409) {
+                        logger.warn("Failed to update cache key filter {}: {}", filterKey, e.toString());
+                        break;
+                    }
+                    logger.debug("Cache key filter {} was updated concurrently, retrying", filterKey);
+                    backoff(attempt);
+                } catch (IOException | SdkException e) {
+                    logger.warn("Failed to update cache key filter {}: {}", filterKey, e.toString());
+                    break;
+                }
+            }
+            if (resetFilterObject(filterKey, keys)) {
+                moduleKeys.removeAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Mark the filter object incomplete after it could not be updated: the keys are added with an unconditional write
+     * and "complete since" is reset to now, so the lookups of the module are filtered again only when the entries
+     * written before are expired. The keys concurrently added by other builds may be dropped by this write, they are
+     * covered by the same reset.
+     *
+     * @return true if the filter object was written
+     */
+    private boolean resetFilterObject(String filterKey, List<String> keys) {
+        CacheKeyFilter filter = CacheKeyFilter.create(FILTER_EXPECTED_KEYS);
+        try {
+            FilterObject filterObject = readFilterObject(filterKey);
+            if (filterObject != null && filter.isCompatible(filterObject.filter)) {
+                filter = filterObject.filter;
+            }
+        } catch (IOException | SdkException e) {
+            // replaced with the new filter
+            logger.debug("Failed to read cache key filter {}: {}", filterKey, e.toString());
+        }
+        keys.forEach(filter::put);
+        Instant completeSince = now();
+        try {
+            putFilterObject(filterKey, filter.toByteArray(), completeSince.toEpochMilli(), b -> {
+            });
+            logger.warn("Cache key filter {} is marked incomplete, lookups of the module are not filtered until {}",
+                filterKey, completeSince.plus(config.getExpiration()));
+            return true;
+        } catch (SdkException e) {
+            logger.warn("Failed to mark cache key filter {} incomplete, {} entries may be missing in it: {}",
+                filterKey, keys.size(), e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Create the chain marker of the period if it does not exist yet: its "complete since" is taken from the marker of
+     * the previous period if it exists, otherwise it's now.
+     */
+    private void markChain(long period) {
+        if (markedPeriod == period) {
+            return;
+        }
+        String chainKey = getChainKey(period);
+        try {
+            if (readCompleteSince(chainKey) == null) {
+                Long previous = readCompleteSince(getChainKey(period - 1));
+                long completeSince = previous == null || previous == UNKNOWN_COMPLETE_SINCE
+                    ? now().toEpochMilli() : previous;
+                putFilterObject(chainKey, new byte[0], completeSince, b -> b.ifNoneMatch("*"));
+                logger.info("Created cache key filter chain marker {}", chainKey);
+            }
+            markedPeriod = period;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 412 || e.statusCode() == 409) {
+                // created concurrently
+                markedPeriod = period;
+            } else {
+                logger.warn("Failed to create cache key filter chain marker {}: {}", chainKey, e.toString());
+            }
+        } catch (IOException | SdkException e) {
+            logger.warn("Failed to create cache key filter chain marker {}: {}", chainKey, e.toString());
+        }
+    }
+
+    private void putFilterObject(
+        String key,
+        byte[] content,
+        long completeSince,
+        Consumer<PutObjectRequest.Builder> condition
+    ) {
+        // the object is needed while the entries of the period are not expired
+        Instant expires = now().plus(config.getExpiration().multipliedBy(2));
+        s3Client.putObject(b -> {
+            b.bucket(config.getBucket()).key(key).expires(expires)
+                .metadata(Collections.singletonMap(FILTER_COMPLETE_SINCE, Long.toString(completeSince)));
+            condition.accept(b);
+        }, RequestBody.fromBytes(content));
+    }
+
+    /**
+     * @return "complete since" of the new filter object of the module: taken from the filter object of the previous
+     * period if it exists, otherwise the module has no entries in the filter before
+     */
+    private long getNewCompleteSince(String module, long period, CacheKeyFilter filter) throws IOException {
+        FilterObject previous = readFilterObject(getFilterKey(module, period - 1));
+        if (previous == null) {
+            return NEVER_RESET;
+        }
+        if (previous.completeSince != UNKNOWN_COMPLETE_SINCE && filter.isCompatible(previous.filter)) {
+            return previous.completeSince;
+        }
+        return now().toEpochMilli();
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(10L, 50L) * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add the keys of the incomplete entries (if any) to the filter objects.
+     */
+    @Override
+    public void close() {
+        if (config.isKeyFilter()) {
+            writtenKeys.keySet().forEach(this::updateFilterObject);
+        }
+    }
+
     protected boolean isExpired(@Nullable ZonedDateTime expires) {
         return expires != null && expires.isBefore(ZonedDateTime.now());
     }
@@ -66,11 +514,31 @@ public class S3CacheStorage implements CacheStorage {
     public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) throws CacheStorageException {
         String awsKey = cacheEntryKey + "/" + fileName;
         Instant expires = Instant.now().plus(config.getExpiration());
+        addWrittenKey(cacheEntryKey, fileName);
         s3Client.putObject(b -> b.bucket(config.getBucket()).key(awsKey).expires(expires),
             RequestBody.fromBytes(value));
         return 0;
     }
 
+    @Override
+    public int writeStream(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        InputStream in,
+        long length
+    ) throws CacheStorageException {
+        if (length < 0) {
+            // the content length is mandatory for the upload
+            return CacheStorage.super.writeStream(cacheEntryKey, fileName, in, length);
+        }
+        String awsKey = cacheEntryKey + "/" + fileName;
+        Instant expires = Instant.now().plus(config.getExpiration());
+        addWrittenKey(cacheEntryKey, fileName);
+        s3Client.putObject(b -> b.bucket(config.getBucket()).key(awsKey).expires(expires),
+            RequestBody.fromInputStream(in, length));
+        return 0;
+    }
+
     @Nullable
     static ZonedDateTime parseExpires(@Nullable String expiresString) {
         if (expiresString == null || expiresString.isEmpty()) {
@@ -78,4 +546,17 @@ public class S3CacheStorage implements CacheStorage {
         }
         return ZonedDateTime.parse(expiresString, RFC_1123_DATE_TIME);
     }
+
+    private static final class FilterObject {
+
+        private final CacheKeyFilter filter;
+        private final String eTag;
+        private final long completeSince;
+
+        private FilterObject(CacheKeyFilter filter, String eTag, long completeSince) {
+            this.filter = filter;
+            this.eTag = eTag;
+            this.completeSince = completeSince;
+        }
+    }
 }
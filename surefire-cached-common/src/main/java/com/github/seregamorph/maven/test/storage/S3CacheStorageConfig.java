@@ -10,10 +10,19 @@ public class S3CacheStorageConfig {
 
     private final String bucket;
     private final Duration expiration;
+    private final boolean keyFilter;
 
     public S3CacheStorageConfig(String bucket, Duration expiration) {
+        this(bucket, expiration, false);
+    }
+
+    /**
+     * @param keyFilter maintain the filter objects of existing cache entries and skip lookups of missing ones
+     */
+    public S3CacheStorageConfig(String bucket, Duration expiration, boolean keyFilter) {
         this.bucket = Objects.requireNonNull(bucket, "bucket");
         this.expiration = Objects.requireNonNull(expiration, "expiration");
+        this.keyFilter = keyFilter;
     }
 
     public String getBucket() {
@@ -24,11 +33,16 @@ public class S3CacheStorageConfig {
         return expiration;
     }
 
+    public boolean isKeyFilter() {
+        return keyFilter;
+    }
+
     @Override
     public String toString() {
         return "S3CacheStorageConfig{" +
             "bucket='" + bucket + '\'' +
             ", expiration=" + expiration +
+            ", keyFilter=" + keyFilter +
             '}';
     }
 }
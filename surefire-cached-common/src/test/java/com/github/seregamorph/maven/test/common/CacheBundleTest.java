@@ -0,0 +1,50 @@
+package com.github.seregamorph.maven.test.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CacheBundleTest {
+
+    @Test
+    public void shouldReadWrittenBundle(@TempDir Path tempDir) throws IOException {
+        var packFile = tempDir.resolve("jacoco.tar.gz");
+        Files.write(packFile, new byte[]{1, 2, 3});
+        var bundleFile = tempDir.resolve("surefire-cached-bundle.bin").toFile();
+        new CacheBundle()
+            .addBytes("surefire-cached-output.json", "{}".getBytes(UTF_8))
+            .addBytes("surefire-cached-input.json", new byte[0])
+            .addFile("jacoco.tar.gz", packFile.toFile())
+            .writeTo(bundleFile);
+
+        var fileNames = new ArrayList<String>();
+        try (var in = Files.newInputStream(bundleFile.toPath())) {
+            CacheBundle.read(in, (fileName, content) -> {
+                fileNames.add(fileName);
+                if (fileName.equals("jacoco.tar.gz")) {
+                    assertArrayEquals(new byte[]{1, 2, 3}, content.readAllBytes());
+                }
+                // other contents are skipped
+                return true;
+            });
+        }
+        assertEquals(List.of("surefire-cached-output.json", "surefire-cached-input.json", "jacoco.tar.gz"),
+            fileNames);
+
+        try (var in = Files.newInputStream(bundleFile.toPath())) {
+            assertArrayEquals("{}".getBytes(UTF_8), CacheBundle.readBytes(in, "surefire-cached-output.json"));
+        }
+        try (var in = Files.newInputStream(bundleFile.toPath())) {
+            assertNull(CacheBundle.readBytes(in, "missing.json"));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.seregamorph.maven.test.common;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class CacheKeyFilterTest {
+
+    @Test
+    public void shouldHaveNoFalseNegatives() throws IOException {
+        var filter = CacheKeyFilter.create(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.put("surefire-cached/com.acme/module" + i + "/hash" + i));
+        }
+        assertFalse(filter.put("surefire-cached/com.acme/module0/hash0"));
+
+        var restored = CacheKeyFilter.read(new ByteArrayInputStream(filter.toByteArray()));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(restored.mightContain("surefire-cached/com.acme/module" + i + "/hash" + i));
+            if (restored.mightContain("failsafe-cached/com.acme/module" + i + "/hash" + i)) {
+                falsePositives++;
+            }
+        }
+        // 1% expected
+        assertTrue(falsePositives < 50, "falsePositives: " + falsePositives);
+    }
+
+    @Test
+    public void shouldMergeFilters() {
+        var filter1 = CacheKeyFilter.create(100);
+        filter1.put("surefire-cached/com.acme/core/hash1");
+        var filter2 = CacheKeyFilter.create(100);
+        filter2.put("surefire-cached/com.acme/core/hash2");
+
+        filter1.merge(filter2);
+
+        assertTrue(filter1.mightContain("surefire-cached/com.acme/core/hash1"));
+        assertTrue(filter1.mightContain("surefire-cached/com.acme/core/hash2"));
+        assertThrows(IllegalArgumentException.class, () -> filter1.merge(CacheKeyFilter.create(1000)));
+    }
+}
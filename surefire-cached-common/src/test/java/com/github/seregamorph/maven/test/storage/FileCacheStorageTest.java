@@ -0,0 +1,123 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.util.MoreFileUtils;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileCacheStorageTest {
+
+    private static final CacheEntryKey CACHE_ENTRY_KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "utils"), "01234567890abcdef");
+
+    @Test
+    public void shouldCopyFiles(@TempDir Path baseDir, @TempDir Path workDir) throws IOException {
+        var storage = new FileCacheStorage(baseDir.toFile());
+        var content = "reports".repeat(100_000).getBytes(UTF_8);
+        var source = Files.write(workDir.resolve("source.tar.gz"), content);
+
+        assertEquals(0, storage.writeFile(CACHE_ENTRY_KEY, "reports.tar.gz", source));
+        var target = workDir.resolve("target.tar.gz");
+        assertTrue(storage.readToFile(CACHE_ENTRY_KEY, "reports.tar.gz", target));
+        assertArrayEquals(content, Files.readAllBytes(target));
+
+        assertFalse(storage.readToFile(CACHE_ENTRY_KEY, "missing.tar.gz", workDir.resolve("missing.tar.gz")));
+        assertNull(storage.read(CACHE_ENTRY_KEY, "missing.json"));
+    }
+
+    @Test
+    public void shouldNotLeaveTempFiles(@TempDir Path baseDir) throws IOException {
+        var storage = new FileCacheStorage(baseDir.toFile());
+        storage.write(CACHE_ENTRY_KEY, "output.json", "{}".getBytes(UTF_8));
+        storage.write(CACHE_ENTRY_KEY, "output.json", "{\"a\":1}".getBytes(UTF_8));
+
+        assertEquals("{\"a\":1}", new String(storage.read(CACHE_ENTRY_KEY, "output.json"), UTF_8));
+        // the blob of the overwritten content is released
+        var contentHash = MoreFileUtils.sha256(baseDir.resolve(CACHE_ENTRY_KEY + "/output.json"));
+        assertEquals(List.of(".blob-output.json", contentHash, "output.json"), listFileNames(baseDir));
+    }
+
+    @Test
+    public void shouldShareAndEvictBlobs(@TempDir Path baseDir, @TempDir Path workDir) throws IOException {
+        var storage = new FileCacheStorage(baseDir.toFile(), 2);
+        var source = Files.write(workDir.resolve("reports.tar.gz"), "reports".getBytes(UTF_8));
+        var contentHash = MoreFileUtils.sha256(source);
+        var blobFile = baseDir.resolve("blobs/" + contentHash.substring(0, 2) + "/" + contentHash);
+
+        assertFalse(storage.writeReference(cacheEntryKey("1"), "reports.tar.gz", contentHash));
+        storage.writeFile(cacheEntryKey("1"), "reports.tar.gz", source);
+        assertTrue(Files.exists(blobFile));
+        assertTrue(storage.writeReference(cacheEntryKey("2"), "reports.tar.gz", contentHash));
+        assertArrayEquals("reports".getBytes(UTF_8), storage.read(cacheEntryKey("2"), "reports.tar.gz"));
+        assertEquals(3, Files.getAttribute(blobFile, "unix:nlink"));
+
+        // evicts entries "1" and "2", the blob is not referenced anymore
+        storage.write(cacheEntryKey("3"), "output.json", "{}".getBytes(UTF_8));
+        storage.write(cacheEntryKey("4"), "output.json", "{}".getBytes(UTF_8));
+        assertFalse(Files.exists(blobFile));
+    }
+
+    @Test
+    public void shouldProvideLinkedBlobOfEntryFile(@TempDir Path baseDir) throws IOException {
+        var storage = new FileCacheStorage(baseDir.toFile());
+        assertNull(storage.getEntryBlobFile(CACHE_ENTRY_KEY, "reports.tar.gz"));
+
+        storage.write(CACHE_ENTRY_KEY, "reports.tar.gz", "reports".getBytes(UTF_8));
+        var blobFile = storage.getEntryBlobFile(CACHE_ENTRY_KEY, "reports.tar.gz");
+        assertNotNull(blobFile);
+        assertTrue(Files.isSameFile(storage.getEntryFile(CACHE_ENTRY_KEY, "reports.tar.gz").toPath(),
+            blobFile.toPath()));
+
+        // the entity is overwritten, the blob keeps the content
+        storage.write(CACHE_ENTRY_KEY, "reports.tar.gz", "reports 2".getBytes(UTF_8));
+        var blobFile2 = storage.getEntryBlobFile(CACHE_ENTRY_KEY, "reports.tar.gz");
+        assertNotNull(blobFile2);
+        assertNotEquals(blobFile, blobFile2);
+        assertArrayEquals("reports 2".getBytes(UTF_8), Files.readAllBytes(blobFile2.toPath()));
+    }
+
+    private static CacheEntryKey cacheEntryKey(String hash) {
+        return new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", "utils"), hash);
+    }
+
+    private static List<String> listFileNames(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                .map(file -> file.getFileName().toString())
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void shouldFailTransferOfTruncatedSource(@TempDir Path workDir) throws IOException {
+        var source = Files.write(workDir.resolve("source.bin"), new byte[100]);
+        var target = workDir.resolve("target.bin");
+        try (var sourceChannel = FileChannel.open(source);
+             var targetChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // e.g. the source was truncated after its size was taken
+            assertThrows(EOFException.class, () -> FileCacheStorage.transfer(sourceChannel, 200L, targetChannel));
+        }
+        assertEquals(100L, Files.size(target));
+    }
+}
@@ -2,12 +2,18 @@ package com.github.seregamorph.maven.test.storage;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
 import com.github.seregamorph.maven.test.common.GroupArtifactId;
 import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import org.intellij.lang.annotations.Language;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class GzipDelegateCacheStorageTest {
 
@@ -41,4 +47,20 @@ class GzipDelegateCacheStorageTest {
         byte[] restoredValue = storage.read(cacheEntryKey, fileName);
         assertEquals(JSON_CONTENT, new String(restoredValue, UTF_8));
     }
+
+    @Test
+    public void testGzipDelegateCacheStorageStreaming(@TempDir Path baseDir) throws IOException {
+        var storage = new GzipDelegateCacheStorage(new FileCacheStorage(baseDir.toFile()));
+        var cacheEntryKey = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+            new GroupArtifactId("com.acme", "utils"), "01234567890abcdef");
+
+        var bytes = JSON_CONTENT.getBytes(UTF_8);
+        for (var fileName : List.of("content.json", "reports.tar.gz")) {
+            storage.writeStream(cacheEntryKey, fileName, new ByteArrayInputStream(bytes), bytes.length);
+            try (var in = storage.readStream(cacheEntryKey, fileName)) {
+                assertEquals(JSON_CONTENT, new String(in.readAllBytes(), UTF_8));
+            }
+        }
+        assertNull(storage.readStream(cacheEntryKey, "missing.json"));
+    }
 }
@@ -0,0 +1,107 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Local S3 stand-in for tests: single bucket, Expires header, user metadata, conditional writes; counts transferred
+ * bytes.
+ */
+class InMemoryS3Client implements S3Client {
+
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final AtomicInteger eTagCounter = new AtomicInteger();
+    final AtomicLong downloadedBytes = new AtomicLong();
+    final AtomicInteger aborted = new AtomicInteger();
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        var object = objects.get(request.key());
+        if (object == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message(request.key()).build();
+        }
+        var response = GetObjectResponse.builder()
+            .eTag(object.eTag)
+            .metadata(object.metadata)
+            .contentLength((long) object.content.length)
+            .expiresString(object.expires == null ? null
+                : RFC_1123_DATE_TIME.format(object.expires.atZone(ZoneOffset.UTC)))
+            .build();
+        InputStream body = new ByteArrayInputStream(object.content) {
+            @Override
+            public synchronized int read() {
+                int b = super.read();
+                if (b >= 0) {
+                    downloadedBytes.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    downloadedBytes.addAndGet(n);
+                }
+                return n;
+            }
+        };
+        return new ResponseInputStream<>(response, AbortableInputStream.create(body, aborted::incrementAndGet));
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        byte[] content;
+        try (var in = requestBody.contentStreamProvider().newStream()) {
+            content = in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var eTag = "\"" + eTagCounter.incrementAndGet() + "\"";
+        objects.compute(request.key(), (key, existing) -> {
+            if ("*".equals(request.ifNoneMatch()) && existing != null
+                || request.ifMatch() != null && (existing == null || !request.ifMatch().equals(existing.eTag))) {
+                throw S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+            }
+            return new StoredObject(content, request.expires(), eTag, request.metadata());
+        });
+        return PutObjectResponse.builder().eTag(eTag).build();
+    }
+
+    void expire(String key) {
+        objects.computeIfPresent(key, (k, object) ->
+            new StoredObject(object.content, Instant.now().minusSeconds(1), object.eTag, object.metadata));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private record StoredObject(byte[] content, Instant expires, String eTag, Map<String, String> metadata) {
+    }
+}
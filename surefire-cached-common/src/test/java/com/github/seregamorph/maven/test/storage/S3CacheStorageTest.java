@@ -1,15 +1,199 @@
 package com.github.seregamorph.maven.test.storage;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 class S3CacheStorageTest {
 
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "utils"), "01234567890abcdef");
+    private static final CacheEntryKey OTHER_KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "core"), "01234567890abcdef");
+
     @Test
     void shouldParseExpires() {
         var expires = S3CacheStorage.parseExpires("Sat, 31 May 2025 01:02:03 GMT");
         assertEquals(ZonedDateTime.parse("2025-05-31T01:02:03Z"), expires);
     }
+
+    @Test
+    void shouldNotDownloadExpiredTaskOutput() {
+        var s3Client = new InMemoryS3Client();
+        var storage = new S3CacheStorage(s3Client, new S3CacheStorageConfig("bucket", Duration.ofHours(1)));
+        storage.write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+        assertArrayEquals("{}".getBytes(UTF_8), storage.read(KEY, "surefire-cached-output.json"));
+        s3Client.downloadedBytes.set(0L);
+
+        s3Client.expire(KEY + "/surefire-cached-output.json");
+
+        assertNull(storage.read(KEY, "surefire-cached-output.json"));
+        assertEquals(0L, s3Client.downloadedBytes.get());
+        assertEquals(1, s3Client.aborted.get());
+    }
+
+    @Test
+    void shouldCheckExpiryOfTaskOutputOnly() throws IOException {
+        var s3Client = new InMemoryS3Client();
+        var storage = new S3CacheStorage(s3Client, new S3CacheStorageConfig("bucket", Duration.ofHours(1)));
+        storage.write(KEY, "jacoco.tar.gz", new byte[]{1, 2, 3});
+
+        // artifacts are fetched only after the valid task output, they expire a bit earlier
+        s3Client.expire(KEY + "/jacoco.tar.gz");
+
+        try (var in = storage.readStream(KEY, "jacoco.tar.gz")) {
+            assertArrayEquals(new byte[]{1, 2, 3}, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void shouldFilterLookupsWhenFilterCoversExpirationPeriod() {
+        var s3Client = new InMemoryS3Client();
+        var clock = new AtomicReference<>(Instant.parse("2025-01-01T00:10:00Z"));
+        var writer = createFilteredStorage(s3Client, clock);
+        // published before the task output is written, without close
+        writer.write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+
+        // the entries written before the filter objects were created may be missing
+        var reader = createFilteredStorage(s3Client, clock);
+        assertTrue(reader.mightContain(KEY));
+        assertTrue(reader.mightContain(OTHER_KEY));
+
+        clock.set(clock.get().plus(Duration.ofHours(1)));
+        reader = createFilteredStorage(s3Client, clock);
+        assertTrue(reader.mightContain(KEY));
+        assertFalse(reader.mightContain(OTHER_KEY));
+    }
+
+    @Test
+    void shouldChainFilterOfNextPeriod() {
+        var s3Client = new InMemoryS3Client();
+        var clock = new AtomicReference<>(Instant.parse("2025-01-01T00:10:00Z"));
+        createFilteredStorage(s3Client, clock).write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+
+        clock.set(clock.get().plus(Duration.ofHours(1)));
+        var writer = createFilteredStorage(s3Client, clock);
+        writer.write(OTHER_KEY, "surefire-cached-bundle.bin", new byte[]{1, 2, 3});
+
+        var reader = createFilteredStorage(s3Client, clock);
+        assertTrue(reader.mightContain(KEY));
+        assertTrue(reader.mightContain(OTHER_KEY));
+        assertFalse(reader.mightContain(new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+            new GroupArtifactId("com.acme", "web"), "01234567890abcdef")));
+    }
+
+    @Test
+    void shouldRetryFilterUpdateOnConcurrentWrite() {
+        var clock = new AtomicReference<>(Instant.parse("2025-01-01T00:10:00Z"));
+        var concurrentKey = new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", "utils"),
+            "fedcba09876543210");
+        var concurrentWriter = new AtomicReference<S3CacheStorage>();
+        var s3Client = new InMemoryS3Client() {
+            private boolean concurrentWritten;
+
+            @Override
+            public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+                if (request.key().endsWith(".bin") && !concurrentWritten) {
+                    concurrentWritten = true;
+                    // another build updates the filter object between the read and the conditional write
+                    concurrentWriter.get().write(concurrentKey, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+                }
+                return super.putObject(request, requestBody);
+            }
+        };
+        concurrentWriter.set(createFilteredStorage(s3Client, clock));
+        createFilteredStorage(s3Client, clock).write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+
+        clock.set(clock.get().plus(Duration.ofHours(1)));
+        var reader = createFilteredStorage(s3Client, clock);
+        assertTrue(reader.mightContain(KEY));
+        assertTrue(reader.mightContain(concurrentKey));
+    }
+
+    @Test
+    void shouldWriteEntityAndResetFilterWhenFilterUpdateFails() {
+        var clock = new AtomicReference<>(Instant.parse("2025-01-01T00:10:00Z"));
+        var s3Client = new InMemoryS3Client() {
+            private boolean failing;
+
+            @Override
+            public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+                if (failing && request.key().endsWith(".bin") && request.ifMatch() == null
+                    && request.ifNoneMatch() == null) {
+                    failing = false;
+                } else if (failing && request.key().endsWith(".bin")) {
+                    throw S3Exception.builder().statusCode(500).message("Internal Error").build();
+                }
+                return super.putObject(request, requestBody);
+            }
+        };
+        createFilteredStorage(s3Client, clock).write(OTHER_KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+
+        clock.set(clock.get().plus(Duration.ofHours(1)));
+        // conditional writes of the filter object fail, the unconditional one resets it
+        s3Client.failing = true;
+        var writer = createFilteredStorage(s3Client, clock);
+        writer.write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+        assertArrayEquals("{}".getBytes(UTF_8), writer.read(KEY, "surefire-cached-output.json"));
+        assertFalse(s3Client.failing);
+
+        var unknownKey = new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", "utils"),
+            "fedcba09876543210");
+        var reader = createFilteredStorage(s3Client, clock);
+        // the module filter is incomplete, other modules are filtered
+        assertTrue(reader.mightContain(unknownKey));
+        assertTrue(reader.mightContain(OTHER_KEY));
+        assertFalse(reader.mightContain(new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+            new GroupArtifactId("com.acme", "web"), "01234567890abcdef")));
+
+        clock.set(clock.get().plus(Duration.ofHours(1)));
+        reader = createFilteredStorage(s3Client, clock);
+        assertTrue(reader.mightContain(KEY));
+        assertFalse(reader.mightContain(unknownKey));
+    }
+
+    @Test
+    void shouldWriteEntityWhenFilterIsNotWritable() {
+        var clock = new AtomicReference<>(Instant.parse("2025-01-01T00:10:00Z"));
+        var s3Client = new InMemoryS3Client() {
+            @Override
+            public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+                if (request.key().startsWith("filters/")) {
+                    throw S3Exception.builder().statusCode(403).message("Access Denied").build();
+                }
+                return super.putObject(request, requestBody);
+            }
+        };
+        var writer = createFilteredStorage(s3Client, clock);
+        writer.write(KEY, "surefire-cached-output.json", "{}".getBytes(UTF_8));
+        writer.close();
+
+        assertArrayEquals("{}".getBytes(UTF_8), writer.read(KEY, "surefire-cached-output.json"));
+    }
+
+    private static S3CacheStorage createFilteredStorage(InMemoryS3Client s3Client, AtomicReference<Instant> clock) {
+        return new S3CacheStorage(s3Client, new S3CacheStorageConfig("bucket", Duration.ofHours(1), true)) {
+            @Override
+            protected Instant now() {
+                return clock.get();
+            }
+        };
+    }
 }
@@ -1,5 +1,7 @@
 package com.github.seregamorph.maven.test.extension;
 
+import static com.github.seregamorph.maven.test.util.MavenPropertyUtils.isTrue;
+
 import com.github.seregamorph.maven.test.extension.spi.CacheStorageProvider;
 import com.github.seregamorph.maven.test.storage.CacheStorage;
 import com.github.seregamorph.maven.test.storage.S3CacheStorage;
@@ -45,7 +47,8 @@ public class S3CacheStorageProvider implements CacheStorageProvider {
         }
         Duration expiration = Duration.ofHours(Integer.parseInt(
             propertySource.getProperty("cacheExpirationHours", "6")));
-        S3CacheStorageConfig s3CacheStorageConfig = new S3CacheStorageConfig(bucket, expiration);
+        boolean keyFilter = isTrue(propertySource.getProperty("cacheKeyFilter", "false"));
+        S3CacheStorageConfig s3CacheStorageConfig = new S3CacheStorageConfig(bucket, expiration, keyFilter);
         return new S3CacheStorage(s3Client, s3CacheStorageConfig);
     }
 }
@@ -1,5 +1,7 @@
 package com.github.seregamorph.maven.test.config;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
 import java.util.List;
 
 /**
@@ -9,8 +11,12 @@ public class ArtifactsConfig {
 
     private List<String> includes;
 
+    // compiled on demand
+    private AntPathPatterns includesPatterns;
+
     public ArtifactsConfig setIncludes(List<String> includes) {
         this.includes = includes;
+        this.includesPatterns = null;
         return this;
     }
 
@@ -18,6 +24,14 @@ public class ArtifactsConfig {
         return includes;
     }
 
+    @JsonIgnore
+    public AntPathPatterns getIncludesPatterns() {
+        if (includesPatterns == null) {
+            includesPatterns = AntPathPatterns.compile(includes);
+        }
+        return includesPatterns;
+    }
+
     @Override
     public String toString() {
         return "ArtifactsConfig{" +
@@ -1,6 +1,8 @@
 package com.github.seregamorph.maven.test.config;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +52,10 @@ public class TestPluginConfig {
 
     private Map<String, ArtifactsConfig> artifacts;
 
+    // compiled on demand
+    private AntPathPatterns excludeModulesPatterns;
+    private AntPathPatterns excludeClasspathResourcesPatterns;
+
     public TestPluginConfig setInputProperties(List<String> inputProperties) {
         this.inputProperties = inputProperties;
         return this;
@@ -62,11 +68,13 @@ public class TestPluginConfig {
 
     public TestPluginConfig setExcludeModules(List<String> excludeModules) {
         this.excludeModules = excludeModules;
+        this.excludeModulesPatterns = null;
         return this;
     }
 
     public TestPluginConfig setExcludeClasspathResources(List<String> excludeClasspathResources) {
         this.excludeClasspathResources = excludeClasspathResources;
+        this.excludeClasspathResourcesPatterns = null;
         return this;
     }
 
@@ -91,6 +99,28 @@ public class TestPluginConfig {
         return excludeClasspathResources;
     }
 
+    /**
+     * @return compiled {@link #getExcludeModules()} matching "$groupId:$artifactId"
+     */
+    @JsonIgnore
+    public AntPathPatterns getExcludeModulesPatterns() {
+        if (excludeModulesPatterns == null) {
+            excludeModulesPatterns = AntPathPatterns.compile(excludeModules, ':');
+        }
+        return excludeModulesPatterns;
+    }
+
+    /**
+     * @return compiled {@link #getExcludeClasspathResources()}
+     */
+    @JsonIgnore
+    public AntPathPatterns getExcludeClasspathResourcesPatterns() {
+        if (excludeClasspathResourcesPatterns == null) {
+            excludeClasspathResourcesPatterns = AntPathPatterns.compile(excludeClasspathResources);
+        }
+        return excludeClasspathResourcesPatterns;
+    }
+
     public Map<String, ArtifactsConfig> getArtifacts() {
         return artifacts;
     }
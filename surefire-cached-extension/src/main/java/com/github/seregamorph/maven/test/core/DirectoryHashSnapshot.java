@@ -0,0 +1,207 @@
+package com.github.seregamorph.maven.test.core;
+
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-file hash snapshot of a module output directory (like "target/classes") stored in the build directory, so
+ * later builds with the same "target" hash only the files with changed stat data (size, last modified, file key).
+ * <p>
+ * Files modified shortly before the snapshot was taken are "racily clean": their modification could be not
+ * visible in the timestamp, so they are always hashed again.
+ *
+ * @author Sergey Chernov
+ */
+public final class DirectoryHashSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryHashSnapshot.class);
+
+    private static final int MAGIC = 0x48534e50;
+    /**
+     * Updated on each change of the file layout
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Covers coarse file system timestamp granularity (up to 2 seconds for FAT)
+     */
+    public static final long RACY_INTERVAL_MILLIS = 2000L;
+
+    /**
+     * @param snapshotDir     directory for the snapshot file, normally the build directory of the module
+     * @param dir             hashed directory
+     * @param mode            id of the hash function, snapshots of different modes are separate files
+     * @param excludePatterns snapshots of different exclude patterns (e.g. surefire and failsafe executions with
+     *                        different excludes of the same directory) are separate files as well
+     * @return snapshot file
+     */
+    public static File snapshotFile(File snapshotDir, File dir, String mode, AntPathPatterns excludePatterns) {
+        String name = "hash-snapshot-" + dir.getName() + "-" + mode;
+        if (!excludePatterns.isEmpty()) {
+            byte[] patterns = String.join("\n", excludePatterns.patterns()).getBytes(StandardCharsets.UTF_8);
+            name += "-" + HashUtils.hashArray(patterns).substring(0, 8);
+        }
+        return new File(snapshotDir, name + ".bin");
+    }
+
+    /**
+     * Calculate hash sums of files from the directory reusing unchanged entries of the snapshot file. The snapshot
+     * file is updated if any file was hashed.
+     *
+     * @param dir             hashed directory
+     * @param excludePatterns
+     * @param mode            id of the hash function
+     * @param fileHasher      hash function
+     * @param snapshotFile    see {@link #snapshotFile(File, File, String, AntPathPatterns)}
+     * @return directory entry (relative path) hash sums
+     */
+    public static SortedMap<String, String> hashDirectory(
+        File dir,
+        AntPathPatterns excludePatterns,
+        String mode,
+        HashUtils.FileHasher fileHasher,
+        File snapshotFile
+    ) {
+        long snapshotTime = System.currentTimeMillis();
+        Snapshot previous = read(snapshotFile, mode);
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        AtomicInteger hashedFiles = new AtomicInteger();
+        SortedMap<String, String> hashes = HashUtils.walkDirectory(dir, excludePatterns, (file, relativePath) -> {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            String fileKey = attributes.fileKey() == null ? "" : attributes.fileKey().toString();
+            Entry entry = previous.entries.get(relativePath);
+            if (entry == null || !entry.isUnchanged(size, lastModified, fileKey, previous.time)) {
+                entry = new Entry(size, lastModified, fileKey, fileHasher.hash(file, relativePath));
+                hashedFiles.incrementAndGet();
+            }
+            entries.put(relativePath, entry);
+            return entry.hash;
+        });
+        log.debug("Hashed {} of {} files of {}", hashedFiles, hashes.size(), dir);
+        if (hashedFiles.get() > 0 || entries.size() != previous.entries.size()) {
+            write(snapshotFile, new Snapshot(mode, snapshotTime, entries));
+        }
+        return hashes;
+    }
+
+    private static Snapshot read(File snapshotFile, String mode) {
+        if (!snapshotFile.exists()) {
+            return new Snapshot(mode, 0L, Collections.emptyMap());
+        }
+        try (InputStream in = Files.newInputStream(snapshotFile.toPath());
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(in))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION || !mode.equals(dis.readUTF())) {
+                log.debug("Ignoring incompatible hash snapshot {}", snapshotFile);
+                return new Snapshot(mode, 0L, Collections.emptyMap());
+            }
+            long time = dis.readLong();
+            int count = dis.readInt();
+            Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String relativePath = dis.readUTF();
+                entries.put(relativePath, new Entry(dis.readLong(), dis.readLong(), dis.readUTF(), dis.readUTF()));
+            }
+            return new Snapshot(mode, time, entries);
+        } catch (IOException e) {
+            // the snapshot is only an optimization
+            log.debug("Failed to read hash snapshot {}: {}", snapshotFile, e.toString());
+            return new Snapshot(mode, 0L, Collections.emptyMap());
+        }
+    }
+
+    private static void write(File snapshotFile, Snapshot snapshot) {
+        Path target = snapshotFile.toPath();
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(target.getParent(), snapshotFile.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile);
+                 DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(FORMAT_VERSION);
+                dos.writeUTF(snapshot.mode);
+                dos.writeLong(snapshot.time);
+                dos.writeInt(snapshot.entries.size());
+                for (Map.Entry<String, Entry> mapEntry : snapshot.entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    dos.writeUTF(mapEntry.getKey());
+                    dos.writeLong(entry.size);
+                    dos.writeLong(entry.lastModified);
+                    dos.writeUTF(entry.fileKey);
+                    dos.writeUTF(entry.hash);
+                }
+            }
+            // concurrent readers (e.g. dependent modules of a parallel build) never see a partial file
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write hash snapshot {}: {}", snapshotFile, e.toString());
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final String mode;
+        private final long time;
+        private final Map<String, Entry> entries;
+
+        private Snapshot(String mode, long time, Map<String, Entry> entries) {
+            this.mode = mode;
+            this.time = time;
+            this.entries = entries;
+        }
+    }
+
+    private static final class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final String hash;
+
+        private Entry(long size, long lastModified, String fileKey, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+
+        boolean isUnchanged(long size, long lastModified, String fileKey, long snapshotTime) {
+            return this.size == size
+                && this.lastModified == lastModified
+                && this.fileKey.equals(fileKey)
+                && lastModified + RACY_INTERVAL_MILLIS < snapshotTime;
+        }
+    }
+
+    private DirectoryHashSnapshot() {
+    }
+}
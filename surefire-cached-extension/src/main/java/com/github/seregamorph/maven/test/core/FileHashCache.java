@@ -2,16 +2,18 @@ package com.github.seregamorph.maven.test.core;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
 import com.github.seregamorph.maven.test.util.HashUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.SortedMap;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +24,11 @@ public class FileHashCache {
 
     private static final Logger log = LoggerFactory.getLogger(FileHashCache.class);
 
+    /**
+     * {@link DirectoryHashSnapshot} mode of classpath directory fingerprints
+     */
+    private static final String FINGERPRINT_MODE = "crc32";
+
     /**
      * "$canonicalAbsoluteFileName:$sensitivity" -> file hash
      */
@@ -30,10 +37,22 @@ public class FileHashCache {
      * "$canonicalAbsoluteDirName" -> directory hash
      */
     private final Cache<CacheKey, DirHashValue> cacheDirectories;
+    /**
+     * Optional persistent index of immutable files shared across sessions
+     */
+    @Nullable
+    private final PersistentHashIndex persistentHashIndex;
+    private final HashAlgorithm hashAlgorithm;
 
     public FileHashCache() {
+        this(null, HashAlgorithm.SHA1);
+    }
+
+    public FileHashCache(@Nullable PersistentHashIndex persistentHashIndex, HashAlgorithm hashAlgorithm) {
         cacheFiles = Caffeine.newBuilder().build();
         cacheDirectories = Caffeine.newBuilder().build();
+        this.persistentHashIndex = persistentHashIndex;
+        this.hashAlgorithm = hashAlgorithm;
     }
 
     /**
@@ -41,18 +60,26 @@ public class FileHashCache {
      * is ignored if present.
      * <p>
      * Note: this method will calculate the same hash sum for class directory and jar archive of the same directory.
+     * Entries are identified by CRC-32 and size (see {@link HashUtils#fingerprintZipFile(File, AntPathPatterns)}),
+     * so the compressed entries of jars are not decompressed.
      *
-     * @param file                class directory or JAR file
-     * @param excludePathPatterns ant expressions of classpath resources that should be skipped in hash calculation
+     * @param file            class directory or JAR file
+     * @param excludePatterns ant expressions of classpath resources that should be skipped in hash calculation
+     * @param snapshotDir     optional directory of the {@link DirectoryHashSnapshot} for class directory
      * @return aggregated hash sum
      */
-    public String getClasspathElementHash(File file, List<String> excludePathPatterns) {
+    public String getClasspathElementHash(File file, AntPathPatterns excludePatterns, @Nullable File snapshotDir) {
         try {
             CacheKey cacheKey = new CacheKey(file.getCanonicalFile().getAbsolutePath(),
-                new ArrayList<>(excludePathPatterns));
+                excludePatterns);
             if (file.isDirectory()) {
                 Function<CacheKey, DirHashValue> loader = $ -> {
-                    String hash = plainHash(HashUtils.hashDirectory(file, excludePathPatterns));
+                    SortedMap<String, String> fingerprints = snapshotDir == null
+                        ? HashUtils.fingerprintDirectory(file, excludePatterns)
+                        : DirectoryHashSnapshot.hashDirectory(file, excludePatterns, FINGERPRINT_MODE,
+                        (dirFile, relativePath) -> HashUtils.fingerprintFile(dirFile),
+                        DirectoryHashSnapshot.snapshotFile(snapshotDir, file, FINGERPRINT_MODE, excludePatterns));
+                    String hash = plainHash(fingerprints);
                     return new DirHashValue(hash, file.lastModified());
                 };
                 DirHashValue fileHashValue = cacheDirectories.get(cacheKey, loader);
@@ -65,9 +92,15 @@ public class FileHashCache {
                 return fileHashValue.hash();
             } else if (file.exists()) {
                 Function<CacheKey, FileHashValue> loader = $ -> {
-                    // calculate has hums of zip entries ignoring timestamps
-                    String hash = plainHash(HashUtils.hashZipFile(file, excludePathPatterns));
-                    return new FileHashValue(hash, file.length(), file.lastModified());
+                    long fileLength = file.length();
+                    long fileLastModified = file.lastModified();
+                    String hash = getIndexedFileHash(cacheKey, fileLength, fileLastModified);
+                    if (hash == null) {
+                        // fingerprints of zip entries from the central directory ignoring timestamps
+                        hash = plainHash(HashUtils.fingerprintZipFile(file, excludePatterns));
+                        putIndexedFileHash(cacheKey, fileLength, fileLastModified, hash);
+                    }
+                    return new FileHashValue(hash, fileLength, fileLastModified);
                 };
                 FileHashValue fileHashValue = cacheFiles.get(cacheKey, loader);
                 if (file.length() != fileHashValue.fileLength()
@@ -87,22 +120,66 @@ public class FileHashCache {
         }
     }
 
-    private static String plainHash(SortedMap<String, String> mapHash) {
+    /**
+     * Get hash sums of files of the module output directory (like "target/classes").
+     *
+     * @param dir             output directory
+     * @param excludePatterns ant expressions of files that should be skipped
+     * @param snapshotDir     optional directory of the {@link DirectoryHashSnapshot}
+     * @return directory entry (relative path) hash sums
+     */
+    public SortedMap<String, String> getDirectoryHashes(
+        File dir,
+        AntPathPatterns excludePatterns,
+        @Nullable File snapshotDir
+    ) {
+        if (snapshotDir == null) {
+            return HashUtils.hashDirectory(dir, excludePatterns, hashAlgorithm);
+        }
+        return DirectoryHashSnapshot.hashDirectory(dir, excludePatterns, hashAlgorithm.id(),
+            (file, relativePath) -> HashUtils.hashFile(hashAlgorithm, file),
+            DirectoryHashSnapshot.snapshotFile(snapshotDir, dir, hashAlgorithm.id(), excludePatterns));
+    }
+
+    /**
+     * @return hash sum of a file of the module output directory, the same as in {@link #getDirectoryHashes}
+     */
+    public String hashFile(Path file) throws IOException {
+        return HashUtils.hashFile(hashAlgorithm, file);
+    }
+
+    @Nullable
+    private String getIndexedFileHash(CacheKey cacheKey, long fileLength, long fileLastModified) {
+        if (persistentHashIndex == null || !persistentHashIndex.isIndexed(cacheKey.absoluteFileName())) {
+            return null;
+        }
+        return persistentHashIndex.get(hashAlgorithm, cacheKey.absoluteFileName(),
+            cacheKey.excludeClasspathResources().patterns(), fileLength, fileLastModified);
+    }
+
+    private void putIndexedFileHash(CacheKey cacheKey, long fileLength, long fileLastModified, String hash) {
+        if (persistentHashIndex != null && persistentHashIndex.isIndexed(cacheKey.absoluteFileName())) {
+            persistentHashIndex.put(hashAlgorithm, cacheKey.absoluteFileName(),
+                cacheKey.excludeClasspathResources().patterns(), fileLength, fileLastModified, hash);
+        }
+    }
+
+    private String plainHash(SortedMap<String, String> mapHash) {
         if (mapHash.isEmpty()) {
             return HashUtils.HASH_EMPTY_FILE_COLLECTION;
         }
 
         StringBuilder sw = new StringBuilder();
         mapHash.forEach((key, value) -> sw.append(key).append(":").append(value).append("\n"));
-        return HashUtils.hashArray(sw.toString().getBytes(StandardCharsets.UTF_8));
+        return HashUtils.hashArray(hashAlgorithm, sw.toString().getBytes(StandardCharsets.UTF_8));
     }
 
     private static final class CacheKey {
 
         private final String absoluteFileName;
-        private final List<String> excludeClasspathResources;
+        private final AntPathPatterns excludeClasspathResources;
 
-        private CacheKey(String absoluteFileName, List<String> excludeClasspathResources) {
+        private CacheKey(String absoluteFileName, AntPathPatterns excludeClasspathResources) {
             this.absoluteFileName = absoluteFileName;
             this.excludeClasspathResources = excludeClasspathResources;
         }
@@ -111,7 +188,7 @@ public class FileHashCache {
             return absoluteFileName;
         }
 
-        List<String> excludeClasspathResources() {
+        AntPathPatterns excludeClasspathResources() {
             return excludeClasspathResources;
         }
 
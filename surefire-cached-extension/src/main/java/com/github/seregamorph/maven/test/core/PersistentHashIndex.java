@@ -0,0 +1,422 @@
+package com.github.seregamorph.maven.test.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent on-disk index of classpath element hashes which survives across Maven sessions. It's intended only for
+ * immutable files like released jars of the local Maven repository, so they are not unpacked and hashed again by
+ * each build.
+ * <p>
+ * The index is an append-only log of CRC-32 protected records "hash algorithm, canonical path, exclude patterns,
+ * size, last modified, hash". On open the log is memory-mapped and loaded (the latest record of a key wins). New
+ * records are appended under an exclusive lock of a separate lock file, so concurrent Maven processes can share the
+ * same index. The lock is also held in the JVM per index file, as the file locks of the same JVM overlap (e.g. a
+ * Maven daemon running parallel builds). Torn records of a crashed process fail the CRC check and are skipped with the
+ * rest of the log tail.
+ * <p>
+ * The log is compacted (re-read under the lock to include the records appended by other processes and atomically
+ * replaced), appenders reopen the log file when it's replaced. The compaction is triggered by the share of garbage in
+ * the log: the records superseded by later ones and the entries of deleted files (e.g. the jars of old versions
+ * removed from the local repository), which is estimated by checking a sample of the entries. The entries of deleted
+ * files are dropped by the compaction, so the log does not grow with the history of the repository.
+ *
+ * @author Sergey Chernov
+ */
+public class PersistentHashIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentHashIndex.class);
+
+    /**
+     * Updated on each change of the record layout or the hash calculation
+     */
+    static final String INDEX_FILE_NAME = "hash-index-v5.bin";
+
+    private static final String LOCK_FILE_NAME = INDEX_FILE_NAME + ".lock";
+
+    /**
+     * Locks of the index files held in this JVM, so the file locks are never requested concurrently
+     */
+    private static final Map<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Smaller logs are not compacted (unless corrupted)
+     */
+    static final long MIN_COMPACT_LOG_SIZE = 64L * 1024;
+
+    /**
+     * The log is compacted on open if the estimated share of garbage records exceeds it
+     */
+    private static final double MAX_GARBAGE_RATIO = 0.5;
+
+    /**
+     * Number of the entries checked for deleted files on open
+     */
+    private static final int MISSING_FILES_SAMPLE_SIZE = 100;
+
+    /**
+     * Record header: body length and CRC-32 of the body
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private final Path indexFile;
+    private final Path lockFile;
+    private final ReentrantLock processLock;
+    private final String indexedRootPrefix;
+    private final Map<String, IndexEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Opened lazily, guarded by processLock
+     */
+    @Nullable
+    private FileChannel appendChannel;
+    /**
+     * Identity of the file of the appendChannel, null if not supported by the file system
+     */
+    @Nullable
+    private Object appendFileKey;
+
+    private PersistentHashIndex(Path indexFile, String indexedRootPrefix) {
+        this.indexFile = indexFile;
+        this.lockFile = indexFile.resolveSibling(LOCK_FILE_NAME);
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(indexFile.toAbsolutePath().normalize(),
+            path -> new ReentrantLock());
+        this.indexedRootPrefix = indexedRootPrefix;
+    }
+
+    /**
+     * Open (create if absent) the index.
+     *
+     * @param indexDir    directory of the index file
+     * @param indexedRoot only files under this directory are indexed (normally the local Maven repository)
+     * @return opened index
+     */
+    public static PersistentHashIndex open(Path indexDir, Path indexedRoot) {
+        try {
+            Files.createDirectories(indexDir);
+            PersistentHashIndex index = new PersistentHashIndex(indexDir.resolve(INDEX_FILE_NAME),
+                indexedRoot.toFile().getCanonicalPath() + File.separator);
+            index.load();
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open hash index " + indexDir, e);
+        }
+    }
+
+    /**
+     * @param canonicalPath canonical absolute file name
+     * @return true if the file is expected to be immutable, hence can be indexed
+     */
+    public boolean isIndexed(String canonicalPath) {
+        return canonicalPath.startsWith(indexedRootPrefix);
+    }
+
+    @Nullable
+    public String get(
+        HashAlgorithm hashAlgorithm,
+        String canonicalPath,
+        List<String> excludePathPatterns,
+        long fileLength,
+        long lastModified
+    ) {
+        IndexEntry entry = entries.get(key(hashAlgorithm, canonicalPath, excludePathPatterns));
+        if (entry == null || entry.fileLength != fileLength || entry.lastModified != lastModified) {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    public void put(
+        HashAlgorithm hashAlgorithm,
+        String canonicalPath,
+        List<String> excludePathPatterns,
+        long fileLength,
+        long lastModified,
+        String hash
+    ) {
+        String key = key(hashAlgorithm, canonicalPath, excludePathPatterns);
+        IndexEntry entry = new IndexEntry(fileLength, lastModified, hash);
+        if (entry.equals(entries.put(key, entry))) {
+            return;
+        }
+        try {
+            append(encode(key, entry));
+        } catch (IOException e) {
+            // the index is only an optimization
+            log.warn("Failed to append hash index {}: {}", indexFile, e.toString());
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        processLock.lock();
+        try {
+            closeAppendChannel();
+        } catch (IOException e) {
+            log.warn("Failed to close hash index {}: {}", indexFile, e.toString());
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private void closeAppendChannel() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+            appendChannel = null;
+            appendFileKey = null;
+        }
+    }
+
+    private static String key(HashAlgorithm hashAlgorithm, String canonicalPath, List<String> excludePathPatterns) {
+        StringBuilder sb = new StringBuilder(hashAlgorithm.id()).append('\0').append(canonicalPath);
+        for (String excludePathPattern : excludePathPatterns) {
+            sb.append('\0').append(excludePathPattern);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return canonical path of the indexed file
+     */
+    private static String getPath(String key) {
+        int start = key.indexOf('\0') + 1;
+        int end = key.indexOf('\0', start);
+        return end < 0 ? key.substring(start) : key.substring(start, end);
+    }
+
+    private void load() throws IOException {
+        if (readLog()) {
+            compact();
+        }
+    }
+
+    /**
+     * Read the log into the entries
+     *
+     * @return true if the log should be compacted
+     */
+    private boolean readLog() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return false;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Hash index is too large: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int records = 0;
+            boolean corrupted = false;
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    corrupted = true;
+                    break;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                if (crc32(body) != crc) {
+                    corrupted = true;
+                    break;
+                }
+                decode(body);
+                records++;
+            }
+            log.debug("Loaded hash index {} entries of {} records from {}", entries.size(), records, indexFile);
+            if (corrupted || buffer.hasRemaining()) {
+                // records appended after a torn one would be never loaded otherwise, so rewrite the log
+                log.debug("Skipping corrupted hash index tail {}", indexFile);
+                return true;
+            }
+            return size > MIN_COMPACT_LOG_SIZE && getGarbageRatio(records) > MAX_GARBAGE_RATIO;
+        }
+    }
+
+    /**
+     * @return estimated share of the records which are superseded or refer to deleted files
+     */
+    private double getGarbageRatio(int records) {
+        int liveEntries = entries.size();
+        int sampled = 0;
+        int missing = 0;
+        for (String key : entries.keySet()) {
+            if (sampled == MISSING_FILES_SAMPLE_SIZE) {
+                break;
+            }
+            sampled++;
+            if (!Files.exists(Paths.get(getPath(key)))) {
+                missing++;
+            }
+        }
+        double missingEntries = sampled == 0 ? 0.0 : (double) missing / sampled * liveEntries;
+        return (records - liveEntries + missingEntries) / records;
+    }
+
+    private void compact() throws IOException {
+        Path tempFile = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".tmp");
+        processLock.lock();
+        try (FileChannel lockChannel = openLockChannel();
+             FileLock ignored = lockChannel.lock()) {
+            // the records appended (or compacted) by other processes after the first read
+            entries.clear();
+            if (!readLog()) {
+                log.debug("Hash index {} is already compacted", indexFile);
+                return;
+            }
+            int loaded = entries.size();
+            entries.keySet().removeIf(key -> !Files.exists(Paths.get(getPath(key))));
+            log.debug("Dropped {} hash index entries of deleted files", loaded - entries.size());
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, IndexEntry> entry : entries.entrySet()) {
+                    ByteBuffer record = encode(entry.getKey(), entry.getValue());
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Compacted hash index {} to {} entries", indexFile, entries.size());
+        } finally {
+            processLock.unlock();
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void append(ByteBuffer record) throws IOException {
+        processLock.lock();
+        // exclusive between processes, the record is written as a whole
+        try (FileChannel lockChannel = openLockChannel();
+             FileLock ignored = lockChannel.lock()) {
+            Object fileKey = getFileKey();
+            if (appendChannel != null && (appendFileKey == null || !appendFileKey.equals(fileKey))) {
+                // replaced by the compaction of another process (or unknown)
+                closeAppendChannel();
+            }
+            if (appendChannel == null) {
+                appendChannel = FileChannel.open(indexFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                // no compaction while the lock is held, so it's the key of the opened file
+                appendFileKey = getFileKey();
+            }
+            while (record.hasRemaining()) {
+                appendChannel.write(record);
+            }
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private FileChannel openLockChannel() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Nullable
+    private Object getFileKey() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        return Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+    }
+
+    private static ByteBuffer encode(String key, IndexEntry entry) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        byte[] hashBytes = entry.hash.getBytes(UTF_8);
+        int length = 4 + keyBytes.length + 8 + 8 + 4 + hashBytes.length;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.putInt(keyBytes.length).put(keyBytes);
+        body.putLong(entry.fileLength);
+        body.putLong(entry.lastModified);
+        body.putInt(hashBytes.length).put(hashBytes);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).putInt(crc32(body.array())).put(body.array());
+        record.flip();
+        return record;
+    }
+
+    private void decode(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        String key = readString(buffer);
+        long fileLength = buffer.getLong();
+        long lastModified = buffer.getLong();
+        String hash = readString(buffer);
+        entries.put(key, new IndexEntry(fileLength, lastModified, hash));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String str = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return str;
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return (int) crc32.getValue();
+    }
+
+    private static final class IndexEntry {
+
+        private final long fileLength;
+        private final long lastModified;
+        private final String hash;
+
+        private IndexEntry(long fileLength, long lastModified, String hash) {
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+            IndexEntry that = (IndexEntry) obj;
+            return this.fileLength == that.fileLength
+                && this.lastModified == that.lastModified
+                && Objects.equals(this.hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileLength, lastModified, hash);
+        }
+    }
+}
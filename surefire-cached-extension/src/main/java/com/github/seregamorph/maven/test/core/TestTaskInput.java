@@ -1,15 +1,12 @@
 package com.github.seregamorph.maven.test.core;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.github.seregamorph.maven.test.common.GroupArtifactId;
 import com.github.seregamorph.maven.test.config.ArtifactsConfig;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
 import com.github.seregamorph.maven.test.util.HashUtils;
-import com.github.seregamorph.maven.test.util.JsonSerializers;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import com.github.seregamorph.maven.test.util.KeyHasher;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +22,7 @@ import javax.annotation.Nullable;
 @JsonPropertyOrder({
     "hash",
     "version",
+    "hashAlgorithm",
     "moduleName",
     "timestamp",
     "argLine",
@@ -47,10 +45,15 @@ public final class TestTaskInput {
     /**
      * Updated on each breaking change
      */
-    private static final int VERSION = 1;
+    private static final int VERSION = 6;
 
     private String hash;
 
+    /**
+     * Hash algorithm of the files and of the entry itself
+     */
+    private HashAlgorithm hashAlgorithm = HashAlgorithm.SHA1;
+
     private final SortedMap<String, String> ignoredProperties = new TreeMap<>();
 
     private final SortedMap<String, String> properties = new TreeMap<>();
@@ -92,48 +95,39 @@ public final class TestTaskInput {
     private String excludedGroups;
     private List<String> excludes;
 
+    /**
+     * Cache key of the input. The canonical encoding is streamed to the hash function, each section is prefixed with
+     * its name and the maps (like hashes of classes) are hashed as separate sub-trees.
+     */
     @JsonIgnore
     public String hash() {
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw, true);
-        pw.println("# Version");
-        pw.println(getVersion());
-        pw.println("# Properties");
-        properties.forEach((key, value) -> pw.println(key + " -> " + value));
-        pw.println("# Plugins");
-        pluginArtifactHashes.forEach((key, value) -> pw.println(key + " -> " + value));
-        pw.println("# Dependencies");
-        Set<Object> artifactHashes = new TreeSet<>();
+        KeyHasher keyHasher = new KeyHasher(hashAlgorithm);
+        keyHasher.putString("version").putInt(getVersion());
+        keyHasher.putString("hashAlgorithm").putString(hashAlgorithm.id());
+        keyHasher.putString("properties").putMap(properties);
+        keyHasher.putString("plugins").putMap(pluginArtifactHashes);
+        Set<String> artifactHashes = new TreeSet<>();
         artifactHashes.addAll(moduleArtifactHashes.values());
         artifactHashes.addAll(libraryArtifactHashes.values());
-        artifactHashes.forEach(hash -> {
-            if (!HashUtils.HASH_EMPTY_FILE_COLLECTION.equals(hash)) {
-                pw.println(hash);
-            }
-        });
-        if (classesHashes != null) {
-            pw.println("# Classes");
-            classesHashes.forEach((key, value) -> pw.println(key + " -> " + value));
+        artifactHashes.remove(HashUtils.HASH_EMPTY_FILE_COLLECTION);
+        keyHasher.putString("dependencies").putStrings(artifactHashes);
+        keyHasher.putString("classes").putMap(classesHashes);
+        keyHasher.putString("testClasses").putMap(testClassesHashes);
+        keyHasher.putString("profiles").putStrings(activeProfiles);
+        keyHasher.putString("argLine").putString(argLine);
+        keyHasher.putString("test").putString(test);
+        keyHasher.putString("artifactConfigs");
+        if (artifactConfigs == null) {
+            keyHasher.putStrings(null);
+        } else {
+            keyHasher.putInt(artifactConfigs.size());
+            new TreeMap<>(artifactConfigs).forEach((name, artifactsConfig) -> keyHasher.putString(name)
+                .putStrings(artifactsConfig == null ? null : artifactsConfig.getIncludes()));
         }
-        if (testClassesHashes != null) {
-            pw.println("# Test classes");
-            testClassesHashes.forEach((key, value) -> pw.println(key + " -> " + value));
-        }
-        pw.println("# Profiles");
-        pw.println(activeProfiles);
-        pw.println("# Arg line");
-        pw.println(argLine);
-        pw.println("# Test");
-        pw.println(test);
-        pw.println("# Artifact configs");
-        pw.println(JsonSerializers.serializeAsString(artifactConfigs));
-        pw.println("# Groups");
-        pw.println(groups);
-        pw.println("# Excluded groups");
-        pw.println(excludedGroups);
-        pw.println("# Excludes");
-        pw.println(excludes);
-        return HashUtils.hashArray(sw.toString().getBytes(UTF_8));
+        keyHasher.putString("groups").putString(groups);
+        keyHasher.putString("excludedGroups").putString(excludedGroups);
+        keyHasher.putString("excludes").putStrings(excludes);
+        return keyHasher.digestHex();
     }
 
     public void addPluginArtifactHash(
@@ -179,6 +173,18 @@ public final class TestTaskInput {
         }
     }
 
+    /**
+     * Copy module and library artifact hashes of another (classpath only) input.
+     */
+    public void addClasspathHashes(TestTaskInput classpathInput) {
+        classpathInput.moduleArtifactHashes.forEach(this::addModuleArtifactHash);
+        classpathInput.libraryArtifactHashes.forEach((key, hash) -> {
+            if (libraryArtifactHashes.put(key, hash) != null) {
+                throw new IllegalStateException("Duplicate classpath entry: " + key);
+            }
+        });
+    }
+
     public void setClassesHashes(SortedMap<String, String> classesHashes) {
         this.classesHashes = classesHashes;
     }
@@ -239,6 +245,14 @@ public final class TestTaskInput {
         return VERSION;
     }
 
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
     public String getModuleName() {
         return moduleName;
     }
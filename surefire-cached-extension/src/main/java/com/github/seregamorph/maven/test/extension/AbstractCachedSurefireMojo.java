@@ -6,6 +6,7 @@ import static com.github.seregamorph.maven.test.util.ReflectionUtils.call;
 import static com.github.seregamorph.maven.test.util.ReflectionUtils.callProtected;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.github.seregamorph.maven.test.common.CacheBundle;
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
 import com.github.seregamorph.maven.test.common.GroupArtifactId;
 import com.github.seregamorph.maven.test.common.OutputArtifact;
@@ -21,13 +22,25 @@ import com.github.seregamorph.maven.test.util.JsonSerializers;
 import com.github.seregamorph.maven.test.util.MoreFileUtils;
 import com.github.seregamorph.maven.test.util.TimeFormatUtils;
 import com.github.seregamorph.maven.test.util.ZipUtils;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.Mojo;
@@ -188,6 +201,9 @@ abstract class AbstractCachedSurefireMojo extends AbstractMojo {
     }
 
     private boolean restoreFromCache(CacheEntryKey cacheEntryKey, File taskOutputFile) {
+        if (isCacheBundle()) {
+            return restoreFromBundle(cacheEntryKey, taskOutputFile);
+        }
         byte[] testTaskOutputBytes = cacheService.read(cacheEntryKey, getTaskOutputFileName());
         if (testTaskOutputBytes == null) {
             return false;
@@ -220,8 +236,13 @@ abstract class AbstractCachedSurefireMojo extends AbstractMojo {
         TestTaskInput testTaskInput,
         TestTaskOutput testTaskOutput
     ) {
-        int deleted = cacheService.write(cacheEntryKey, getTaskInputFileName(),
-            JsonSerializers.serialize(testTaskInput));
+        boolean cacheBundle = isCacheBundle();
+        byte[] testTaskInputBytes = JsonSerializers.serialize(testTaskInput);
+        int deleted = 0;
+        if (!cacheBundle) {
+            deleted += cacheService.write(cacheEntryKey, getTaskInputFileName(), testTaskInputBytes);
+        }
+        Map<String, File> packFiles = new LinkedHashMap<>();
         for (Map.Entry<String, ArtifactsConfig> entry : testPluginConfig.getArtifacts().entrySet()) {
             String alias = entry.getKey();
             ArtifactsConfig artifactsConfig = entry.getValue();
@@ -229,33 +250,111 @@ abstract class AbstractCachedSurefireMojo extends AbstractMojo {
             File packFile = new File(projectBuildDirectory, fileName);
             MoreFileUtils.delete(packFile);
             List<ZipUtils.PackedFile> packedFiles = ZipUtils.packDirectory(projectBuildDirectory,
-                artifactsConfig.getIncludes(), packFile);
-            deleted += cacheService.write(cacheEntryKey, fileName, MoreFileUtils.read(packFile));
+                artifactsConfig.getIncludesPatterns(), packFile);
+            if (cacheBundle) {
+                packFiles.put(fileName, packFile);
+            } else {
+                deleted += cacheService.writeFromFile(cacheEntryKey, fileName, packFile);
+            }
             long unpackedSize = packedFiles.stream().mapToLong(ZipUtils.PackedFile::unpackedSize).sum();
             OutputArtifact outputArtifact = new OutputArtifact(fileName, packedFiles.size(),
                 unpackedSize, packFile.length());
             testTaskOutput.getArtifacts().put(alias, outputArtifact);
         }
         byte[] testTaskOutputBytes = JsonSerializers.serialize(testTaskOutput);
-        deleted += cacheService.write(cacheEntryKey, getTaskOutputFileName(), testTaskOutputBytes);
-        return deleted;
+        if (!cacheBundle) {
+            deleted += cacheService.write(cacheEntryKey, getTaskOutputFileName(), testTaskOutputBytes);
+            return deleted;
+        }
+
+        // the metadata goes first, so it can be read without the artifacts
+        CacheBundle cacheBundleContent = new CacheBundle()
+            .addBytes(getTaskOutputFileName(), testTaskOutputBytes)
+            .addBytes(getTaskInputFileName(), testTaskInputBytes);
+        packFiles.forEach(cacheBundleContent::addFile);
+        File bundleFile = new File(projectBuildDirectory, getBundleFileName());
+        cacheBundleContent.writeTo(bundleFile);
+        try {
+            return cacheService.writeFromFile(cacheEntryKey, getBundleFileName(), bundleFile);
+        } finally {
+            MoreFileUtils.delete(bundleFile);
+        }
     }
 
-    private void restoreCache(CacheEntryKey cacheEntryKey, TestTaskOutput testTaskOutput) throws InconsistentCacheException {
-        for (Map.Entry<String, OutputArtifact> entry : testTaskOutput.getArtifacts().entrySet()) {
-            String fileName = entry.getValue().getFileName();
-            byte[] packedContent = cacheService.read(cacheEntryKey, fileName);
-            if (packedContent == null) {
-                throw new InconsistentCacheException("Cache file not found " + cacheEntryKey + " " + fileName);
+    private boolean restoreFromBundle(CacheEntryKey cacheEntryKey, File taskOutputFile) {
+        File bundleFile = new File(projectBuildDirectory, getBundleFileName());
+        if (!cacheService.readToFile(cacheEntryKey, getBundleFileName(), bundleFile)) {
+            return false;
+        }
+
+        log.info("Cache hit {}", cacheEntryKey);
+        TestTaskOutput[] testTaskOutputHolder = new TestTaskOutput[1];
+        Set<String> restoredFileNames = new HashSet<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(bundleFile.toPath()))) {
+            CacheBundle.read(in, (fileName, content) -> {
+                if (fileName.equals(getTaskOutputFileName())) {
+                    byte[] testTaskOutputBytes = IOUtils.toByteArray(content);
+                    MoreFileUtils.write(taskOutputFile, testTaskOutputBytes);
+                    testTaskOutputHolder[0] = JsonSerializers.deserialize(testTaskOutputBytes,
+                        TestTaskOutput.class, getTaskOutputFileName());
+                    log.info("Restoring artifacts from cache to {}", projectBuildDirectory);
+                } else if (!fileName.equals(getTaskInputFileName())) {
+                    ZipUtils.unpackDirectory(content, projectBuildDirectory);
+                    restoredFileNames.add(fileName);
+                }
+                return true;
+            });
+        } catch (IOException | UncheckedIOException e) {
+            // failover to standard execution
+            log.warn("Failed to restore cache bundle {}: {}", cacheEntryKey, e.toString());
+            return false;
+        } finally {
+            MoreFileUtils.delete(bundleFile);
+        }
+
+        TestTaskOutput testTaskOutput = testTaskOutputHolder[0];
+        if (testTaskOutput == null) {
+            log.warn("Cache bundle {} has no {}", cacheEntryKey, getTaskOutputFileName());
+            return false;
+        }
+        for (OutputArtifact artifact : testTaskOutput.getArtifacts().values()) {
+            if (!restoredFileNames.contains(artifact.getFileName())) {
+                log.warn("Cache file not found {} {}", cacheEntryKey, artifact.getFileName());
+                return false;
             }
+        }
+        reportCachedExecution(TaskOutcome.FROM_CACHE, testTaskOutput);
+        return true;
+    }
 
-            File packFile = new File(projectBuildDirectory, fileName);
-            MoreFileUtils.write(packFile, packedContent);
+    private void restoreCache(CacheEntryKey cacheEntryKey, TestTaskOutput testTaskOutput) throws InconsistentCacheException {
+        Collection<OutputArtifact> artifacts = testTaskOutput.getArtifacts().values();
+        Executor restoreExecutor = testTaskCacheHelper.getRestoreExecutor();
+        if (artifacts.size() > 1 && restoreExecutor != null) {
+            List<String> fileNames = new ArrayList<>();
+            for (OutputArtifact artifact : artifacts) {
+                fileNames.add(artifact.getFileName());
+            }
+            ConcurrentArtifactRestore.restore(cacheEntryKey, fileNames, restoreExecutor,
+                fileName -> fetchArtifact(cacheEntryKey, fileName),
+                packFile -> ZipUtils.unpackDirectory(packFile, projectBuildDirectory));
+            return;
+        }
+        for (OutputArtifact artifact : artifacts) {
+            File packFile = fetchArtifact(cacheEntryKey, artifact.getFileName());
             ZipUtils.unpackDirectory(packFile, projectBuildDirectory);
             MoreFileUtils.delete(packFile);
         }
     }
 
+    private File fetchArtifact(CacheEntryKey cacheEntryKey, String fileName) throws InconsistentCacheException {
+        File packFile = new File(projectBuildDirectory, fileName);
+        if (!cacheService.readToFile(cacheEntryKey, fileName, packFile)) {
+            throw new InconsistentCacheException("Cache file not found " + cacheEntryKey + " " + fileName);
+        }
+        return packFile;
+    }
+
     abstract TestTaskOutput getTaskOutput(Instant startTime, Instant endTime);
 
     private static String getArtifactPackName(String alias) {
@@ -268,6 +367,14 @@ abstract class AbstractCachedSurefireMojo extends AbstractMojo {
         return TimeFormatUtils.toSeconds(durationMillis);
     }
 
+    private boolean isCacheBundle() {
+        return isTrue(getProperty(session, "cacheBundle"));
+    }
+
+    private String getBundleFileName() {
+        return CacheBundle.getBundleFileName(pluginName);
+    }
+
     private String getTaskInputFileName() {
         return pluginName + "-input.json";
     }
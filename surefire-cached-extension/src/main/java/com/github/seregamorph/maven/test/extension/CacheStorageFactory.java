@@ -3,15 +3,19 @@ package com.github.seregamorph.maven.test.extension;
 import static com.github.seregamorph.maven.test.util.MavenPropertyUtils.isTrue;
 
 import com.github.seregamorph.maven.test.extension.spi.CacheStorageProvider;
+import com.github.seregamorph.maven.test.storage.AsyncWriteConfig;
+import com.github.seregamorph.maven.test.storage.CacheServiceMetrics;
 import com.github.seregamorph.maven.test.storage.CacheStorage;
 import com.github.seregamorph.maven.test.storage.FileCacheStorage;
 import com.github.seregamorph.maven.test.storage.HttpCacheStorage;
 import com.github.seregamorph.maven.test.storage.HttpCacheStorageConfig;
+import com.github.seregamorph.maven.test.storage.TieredCacheStorage;
 import com.github.seregamorph.maven.test.util.PropertySource;
 import java.io.File;
 import java.net.URI;
 import java.time.Duration;
 import java.util.ServiceLoader;
+import java.util.UUID;
 import javax.annotation.Nullable;
 
 /**
@@ -20,14 +24,39 @@ import javax.annotation.Nullable;
 class CacheStorageFactory {
 
     private static final String PROP_CACHE_STORAGE_URL = "cacheStorageUrl";
+    private static final String PROP_CACHE_LOCAL_STORAGE_DIR = "cacheLocalStorageDir";
 
     private final PropertySource propertySource;
+    private final CacheServiceMetrics metrics;
 
-    CacheStorageFactory(PropertySource propertySource) {
+    CacheStorageFactory(PropertySource propertySource, CacheServiceMetrics metrics) {
         this.propertySource = propertySource;
+        this.metrics = metrics;
     }
 
     CacheStorage createCacheStorage() {
+        CacheStorage cacheStorage = createBaseCacheStorage();
+        String localStorageDir = propertySource.getProperty(PROP_CACHE_LOCAL_STORAGE_DIR, null);
+        if (localStorageDir == null || cacheStorage instanceof FileCacheStorage) {
+            return cacheStorage;
+        }
+        int localMaxEntries = Integer.parseInt(propertySource.getProperty("cacheLocalMaxEntries", "4"));
+        long localMaxSizeMb = Long.parseLong(propertySource.getProperty("cacheLocalMaxSizeMb", "4096"));
+        AsyncWriteConfig writeBackConfig = null;
+        if (isTrue(propertySource.getProperty("cacheLocalWriteBack", "false"))) {
+            int writeBackThreads = Integer.parseInt(propertySource.getProperty("cacheAsyncWriteThreads", "4"));
+            long writeBackMaxPendingMb = Long.parseLong(propertySource.getProperty("cacheAsyncWriteMaxPendingMb",
+                "1024"));
+            // same file system as the local tier, so the uploaded files are hard linked, unique per build
+            File spillDir = new File(localStorageDir, ".write-back-" + UUID.randomUUID());
+            writeBackConfig = new AsyncWriteConfig(writeBackThreads, writeBackMaxPendingMb * 1024 * 1024, spillDir);
+        }
+        FileCacheStorage localStorage = new FileCacheStorage(new File(localStorageDir), localMaxEntries);
+        return new TieredCacheStorage(localStorage, cacheStorage, metrics, writeBackConfig,
+            localMaxSizeMb * 1024 * 1024);
+    }
+
+    private CacheStorage createBaseCacheStorage() {
         String cacheStorageUrl = propertySource.getProperty(PROP_CACHE_STORAGE_URL, null);
         if (cacheStorageUrl == null) {
             String userHome = System.getProperty("user.home");
@@ -76,10 +105,13 @@ class CacheStorageFactory {
         Duration writeTimeout = Duration.ofSeconds(Integer.parseInt(
             propertySource.getProperty("cacheWriteTimeoutSec", "10")));
         @Nullable String cacheHashPrefix = propertySource.getProperty("cacheHashPrefix", null);
+        Duration batchWindow = Duration.ofMillis(Long.parseLong(
+            propertySource.getProperty("cacheBatchWindowMillis", "0")));
+        boolean keyFilter = isTrue(propertySource.getProperty("cacheKeyFilter", "false"));
         HttpCacheStorageConfig httpCacheStorageConfig = new HttpCacheStorageConfig(
             URI.create(cacheStorageUrl), checkServerVersion,
             connectTimeout, readTimeout, writeTimeout,
-            cacheHashPrefix);
+            cacheHashPrefix, batchWindow, keyFilter);
         return new HttpCacheStorage(httpCacheStorageConfig);
     }
 }
@@ -0,0 +1,59 @@
+package com.github.seregamorph.maven.test.extension;
+
+import java.io.File;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.maven.execution.MojoExecutionEvent;
+import org.apache.maven.execution.MojoExecutionListener;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Starts background hashing of the project classpath as soon as it's resolved (e.g. before the compilation) and
+ * of the output directories as soon as they are compiled, so the cache key calculation of surefire/failsafe mostly
+ * finds the hashes ready.
+ *
+ * @author Sergey Chernov
+ */
+@Named
+@Singleton
+public class CachedMojoExecutionListener implements MojoExecutionListener {
+
+    private static final String COMPILER_PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+    private static final String COMPILER_PLUGIN_ARTIFACT_ID = "maven-compiler-plugin";
+
+    private final TestTaskCacheHelper testTaskCacheHelper;
+
+    @Inject
+    public CachedMojoExecutionListener(TestTaskCacheHelper testTaskCacheHelper) {
+        this.testTaskCacheHelper = testTaskCacheHelper;
+    }
+
+    @Override
+    public void beforeMojoExecution(MojoExecutionEvent event) {
+        if (event.getExecution().getMojoDescriptor().isDependencyResolutionRequired() != null) {
+            testTaskCacheHelper.prehashArtifacts(event.getProject());
+        }
+    }
+
+    @Override
+    public void afterMojoExecutionSuccess(MojoExecutionEvent event) {
+        MojoExecution execution = event.getExecution();
+        if (COMPILER_PLUGIN_GROUP_ID.equals(execution.getGroupId())
+            && COMPILER_PLUGIN_ARTIFACT_ID.equals(execution.getArtifactId())) {
+            MavenProject project = event.getProject();
+            if ("compile".equals(execution.getGoal())) {
+                testTaskCacheHelper.prehashOutputDirectory(project,
+                    new File(project.getBuild().getOutputDirectory()));
+            } else if ("testCompile".equals(execution.getGoal())) {
+                testTaskCacheHelper.prehashOutputDirectory(project,
+                    new File(project.getBuild().getTestOutputDirectory()));
+            }
+        }
+    }
+
+    @Override
+    public void afterExecutionFailure(MojoExecutionEvent event) {
+    }
+}
@@ -13,6 +13,7 @@ import com.github.seregamorph.maven.test.storage.CacheServiceMetrics;
 import com.github.seregamorph.maven.test.storage.CacheStorage;
 import com.github.seregamorph.maven.test.storage.HttpCacheStorage;
 import com.github.seregamorph.maven.test.storage.S3CacheStorage;
+import com.github.seregamorph.maven.test.storage.TieredCacheStorage;
 import com.github.seregamorph.maven.test.util.JsonSerializers;
 import com.github.seregamorph.maven.test.util.MoreFileUtils;
 import java.io.File;
@@ -102,6 +103,7 @@ public class CachedTestLifecycleParticipant extends AbstractMavenLifecyclePartic
     @Override
     public void afterSessionEnd(MavenSession session) {
         if (testTaskCacheHelper.wasPluginManagerInstantiated()) {
+            testTaskCacheHelper.flushCacheStorage();
             CacheReport cacheReport = testTaskCacheHelper.getCacheReport();
             Map<PluginName, Map<TaskOutcome, AggResult>> pluginResults = handleReport(cacheReport);
             if (isLogStorageMetrics(testTaskCacheHelper.getCacheStorage())) {
@@ -157,7 +159,8 @@ public class CachedTestLifecycleParticipant extends AbstractMavenLifecyclePartic
 
     private boolean isLogStorageMetrics(CacheStorage cacheStorage) {
         return cacheStorage instanceof HttpCacheStorage
-            || cacheStorage instanceof S3CacheStorage;
+            || cacheStorage instanceof S3CacheStorage
+            || cacheStorage instanceof TieredCacheStorage;
     }
 
     private void saveJsonReport(MavenSession session, Map<PluginName, Map<TaskOutcome, AggResult>> pluginResults) {
@@ -219,6 +222,30 @@ public class CachedTestLifecycleParticipant extends AbstractMavenLifecyclePartic
                 writeOps, formatTime(toSeconds(writeMillis)), formatByteSize(writeBytes));
         }
 
+        int asyncWriteOps = metrics.getAsyncWriteOperations();
+        if (asyncWriteOps > 0) {
+            logger.info("Cache async write operations: {}, queue wait: {} (max {}), throughput: {}/s",
+                asyncWriteOps, formatTime(toSeconds(metrics.getAsyncWriteQueueWaitMillis())),
+                formatTime(toSeconds(metrics.getAsyncWriteMaxQueueWaitMillis())),
+                formatByteSize(metrics.getWriteThroughputBytesPerSecond()));
+        }
+        int asyncWriteDropped = metrics.getAsyncWriteDropped();
+        if (asyncWriteDropped != 0) {
+            logger.warn("Cache async writes dropped: {}", asyncWriteDropped);
+        }
+
+        int localReadOps = metrics.getLocalReadHitOperations() + metrics.getLocalReadMissOperations();
+        if (localReadOps > 0) {
+            logger.info("Local cache tier hits: {}, misses: {}; remote cache tier hits: {}, misses: {}",
+                metrics.getLocalReadHitOperations(), metrics.getLocalReadMissOperations(),
+                metrics.getRemoteReadHitOperations(), metrics.getRemoteReadMissOperations());
+        }
+
+        int filterAvoidedReads = metrics.getFilterAvoidedReads();
+        if (filterAvoidedReads > 0) {
+            logger.info("Cache lookups avoided by key filter: {}", filterAvoidedReads);
+        }
+
         int readFailures = metrics.getReadFailures();
         if (readFailures != 0) {
             logger.warn("Read failures: {}, then skipped {} operations", readFailures, metrics.getReadSkipped());
@@ -227,5 +254,9 @@ public class CachedTestLifecycleParticipant extends AbstractMavenLifecyclePartic
         if (writeFailures != 0) {
             logger.warn("Write failures: {}, then skipped {} operations", writeFailures, metrics.getWriteSkipped());
         }
+        int writeBackFailures = metrics.getWriteBackFailures();
+        if (writeBackFailures != 0) {
+            logger.warn("Write-back upload failures: {}", writeBackFailures);
+        }
     }
 }
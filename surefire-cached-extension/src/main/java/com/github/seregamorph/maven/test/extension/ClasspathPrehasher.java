@@ -0,0 +1,215 @@
+package com.github.seregamorph.maven.test.extension;
+
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.config.TestPluginConfig;
+import com.github.seregamorph.maven.test.config.TestPluginConfigLoader;
+import com.github.seregamorph.maven.test.core.FileHashCache;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates hashes of the library jars in background threads, while the lifecycle is busy with compilation, so the
+ * cache key calculation of surefire/failsafe finds them in the {@link FileHashCache} (or joins the calculation in
+ * progress).
+ * <p>
+ * Jars are submitted from two sources: direct dependencies which are already in the local repository (at the
+ * session start) and resolved project artifacts (before each mojo execution which requires dependency resolution).
+ * Only the projects which have surefire or failsafe plugin (so the cache is used) are considered, the jars are hashed
+ * with the exclude patterns of each of these plugins. Hashing failures are ignored here, the same file is hashed again
+ * by the surefire/failsafe execution.
+ *
+ * @author Sergey Chernov
+ */
+class ClasspathPrehasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClasspathPrehasher.class);
+
+    private static final String PLUGINS_GROUP_ID = "org.apache.maven.plugins";
+    private static final String SUREFIRE_PLUGIN_ARTIFACT_ID = "maven-surefire-plugin";
+    private static final String FAILSAFE_PLUGIN_ARTIFACT_ID = "maven-failsafe-plugin";
+
+    private final FileHashCache fileHashCache;
+    private final HashAlgorithm hashAlgorithm;
+    private final Set<GroupArtifactId> modules;
+    private final Executor executor;
+    private final Set<PrehashKey> submittedFiles = ConcurrentHashMap.newKeySet();
+
+    ClasspathPrehasher(
+        FileHashCache fileHashCache,
+        HashAlgorithm hashAlgorithm,
+        Set<GroupArtifactId> modules,
+        Executor executor
+    ) {
+        this.fileHashCache = fileHashCache;
+        this.hashAlgorithm = hashAlgorithm;
+        this.modules = modules;
+        this.executor = executor;
+    }
+
+    /**
+     * Submit direct dependencies of the projects, which are present in the local repository.
+     */
+    void submitDependencies(MavenSession session) {
+        RepositorySystemSession repositorySession = session.getRepositorySession();
+        if (repositorySession == null || repositorySession.getLocalRepository() == null) {
+            return;
+        }
+        File localRepository = repositorySession.getLocalRepository().getBasedir();
+        for (MavenProject project : session.getProjects()) {
+            Set<AntPathPatterns> excludePatterns = getExcludeClasspathResourcesPatterns(project);
+            if (excludePatterns.isEmpty()) {
+                continue;
+            }
+            for (Dependency dependency : project.getDependencies()) {
+                File file = getLocalArtifactFile(repositorySession, localRepository, dependency);
+                if (file != null) {
+                    submit(file, excludePatterns);
+                }
+            }
+        }
+    }
+
+    /**
+     * Submit resolved project artifacts (a no-op for already submitted ones).
+     */
+    void submitArtifacts(MavenProject project, Collection<Artifact> artifacts) {
+        Set<AntPathPatterns> excludePatterns = null;
+        for (Artifact artifact : artifacts) {
+            File file = artifact.getFile();
+            if (file != null && file.isFile()
+                && !modules.contains(new GroupArtifactId(artifact.getGroupId(), artifact.getArtifactId()))) {
+                if (excludePatterns == null) {
+                    excludePatterns = getExcludeClasspathResourcesPatterns(project);
+                }
+                submit(file, excludePatterns);
+            }
+        }
+    }
+
+    private void submit(File file, Set<AntPathPatterns> excludePatternsSet) {
+        for (AntPathPatterns excludePatterns : excludePatternsSet) {
+            submit(file, excludePatterns);
+        }
+    }
+
+    private void submit(File file, AntPathPatterns excludePatterns) {
+        if (!submittedFiles.add(new PrehashKey(file, hashAlgorithm, excludePatterns))) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    fileHashCache.getClasspathElementHash(file, excludePatterns, null);
+                } catch (RuntimeException e) {
+                    logger.debug("Failed to prehash {}: {}", file, e.toString());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutdown at the session end
+            logger.debug("Skipping prehash of {}", file);
+        }
+    }
+
+    private File getLocalArtifactFile(
+        RepositorySystemSession repositorySession,
+        File localRepository,
+        Dependency dependency
+    ) {
+        if (modules.contains(new GroupArtifactId(dependency.getGroupId(), dependency.getArtifactId()))) {
+            return null;
+        }
+        String classifier = dependency.getClassifier();
+        if ("test-jar".equals(dependency.getType())) {
+            classifier = "tests";
+        } else if (!"jar".equals(dependency.getType())) {
+            return null;
+        }
+        try {
+            DefaultArtifact artifact = new DefaultArtifact(dependency.getGroupId(), dependency.getArtifactId(),
+                classifier, "jar", dependency.getVersion());
+            File file = new File(localRepository,
+                repositorySession.getLocalRepositoryManager().getPathForLocalArtifact(artifact));
+            return file.isFile() ? file : null;
+        } catch (RuntimeException e) {
+            // e.g. version range or unresolved property
+            return null;
+        }
+    }
+
+    /**
+     * @return distinct exclude patterns of the cached plugins of the project, empty if the project has none of them
+     */
+    static Set<AntPathPatterns> getExcludeClasspathResourcesPatterns(MavenProject project) {
+        Set<AntPathPatterns> excludePatterns = new LinkedHashSet<>();
+        for (PluginName pluginName : getCachedPluginNames(project)) {
+            TestPluginConfig testPluginConfig = TestPluginConfigLoader.loadEffectiveTestPluginConfig(project,
+                pluginName);
+            excludePatterns.add(testPluginConfig.getExcludeClasspathResourcesPatterns());
+        }
+        return excludePatterns;
+    }
+
+    private static Set<PluginName> getCachedPluginNames(MavenProject project) {
+        Set<PluginName> pluginNames = new LinkedHashSet<>();
+        for (Plugin plugin : project.getBuildPlugins()) {
+            if (PLUGINS_GROUP_ID.equals(plugin.getGroupId())) {
+                if (SUREFIRE_PLUGIN_ARTIFACT_ID.equals(plugin.getArtifactId())) {
+                    pluginNames.add(PluginName.SUREFIRE_CACHED);
+                } else if (FAILSAFE_PLUGIN_ARTIFACT_ID.equals(plugin.getArtifactId())) {
+                    pluginNames.add(PluginName.FAILSAFE_CACHED);
+                }
+            }
+        }
+        return pluginNames;
+    }
+
+    private static final class PrehashKey {
+
+        private final File file;
+        private final HashAlgorithm hashAlgorithm;
+        private final AntPathPatterns excludePatterns;
+
+        private PrehashKey(File file, HashAlgorithm hashAlgorithm, AntPathPatterns excludePatterns) {
+            this.file = file;
+            this.hashAlgorithm = hashAlgorithm;
+            this.excludePatterns = excludePatterns;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+            PrehashKey that = (PrehashKey) obj;
+            return Objects.equals(this.file, that.file)
+                && this.hashAlgorithm == that.hashAlgorithm
+                && Objects.equals(this.excludePatterns, that.excludePatterns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, hashAlgorithm, excludePatterns);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.seregamorph.maven.test.extension;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.util.MoreFileUtils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Restore of the cache hit artifacts: all of them are fetched concurrently, each one is unpacked (in the caller
+ * thread) as soon as it's fetched. On failure the fetches not started yet are cancelled and the fetched pack files
+ * are deleted.
+ *
+ * @author Sergey Chernov
+ */
+final class ConcurrentArtifactRestore {
+
+    private ConcurrentArtifactRestore() {
+    }
+
+    static void restore(
+        CacheEntryKey cacheEntryKey,
+        Collection<String> fileNames,
+        Executor executor,
+        ArtifactFetcher fetcher,
+        Consumer<File> unpacker
+    ) throws InconsistentCacheException {
+        CompletionService<File> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<File>> fetches = new ArrayList<>();
+        for (String fileName : fileNames) {
+            fetches.add(completionService.submit(() -> fetcher.fetch(fileName)));
+        }
+        boolean restored = false;
+        try {
+            for (int i = 0; i < fetches.size(); i++) {
+                File packFile = completionService.take().get();
+                unpacker.accept(packFile);
+                MoreFileUtils.delete(packFile);
+            }
+            restored = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while restoring " + cacheEntryKey, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InconsistentCacheException) {
+                throw (InconsistentCacheException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to restore " + cacheEntryKey, e.getCause());
+        } finally {
+            if (!restored) {
+                cleanupFetches(fetches);
+            }
+        }
+    }
+
+    /**
+     * Wait for the fetches still in progress and delete their pack files.
+     */
+    private static void cleanupFetches(List<Future<File>> fetches) {
+        for (Future<File> fetch : fetches) {
+            if (fetch.cancel(false)) {
+                continue;
+            }
+            try {
+                MoreFileUtils.delete(fetch.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // already reported
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface ArtifactFetcher {
+
+        /**
+         * @return fetched pack file
+         */
+        File fetch(String fileName) throws InconsistentCacheException;
+    }
+}
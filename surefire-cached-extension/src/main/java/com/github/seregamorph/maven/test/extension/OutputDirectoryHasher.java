@@ -0,0 +1,185 @@
+package com.github.seregamorph.maven.test.extension;
+
+import com.github.seregamorph.maven.test.core.DirectoryHashSnapshot;
+import com.github.seregamorph.maven.test.core.FileHashCache;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashes module output directories (like "target/classes") in background after they are compiled, so the
+ * surefire/failsafe execution only joins the pending calculation.
+ * <p>
+ * The directory may still be changed after the compilation (e.g. by bytecode instrumentation plugins), so the
+ * background result is used only if the stat data (size, last modified) of all files is the same as before hashing.
+ * A change of a file modified shortly before hashing may be not visible in its stat data (such files are "racily
+ * clean", see {@link DirectoryHashSnapshot}), so the hashing starts after the racy interval since the submit: the
+ * just compiled files are not racy anymore and the stat data taken then is reliable. If the result is joined
+ * earlier, the pending task is cancelled and the directory is hashed in the caller thread (once). The files still
+ * racily clean at hashing (modified after the submit) are hashed again on join. Each background result is used once.
+ *
+ * @author Sergey Chernov
+ */
+class OutputDirectoryHasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputDirectoryHasher.class);
+
+    private final FileHashCache fileHashCache;
+    private final ScheduledExecutorService executor;
+    private final long racyIntervalMillis;
+    private final Map<PendingKey, FutureTask<DirectoryHashes>> pendingHashes = new ConcurrentHashMap<>();
+
+    OutputDirectoryHasher(FileHashCache fileHashCache, ScheduledExecutorService executor) {
+        this(fileHashCache, executor, DirectoryHashSnapshot.RACY_INTERVAL_MILLIS);
+    }
+
+    OutputDirectoryHasher(FileHashCache fileHashCache, ScheduledExecutorService executor, long racyIntervalMillis) {
+        this.fileHashCache = fileHashCache;
+        this.executor = executor;
+        this.racyIntervalMillis = racyIntervalMillis;
+    }
+
+    void submit(File dir, AntPathPatterns excludePatterns, @Nullable File snapshotDir) {
+        File absoluteDir = dir.getAbsoluteFile();
+        FutureTask<DirectoryHashes> task = new FutureTask<>(() -> {
+            long startTime = System.currentTimeMillis();
+            SortedMap<String, String> stats = getStats(absoluteDir, excludePatterns);
+            SortedMap<String, String> hashes = fileHashCache.getDirectoryHashes(absoluteDir, excludePatterns,
+                snapshotDir);
+            return new DirectoryHashes(startTime, stats, hashes);
+        });
+        pendingHashes.put(new PendingKey(absoluteDir, excludePatterns), task);
+        try {
+            // the files compiled before the submit are not racily clean then
+            executor.schedule(task, racyIntervalMillis + 1L, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutdown at the session end, the task is executed on demand
+            logger.debug("Skipping background hashing of {}", absoluteDir);
+        }
+    }
+
+    /**
+     * Get hash sums of files of the output directory, the calculation is executed in the caller thread, if it's
+     * not submitted, not started yet or the directory was changed after the background calculation.
+     */
+    SortedMap<String, String> getDirectoryHashes(
+        File dir,
+        AntPathPatterns excludePatterns,
+        @Nullable File snapshotDir
+    ) {
+        FutureTask<DirectoryHashes> task = pendingHashes.remove(new PendingKey(dir.getAbsoluteFile(),
+            excludePatterns));
+        if (task != null && !task.cancel(false)) {
+            // already started (or completed) by the executor
+            try {
+                SortedMap<String, String> hashes = task.get().reuse(dir, getStats(dir, excludePatterns));
+                if (hashes != null) {
+                    return hashes;
+                }
+                logger.debug("Directory {} was changed after background hashing", dir);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while hashing " + dir, e);
+            } catch (ExecutionException e) {
+                logger.debug("Failed to hash {} in background: {}", dir, e.getCause().toString());
+            } catch (IOException e) {
+                logger.debug("Failed to rehash racily clean files of {}: {}", dir, e.toString());
+            }
+        }
+        return fileHashCache.getDirectoryHashes(dir, excludePatterns, snapshotDir);
+    }
+
+    /**
+     * @return relative path -> "$size:$lastModified"
+     */
+    private static SortedMap<String, String> getStats(File dir, AntPathPatterns excludePatterns) {
+        return HashUtils.walkDirectory(dir, excludePatterns, (file, relativePath) -> {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+        });
+    }
+
+    private static long getLastModified(String stat) {
+        return Long.parseLong(stat.substring(stat.indexOf(':') + 1));
+    }
+
+    private static final class PendingKey {
+
+        private final File dir;
+        private final AntPathPatterns excludePatterns;
+
+        private PendingKey(File dir, AntPathPatterns excludePatterns) {
+            this.dir = dir;
+            this.excludePatterns = excludePatterns;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+            PendingKey that = (PendingKey) obj;
+            return Objects.equals(this.dir, that.dir)
+                && Objects.equals(this.excludePatterns, that.excludePatterns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dir, excludePatterns);
+        }
+    }
+
+    private final class DirectoryHashes {
+
+        private final long startTime;
+        private final SortedMap<String, String> stats;
+        private final SortedMap<String, String> hashes;
+
+        private DirectoryHashes(long startTime, SortedMap<String, String> stats, SortedMap<String, String> hashes) {
+            this.startTime = startTime;
+            this.stats = stats;
+            this.hashes = hashes;
+        }
+
+        /**
+         * @return the hashes if the directory is not changed since hashing (the racily clean files are hashed again)
+         * or null
+         */
+        @Nullable
+        SortedMap<String, String> reuse(File dir, SortedMap<String, String> currentStats) throws IOException {
+            if (!stats.equals(currentStats) || !stats.keySet().equals(hashes.keySet())) {
+                return null;
+            }
+            SortedMap<String, String> result = hashes;
+            for (Map.Entry<String, String> entry : stats.entrySet()) {
+                if (getLastModified(entry.getValue()) >= startTime - racyIntervalMillis) {
+                    if (result == hashes) {
+                        result = new TreeMap<>(hashes);
+                    }
+                    String relativePath = entry.getKey();
+                    result.put(relativePath, fileHashCache.hashFile(new File(dir, relativePath).toPath()));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -1,27 +1,46 @@
 package com.github.seregamorph.maven.test.extension;
 
+import static com.github.seregamorph.maven.test.util.MavenPropertyUtils.isTrue;
 import static com.github.seregamorph.maven.test.util.ReflectionUtils.call;
 
 import com.github.seregamorph.maven.test.common.GroupArtifactId;
 import com.github.seregamorph.maven.test.config.TestPluginConfig;
 import com.github.seregamorph.maven.test.core.FileHashCache;
+import com.github.seregamorph.maven.test.core.PersistentHashIndex;
 import com.github.seregamorph.maven.test.core.TestTaskInput;
+import com.github.seregamorph.maven.test.storage.AsyncWriteConfig;
 import com.github.seregamorph.maven.test.storage.CacheService;
 import com.github.seregamorph.maven.test.storage.CacheServiceMetrics;
 import com.github.seregamorph.maven.test.storage.CacheStorage;
-import com.github.seregamorph.maven.test.util.AntPathMatcher;
-import com.github.seregamorph.maven.test.util.HashUtils;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
 import com.github.seregamorph.maven.test.util.MavenPropertyUtils;
 import com.github.seregamorph.maven.test.util.PropertySource;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
@@ -29,6 +48,9 @@ import org.apache.maven.plugin.ContextEnabled;
 import org.apache.maven.plugin.Mojo;
 import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Sergey Chernov
@@ -36,37 +58,185 @@ import org.apache.maven.project.MavenProject;
 @Singleton
 public class TestTaskCacheHelper {
 
+    private static final Logger logger = LoggerFactory.getLogger(TestTaskCacheHelper.class);
+
     private final AtomicBoolean pluginManagerInstantiated = new AtomicBoolean();
 
+    private HashAlgorithm hashAlgorithm;
+    /**
+     * Build directories of all reactor projects, if hash snapshots are enabled
+     */
+    private Set<File> snapshotDirs;
+    @Nullable
+    private PersistentHashIndex persistentHashIndex;
     private FileHashCache fileHashCache;
     private SortedSet<GroupArtifactId> modules;
+    /**
+     * Classpath portion of the test task input per project, shared by surefire and failsafe executions
+     */
+    private final Map<ClasspathKey, ClasspathHashes> classpathHashes = new ConcurrentHashMap<>();
+    @Nullable
+    private ScheduledExecutorService prehashExecutor;
+    @Nullable
+    private ClasspathPrehasher classpathPrehasher;
+    @Nullable
+    private OutputDirectoryHasher outputDirectoryHasher;
+    /**
+     * Fetches artifacts of cache hits, shared by all modules to bound the concurrency of the build
+     */
+    @Nullable
+    private ExecutorService restoreExecutor;
     private CacheServiceMetrics metrics;
     private CacheStorage cacheStorage;
     private CacheService cacheService;
     private CacheReport cacheReport;
 
     public void init(MavenSession session) {
-        fileHashCache = new FileHashCache();
+        PropertySource propertySource = propertyName -> MavenPropertyUtils.getProperty(session, propertyName);
+        hashAlgorithm = HashAlgorithm.of(propertySource.getProperty("cacheHashAlgorithm",
+            HashAlgorithm.SHA1.id()));
+        persistentHashIndex = openPersistentHashIndex(session, propertySource);
+        fileHashCache = new FileHashCache(persistentHashIndex, hashAlgorithm);
+        snapshotDirs = isTrue(propertySource.getProperty("cacheHashSnapshot", "true"))
+            ? getBuildDirectories(session) : Collections.emptySet();
         modules = session.getAllProjects().stream()
             .map(p -> new GroupArtifactId(p.getGroupId(), p.getArtifactId()))
             .collect(Collectors.toCollection(TreeSet::new));
+        if (isTrue(propertySource.getProperty("cachePrehash", "true"))) {
+            int prehashThreads = Integer.parseInt(propertySource.getProperty("cachePrehashThreads",
+                Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+            prehashExecutor = Executors.newScheduledThreadPool(prehashThreads,
+                new DaemonThreadFactory("surefire-cached-prehash-"));
+            classpathPrehasher = new ClasspathPrehasher(fileHashCache, hashAlgorithm, modules, prehashExecutor);
+            outputDirectoryHasher = new OutputDirectoryHasher(fileHashCache, prehashExecutor);
+            classpathPrehasher.submitDependencies(session);
+        }
+
+        int restoreThreads = Integer.parseInt(propertySource.getProperty("cacheRestoreThreads", "4"));
+        if (restoreThreads > 1) {
+            restoreExecutor = Executors.newFixedThreadPool(restoreThreads,
+                new DaemonThreadFactory("surefire-cached-restore-"));
+        }
 
         this.metrics = new CacheServiceMetrics();
-        PropertySource propertySource = propertyName -> MavenPropertyUtils.getProperty(session, propertyName);
-        CacheStorageFactory cacheStorageFactory = new CacheStorageFactory(propertySource);
+        CacheStorageFactory cacheStorageFactory = new CacheStorageFactory(propertySource, metrics);
         this.cacheStorage = cacheStorageFactory.createCacheStorage();
         int cacheFailureThreshold = Integer.parseInt(propertySource.getProperty("cacheFailureThreshold", "4"));
-        this.cacheService = new CacheService(cacheStorage, metrics, cacheFailureThreshold);
+        AsyncWriteConfig asyncWriteConfig = null;
+        if (isTrue(propertySource.getProperty("cacheAsyncWrite", "false"))) {
+            int asyncWriteThreads = Integer.parseInt(propertySource.getProperty("cacheAsyncWriteThreads", "4"));
+            long asyncWriteMaxPendingMb = Long.parseLong(propertySource.getProperty("cacheAsyncWriteMaxPendingMb",
+                "1024"));
+            File spillDir = new File(session.getExecutionRootDirectory(), "target/surefire-cached-spill");
+            asyncWriteConfig = new AsyncWriteConfig(asyncWriteThreads, asyncWriteMaxPendingMb * 1024 * 1024,
+                spillDir);
+        }
+        this.cacheService = new CacheService(cacheStorage, metrics, cacheFailureThreshold, asyncWriteConfig);
         this.cacheReport = new CacheReport();
     }
 
+    /**
+     * Wait for pending uploads (if any), so they are reflected in the metrics. Storages publish their session state
+     * (e.g. key filter updates) on close, it may be called more than once.
+     */
+    public void flushCacheStorage() {
+        if (cacheService != null) {
+            cacheService.close();
+        }
+        if (cacheStorage instanceof Closeable) {
+            try {
+                ((Closeable) cacheStorage).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     public void destroy() {
         cacheReport = null;
+        flushCacheStorage();
         cacheService = null;
         cacheStorage = null;
         metrics = null;
+        if (prehashExecutor != null) {
+            prehashExecutor.shutdownNow();
+            prehashExecutor = null;
+        }
+        if (restoreExecutor != null) {
+            restoreExecutor.shutdownNow();
+            restoreExecutor = null;
+        }
+        classpathPrehasher = null;
+        outputDirectoryHasher = null;
         modules = null;
+        classpathHashes.clear();
         fileHashCache = null;
+        snapshotDirs = null;
+        hashAlgorithm = null;
+        if (persistentHashIndex != null) {
+            persistentHashIndex.close();
+            persistentHashIndex = null;
+        }
+    }
+
+    /**
+     * Open persistent hash index of the local Maven repository jars. Released artifacts are immutable, so their
+     * hashes can be reused by next builds.
+     */
+    @Nullable
+    private static PersistentHashIndex openPersistentHashIndex(MavenSession session, PropertySource propertySource) {
+        if (!isTrue(propertySource.getProperty("cacheHashIndex", "true"))) {
+            return null;
+        }
+        RepositorySystemSession repositorySession = session.getRepositorySession();
+        if (repositorySession == null || repositorySession.getLocalRepository() == null) {
+            return null;
+        }
+        String hashIndexDir = propertySource.getProperty("cacheHashIndexDir", null);
+        if (hashIndexDir == null) {
+            String userHome = System.getProperty("user.home");
+            if (userHome == null) {
+                return null;
+            }
+            hashIndexDir = userHome + "/.m2/test-cache/hash-index";
+        }
+        try {
+            return PersistentHashIndex.open(Paths.get(hashIndexDir),
+                repositorySession.getLocalRepository().getBasedir().toPath());
+        } catch (UncheckedIOException e) {
+            logger.warn("Failed to open hash index, continuing without it: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Start background hashing of resolved library artifacts of the project (if enabled).
+     */
+    void prehashArtifacts(MavenProject project) {
+        ClasspathPrehasher classpathPrehasher = this.classpathPrehasher;
+        if (classpathPrehasher != null) {
+            classpathPrehasher.submitArtifacts(project, project.getArtifacts());
+        }
+    }
+
+    /**
+     * Start background hashing of the compiled output directory (if enabled).
+     */
+    void prehashOutputDirectory(MavenProject project, File dir) {
+        OutputDirectoryHasher outputDirectoryHasher = this.outputDirectoryHasher;
+        if (outputDirectoryHasher != null && dir.isDirectory()) {
+            for (AntPathPatterns excludePatterns : ClasspathPrehasher.getExcludeClasspathResourcesPatterns(project)) {
+                outputDirectoryHasher.submit(dir, excludePatterns, getSnapshotDir(dir));
+            }
+        }
+    }
+
+    /**
+     * @return executor to fetch artifacts concurrently or null if they should be fetched one by one
+     */
+    @Nullable
+    Executor getRestoreExecutor() {
+        return restoreExecutor;
     }
 
     void notifyPluginManagerInstantiated() {
@@ -114,6 +284,7 @@ public class TestTaskCacheHelper {
         List<String> activeProfiles = session.getRequest().getActiveProfiles();
 
         TestTaskInput testTaskInput = new TestTaskInput();
+        testTaskInput.setHashAlgorithm(hashAlgorithm);
 
         testTaskInput.addIgnoredProperty("timestamp", Instant.now().toString());
         for (String ignoredProperty : testPluginConfig.getInputIgnoredProperties()) {
@@ -145,7 +316,7 @@ public class TestTaskCacheHelper {
             for (Artifact pluginArtifact : pluginArtifacts) {
                 File file = pluginArtifact.getFile();
                 String hash = file == null ? null : fileHashCache.getClasspathElementHash(file,
-                    testPluginConfig.getExcludeClasspathResources());
+                    testPluginConfig.getExcludeClasspathResourcesPatterns(), null);
                 GroupArtifactId groupArtifactId = groupArtifactId(pluginArtifact);
                 testTaskInput.addPluginArtifactHash(groupArtifactId, pluginArtifact.getClassifier(),
                     pluginArtifact.getVersion(), hash);
@@ -154,44 +325,100 @@ public class TestTaskCacheHelper {
 
         testTaskInput.setModuleName(project.getGroupId() + ":" + project.getArtifactId());
         TestClasspath testClasspath = getTestClasspath(project);
+        testTaskInput.addClasspathHashes(getClasspathHashes(project, testClasspath, testPluginConfig));
+        if (testClasspath.classesDir().exists()) {
+            testTaskInput.setClassesHashes(getDirectoryHashes(testClasspath.classesDir(),
+                testPluginConfig.getExcludeClasspathResourcesPatterns()));
+        }
+        if (testClasspath.testClassesDir().exists()) {
+            testTaskInput.setTestClassesHashes(getDirectoryHashes(testClasspath.testClassesDir(),
+                testPluginConfig.getExcludeClasspathResourcesPatterns()));
+        }
+        testTaskInput.setActiveProfiles(activeProfiles);
+        testTaskInput.setArgLine(call(delegate, String.class, "getArgLine"));
+        testTaskInput.setTest(call(delegate, String.class, "getTest"));
+        testTaskInput.setExcludeClasspathResources(testPluginConfig.getExcludeClasspathResources());
+        testTaskInput.setArtifactConfigs(testPluginConfig.getArtifacts());
+        testTaskInput.setGroups(call(delegate, String.class, "getGroups"));
+        testTaskInput.setExcludedGroups(call(delegate, String.class, "getExcludedGroups"));
+        testTaskInput.setExcludes(call(delegate, List.class, "getExcludes"));
+        // todo filtered getProperties
+        return testTaskInput;
+    }
+
+    /**
+     * Module and library artifact hashes are the same for all surefire/failsafe executions of the project with the
+     * same exclusion config, so they are calculated once per session.
+     */
+    private TestTaskInput getClasspathHashes(
+        MavenProject project,
+        TestClasspath testClasspath,
+        TestPluginConfig testPluginConfig
+    ) {
+        ClasspathKey classpathKey = new ClasspathKey(groupArtifactId(project),
+            testPluginConfig.getExcludeModulesPatterns(), testPluginConfig.getExcludeClasspathResourcesPatterns());
+        List<File> artifactFiles = testClasspath.artifacts().stream()
+            .map(Artifact::getFile)
+            .collect(Collectors.toList());
+        ClasspathHashes classpathHashes = this.classpathHashes.get(classpathKey);
+        if (classpathHashes != null && classpathHashes.artifactFiles.equals(artifactFiles)) {
+            return classpathHashes.classpathInput;
+        }
+
+        TestTaskInput classpathInput = new TestTaskInput();
         for (Artifact artifact : testClasspath.artifacts()) {
-            if (isIncludeToCacheEntry(testPluginConfig.getExcludeModules(), artifact)) {
+            if (isIncludeToCacheEntry(testPluginConfig.getExcludeModulesPatterns(), artifact)) {
                 // Can be a jar file (when "install" command is executed) or
                 // a classes directory (when "test" command is executed).
                 // The trick is we calculate hash of files which is the same in both cases (jar manifest is ignored)
                 File file = artifact.getFile();
                 String hash = fileHashCache.getClasspathElementHash(file,
-                    testPluginConfig.getExcludeClasspathResources());
+                    testPluginConfig.getExcludeClasspathResourcesPatterns(), getSnapshotDir(file));
                 GroupArtifactId groupArtifactId = groupArtifactId(artifact);
                 String classifier = artifact.getClassifier();
                 String classifierSuffix = classifier == null || classifier.isEmpty() ? "" : ":" + classifier;
                 String fileTypeSuffix = file.isDirectory() ? "@dir" : "@" + artifact.getType();
                 if (modules.contains(groupArtifactId)) {
-                    testTaskInput.addModuleArtifactHash(groupArtifactId + classifierSuffix + fileTypeSuffix, hash);
+                    classpathInput.addModuleArtifactHash(groupArtifactId + classifierSuffix + fileTypeSuffix, hash);
                 } else {
-                    testTaskInput.addLibraryArtifactHash(groupArtifactId, artifact.getClassifier(),
+                    classpathInput.addLibraryArtifactHash(groupArtifactId, artifact.getClassifier(),
                         artifact.getVersion(), hash);
                 }
             }
         }
-        if (testClasspath.classesDir().exists()) {
-            testTaskInput.setClassesHashes(HashUtils.hashDirectory(testClasspath.classesDir(),
-                testPluginConfig.getExcludeClasspathResources()));
+        this.classpathHashes.put(classpathKey, new ClasspathHashes(artifactFiles, classpathInput));
+        return classpathInput;
+    }
+
+    private SortedMap<String, String> getDirectoryHashes(File dir, AntPathPatterns excludePatterns) {
+        OutputDirectoryHasher outputDirectoryHasher = this.outputDirectoryHasher;
+        if (outputDirectoryHasher != null) {
+            return outputDirectoryHasher.getDirectoryHashes(dir, excludePatterns, getSnapshotDir(dir));
         }
-        if (testClasspath.testClassesDir().exists()) {
-            testTaskInput.setTestClassesHashes(HashUtils.hashDirectory(testClasspath.testClassesDir(),
-                testPluginConfig.getExcludeClasspathResources()));
+        return fileHashCache.getDirectoryHashes(dir, excludePatterns, getSnapshotDir(dir));
+    }
+
+    private static Set<File> getBuildDirectories(MavenSession session) {
+        Set<File> buildDirectories = new HashSet<>();
+        for (MavenProject project : session.getAllProjects()) {
+            if (project.getBuild() != null && project.getBuild().getDirectory() != null) {
+                buildDirectories.add(new File(project.getBuild().getDirectory()).getAbsoluteFile());
+            }
         }
-        testTaskInput.setActiveProfiles(activeProfiles);
-        testTaskInput.setArgLine(call(delegate, String.class, "getArgLine"));
-        testTaskInput.setTest(call(delegate, String.class, "getTest"));
-        testTaskInput.setExcludeClasspathResources(testPluginConfig.getExcludeClasspathResources());
-        testTaskInput.setArtifactConfigs(testPluginConfig.getArtifacts());
-        testTaskInput.setGroups(call(delegate, String.class, "getGroups"));
-        testTaskInput.setExcludedGroups(call(delegate, String.class, "getExcludedGroups"));
-        testTaskInput.setExcludes(call(delegate, List.class, "getExcludes"));
-        // todo filtered getProperties
-        return testTaskInput;
+        return buildDirectories;
+    }
+
+    /**
+     * Hash snapshots of output directories are stored in the build directory of the module ("target"), so they are
+     * deleted by "mvn clean".
+     *
+     * @param dir output directory (or any other classpath element)
+     * @return build directory of the reactor module containing the output directory
+     */
+    @Nullable
+    private File getSnapshotDir(File dir) {
+        File parentDir = dir.getAbsoluteFile().getParentFile();
+        return parentDir != null && dir.isDirectory() && snapshotDirs.contains(parentDir) ? parentDir : null;
     }
 
     static boolean isPrivate(String propertyName) {
@@ -209,16 +436,10 @@ public class TestTaskCacheHelper {
             || propertyName.endsWith(".secret");
     }
 
-    static boolean isIncludeToCacheEntry(List<String> excludeModules, Artifact artifact) {
+    static boolean isIncludeToCacheEntry(AntPathPatterns excludeModules, Artifact artifact) {
         if (artifact.getArtifactHandler().isAddedToClasspath()) {
-            AntPathMatcher antPathMatcher = new AntPathMatcher(":");
-            for (String excludeModule : excludeModules) {
-                String gai = artifact.getGroupId() + ":" + artifact.getArtifactId();
-                if (antPathMatcher.match(excludeModule, gai)) {
-                    return false;
-                }
-            }
-            return true;
+            return excludeModules.isEmpty()
+                || !excludeModules.matchesAny(artifact.getGroupId() + ":" + artifact.getArtifactId());
         }
         return false;
     }
@@ -236,6 +457,10 @@ public class TestTaskCacheHelper {
         return new GroupArtifactId(artifact.getGroupId(), artifact.getArtifactId());
     }
 
+    private static GroupArtifactId groupArtifactId(MavenProject project) {
+        return new GroupArtifactId(project.getGroupId(), project.getArtifactId());
+    }
+
     private static final class TestClasspath {
 
         private final Set<Artifact> artifacts;
@@ -260,4 +485,68 @@ public class TestTaskCacheHelper {
             return testClassesDir;
         }
     }
+
+    private static final class ClasspathKey {
+
+        private final GroupArtifactId project;
+        private final AntPathPatterns excludeModules;
+        private final AntPathPatterns excludeClasspathResources;
+
+        private ClasspathKey(
+            GroupArtifactId project,
+            AntPathPatterns excludeModules,
+            AntPathPatterns excludeClasspathResources
+        ) {
+            this.project = project;
+            this.excludeModules = excludeModules;
+            this.excludeClasspathResources = excludeClasspathResources;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+            ClasspathKey that = (ClasspathKey) obj;
+            return Objects.equals(this.project, that.project)
+                && Objects.equals(this.excludeModules, that.excludeModules)
+                && Objects.equals(this.excludeClasspathResources, that.excludeClasspathResources);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(project, excludeModules, excludeClasspathResources);
+        }
+    }
+
+    private static final class ClasspathHashes {
+
+        private final List<File> artifactFiles;
+        private final TestTaskInput classpathInput;
+
+        private ClasspathHashes(List<File> artifactFiles, TestTaskInput classpathInput) {
+            this.artifactFiles = artifactFiles;
+            this.classpathInput = classpathInput;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
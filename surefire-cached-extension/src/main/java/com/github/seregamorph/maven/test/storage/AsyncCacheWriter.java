@@ -0,0 +1,246 @@
+package com.github.seregamorph.maven.test.storage;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.util.MoreFileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queue of {@link CacheService} (and of the write-back mode of {@link TieredCacheStorage}): cache entities
+ * are uploaded by background threads while the reactor continues with the next modules.
+ * <p>
+ * Small entities are kept in memory, files and entities over the memory limit are spilled to disk (hard linked or
+ * copied to the spill directory). The writes of the same cache entry are executed in the order of submission, so
+ * the task output which completes the entry is always written last, and the rest of the entry is dropped after a
+ * failed or dropped write. Entries of different modules are written concurrently.
+ *
+ * @author Sergey Chernov
+ */
+class AsyncCacheWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncCacheWriter.class);
+
+    /**
+     * Max total size of enqueued entities kept in memory, the rest is spilled to disk
+     */
+    private static final long MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+
+    private final Target target;
+    private final CacheServiceMetrics metrics;
+    private final long maxPendingBytes;
+    private final File spillDir;
+    private final ExecutorService executor;
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicInteger spillCounter = new AtomicInteger();
+    /**
+     * Last submitted write of each cache entry, the next one is chained to it
+     */
+    private final Map<CacheEntryKey, CompletableFuture<Void>> lastWrites = new ConcurrentHashMap<>();
+    private final Set<CacheEntryKey> droppedEntries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threadNamePrefix prefix of the names of the writer threads
+     */
+    AsyncCacheWriter(Target target, CacheServiceMetrics metrics, AsyncWriteConfig config, String threadNamePrefix) {
+        this.target = target;
+        this.metrics = metrics;
+        this.maxPendingBytes = config.maxPendingBytes();
+        this.spillDir = config.spillDir();
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.threads(), runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void submit(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        if (!reserve(cacheEntryKey, fileName, value.length)) {
+            return;
+        }
+        if (memoryBytes.addAndGet(value.length) <= MAX_MEMORY_BYTES) {
+            enqueue(cacheEntryKey, fileName, value.length,
+                () -> target.write(cacheEntryKey, fileName, value),
+                () -> memoryBytes.addAndGet(-value.length));
+            return;
+        }
+        memoryBytes.addAndGet(-value.length);
+        File spillFile;
+        try {
+            spillFile = newSpillFile(fileName);
+            Files.write(spillFile.toPath(), value);
+        } catch (IOException e) {
+            drop(cacheEntryKey, fileName, value.length, e);
+            return;
+        }
+        enqueueSpilled(cacheEntryKey, fileName, spillFile, value.length);
+    }
+
+    void submit(CacheEntryKey cacheEntryKey, String fileName, File source) {
+        long length = source.length();
+        if (!reserve(cacheEntryKey, fileName, length)) {
+            return;
+        }
+        File spillFile;
+        try {
+            spillFile = newSpillFile(fileName);
+            try {
+                // the source is deleted and written again (as a new file) by the next pack to the same location
+                Files.createLink(spillFile.toPath(), source.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(source.toPath(), spillFile.toPath());
+            }
+        } catch (IOException e) {
+            drop(cacheEntryKey, fileName, length, e);
+            return;
+        }
+        enqueueSpilled(cacheEntryKey, fileName, spillFile, length);
+    }
+
+    private void enqueueSpilled(CacheEntryKey cacheEntryKey, String fileName, File spillFile, long length) {
+        enqueue(cacheEntryKey, fileName, length,
+            () -> target.writeFile(cacheEntryKey, fileName, spillFile),
+            () -> MoreFileUtils.delete(spillFile));
+    }
+
+    private boolean reserve(CacheEntryKey cacheEntryKey, String fileName, long length) {
+        if (droppedEntries.contains(cacheEntryKey)) {
+            logger.warn("Skipping writing incomplete cache entry {} {}", cacheEntryKey, fileName);
+            metrics.addAsyncWriteDropped();
+            return false;
+        }
+        if (pendingBytes.addAndGet(length) > maxPendingBytes) {
+            drop(cacheEntryKey, fileName, length, null);
+            return false;
+        }
+        return true;
+    }
+
+    private void drop(CacheEntryKey cacheEntryKey, String fileName, long length, @Nullable IOException e) {
+        pendingBytes.addAndGet(-length);
+        droppedEntries.add(cacheEntryKey);
+        metrics.addAsyncWriteDropped();
+        if (e == null) {
+            logger.warn("Dropped writing {} {}: too many pending writes", cacheEntryKey, fileName);
+        } else {
+            logger.warn("Dropped writing {} {}: {}", cacheEntryKey, fileName, e.toString());
+        }
+    }
+
+    /**
+     * @param release releases the enqueued entity after it's written or dropped
+     */
+    private void enqueue(
+        CacheEntryKey cacheEntryKey,
+        String fileName,
+        long length,
+        AsyncWrite asyncWrite,
+        Runnable release
+    ) {
+        long submitted = System.nanoTime();
+        lastWrites.compute(cacheEntryKey, (key, lastWrite) -> {
+            CompletableFuture<Void> previous = lastWrite == null ? CompletableFuture.completedFuture(null) : lastWrite;
+            return previous.thenRunAsync(() -> {
+                metrics.addAsyncWriteQueueWait(System.nanoTime() - submitted);
+                try {
+                    if (droppedEntries.contains(cacheEntryKey)) {
+                        logger.warn("Skipping writing incomplete cache entry {} {}", cacheEntryKey, fileName);
+                        metrics.addAsyncWriteDropped();
+                    } else if (!asyncWrite.write()) {
+                        droppedEntries.add(cacheEntryKey);
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to write cache entry {} {}: {}", cacheEntryKey, fileName, e.toString());
+                    droppedEntries.add(cacheEntryKey);
+                } finally {
+                    release.run();
+                    pendingBytes.addAndGet(-length);
+                }
+            }, executor);
+        });
+    }
+
+    private File newSpillFile(String fileName) throws IOException {
+        Files.createDirectories(spillDir.toPath());
+        Path spillFile = spillDir.toPath().resolve(spillCounter.incrementAndGet() + "-" + fileName);
+        Files.deleteIfExists(spillFile);
+        return spillFile.toFile();
+    }
+
+    /**
+     * Wait for the pending writes and release the resources.
+     */
+    void close() {
+        // the chained writes are submitted to the executor on completion of the previous ones, so the executor is
+        // shut down only after all of them
+        CompletableFuture<Void> allWrites = CompletableFuture.allOf(lastWrites.values()
+            .toArray(new CompletableFuture<?>[0]));
+        try {
+            while (true) {
+                try {
+                    allWrites.get(10L, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    logger.info("Waiting for {} pending cache writes...", pendingWrites());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Failed to write cache entries: {}", e.getCause().toString());
+        }
+        executor.shutdownNow();
+        lastWrites.clear();
+        MoreFileUtils.delete(spillDir);
+    }
+
+    private long pendingWrites() {
+        return lastWrites.values().stream()
+            .filter(lastWrite -> !lastWrite.isDone())
+            .count();
+    }
+
+    /**
+     * Destination of the background writes
+     */
+    interface Target {
+
+        /**
+         * @return true if written, false if failed or skipped
+         */
+        boolean write(CacheEntryKey cacheEntryKey, String fileName, byte[] value);
+
+        /**
+         * @param source enqueued file, it's deleted after the call
+         * @return true if written, false if failed or skipped
+         */
+        boolean writeFile(CacheEntryKey cacheEntryKey, String fileName, File source);
+    }
+
+    @FunctionalInterface
+    private interface AsyncWrite {
+
+        /**
+         * @return true if written, false if failed or skipped
+         */
+        boolean write();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.seregamorph.maven.test.storage;
+
+import java.io.File;
+
+/**
+ * @author Sergey Chernov
+ */
+public final class AsyncWriteConfig {
+
+    private final int threads;
+    private final long maxPendingBytes;
+    private final File spillDir;
+
+    /**
+     * @param threads         number of upload threads
+     * @param maxPendingBytes max total size of enqueued entities, the writes over the limit are dropped
+     * @param spillDir        directory for enqueued entities which are not kept in memory
+     */
+    public AsyncWriteConfig(int threads, long maxPendingBytes, File spillDir) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1");
+        }
+        this.threads = threads;
+        this.maxPendingBytes = maxPendingBytes;
+        this.spillDir = spillDir;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public long maxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    public File spillDir() {
+        return spillDir;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncWriteConfig{" +
+            "threads=" + threads +
+            ", maxPendingBytes=" + maxPendingBytes +
+            ", spillDir=" + spillDir +
+            '}';
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.seregamorph.maven.test.storage;
 
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.util.MoreFileUtils;
+import java.io.Closeable;
+import java.io.File;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,18 +11,44 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Sergey Chernov
  */
-public class CacheService {
+public class CacheService implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(CacheService.class);
 
     private final CacheStorage cacheStorage;
     private final CacheServiceMetrics metrics;
     private final int failureThreshold;
+    /**
+     * Background writer, null if writes are synchronous
+     */
+    @Nullable
+    private final AsyncCacheWriter asyncWriter;
 
     public CacheService(CacheStorage cacheStorage, CacheServiceMetrics metrics, int failureThreshold) {
+        this(cacheStorage, metrics, failureThreshold, null);
+    }
+
+    public CacheService(
+        CacheStorage cacheStorage,
+        CacheServiceMetrics metrics,
+        int failureThreshold,
+        @Nullable AsyncWriteConfig asyncWriteConfig
+    ) {
         this.cacheStorage = cacheStorage;
         this.metrics = metrics;
         this.failureThreshold = failureThreshold;
+        this.asyncWriter = asyncWriteConfig == null ? null
+            : new AsyncCacheWriter(new AsyncCacheWriter.Target() {
+                @Override
+                public boolean write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+                    return writeNow(cacheEntryKey, fileName, value) >= 0;
+                }
+
+                @Override
+                public boolean writeFile(CacheEntryKey cacheEntryKey, String fileName, File source) {
+                    return writeFromFileNow(cacheEntryKey, fileName, source) >= 0;
+                }
+            }, metrics, asyncWriteConfig, "surefire-cached-async-write-");
     }
 
     @Nullable
@@ -33,6 +62,9 @@ public class CacheService {
         long start = System.nanoTime();
         Integer bytes = null;
         try {
+            if (isFilteredOut(cacheEntryKey)) {
+                return null;
+            }
             byte[] entity = cacheStorage.read(cacheEntryKey, fileName);
             if (entity != null) {
                 bytes = entity.length;
@@ -52,11 +84,38 @@ public class CacheService {
         }
     }
 
+    /**
+     * @return true if the entry definitely does not exist, so the lookup is skipped (counted as a miss)
+     */
+    private boolean isFilteredOut(CacheEntryKey cacheEntryKey) {
+        if (cacheStorage.mightContain(cacheEntryKey)) {
+            return false;
+        }
+        metrics.addFilterAvoidedRead();
+        return true;
+    }
+
+    /**
+     * Write cache entity. In the asynchronous mode it's only enqueued.
+     *
+     * @return number of deleted files (always 0 in the asynchronous mode)
+     */
     public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        if (asyncWriter != null) {
+            asyncWriter.submit(cacheEntryKey, fileName, value);
+            return 0;
+        }
+        return Math.max(0, writeNow(cacheEntryKey, fileName, value));
+    }
+
+    /**
+     * @return number of deleted files or -1 if the write failed or was skipped
+     */
+    int writeNow(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
         if (metrics.getWriteFailures() >= failureThreshold) {
             metrics.addWriteSkipped();
             logger.info("Skipping writing {} {} because of too many failures", cacheEntryKey, fileName);
-            return 0;
+            return -1;
         }
 
         long start = System.nanoTime();
@@ -65,9 +124,111 @@ public class CacheService {
         } catch (CacheStorageException e) {
             logger.warn("Failed to write cache entry {}", e.toString());
             metrics.addWriteFailure();
-            return 0;
+            return -1;
         } finally {
             metrics.addWriteOperation(System.nanoTime() - start, value.length);
         }
     }
+
+    /**
+     * Copy cache entity to the file (without loading it to the heap).
+     *
+     * @return true if the entity exists and was copied, false on cache miss or failure
+     */
+    public boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, File target) {
+        if (metrics.getReadFailures() >= failureThreshold) {
+            metrics.addReadSkipped();
+            logger.info("Skipping reading {} {} because of too many failures", cacheEntryKey, fileName);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        Long bytes = null;
+        try {
+            if (isFilteredOut(cacheEntryKey)) {
+                return false;
+            }
+            if (cacheStorage.readToFile(cacheEntryKey, fileName, target.toPath())) {
+                bytes = target.length();
+            }
+            return bytes != null;
+        } catch (CacheStorageException e) {
+            logger.warn("Failed to read cache entry {}", e.toString());
+            metrics.addReadFailure();
+            MoreFileUtils.delete(target);
+            return false;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (bytes == null) {
+                metrics.addReadMissOperation(nanos);
+            } else {
+                metrics.addReadHitOperation(nanos, bytes);
+            }
+        }
+    }
+
+    /**
+     * Write cache entity from the file (without loading it to the heap). In the asynchronous mode the file is
+     * enqueued (linked or copied to the spill directory, so the source may be changed right after the call).
+     *
+     * @return number of deleted files (always 0 in the asynchronous mode)
+     */
+    public int writeFromFile(CacheEntryKey cacheEntryKey, String fileName, File source) {
+        if (asyncWriter != null) {
+            asyncWriter.submit(cacheEntryKey, fileName, source);
+            return 0;
+        }
+        return Math.max(0, writeFromFileNow(cacheEntryKey, fileName, source));
+    }
+
+    /**
+     * @return number of deleted files or -1 if the write failed or was skipped
+     */
+    int writeFromFileNow(CacheEntryKey cacheEntryKey, String fileName, File source) {
+        if (metrics.getWriteFailures() >= failureThreshold) {
+            metrics.addWriteSkipped();
+            logger.info("Skipping writing {} {} because of too many failures", cacheEntryKey, fileName);
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        long length = source.length();
+        try {
+            if (isUniqueContent(fileName)) {
+                return cacheStorage.writeFile(cacheEntryKey, fileName, source.toPath());
+            }
+            // reproducible archives are often already stored by other entries, then only the reference is sent
+            String contentHash = MoreFileUtils.sha256(source.toPath());
+            if (cacheStorage.writeReference(cacheEntryKey, fileName, contentHash)) {
+                logger.debug("Stored {} {} as reference to existing content", cacheEntryKey, fileName);
+                length = 0;
+                return 0;
+            }
+            return cacheStorage.writeFile(cacheEntryKey, fileName, source.toPath(), contentHash);
+        } catch (CacheStorageException e) {
+            logger.warn("Failed to write cache entry {}", e.toString());
+            metrics.addWriteFailure();
+            return -1;
+        } finally {
+            metrics.addWriteOperation(System.nanoTime() - start, length);
+        }
+    }
+
+    /**
+     * Task outputs and bundles (which include the task output) contain the timestamps of the execution, so their
+     * content is never shared by other entries and there is no sense to try a reference.
+     */
+    private static boolean isUniqueContent(String fileName) {
+        return fileName.endsWith("-output.json") || fileName.endsWith("-bundle.bin");
+    }
+
+    /**
+     * Wait for the pending asynchronous writes.
+     */
+    @Override
+    public void close() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
+    }
 }
@@ -21,6 +21,17 @@ import java.util.concurrent.atomic.AtomicLong;
     "writeMillis",
     "writeFailures",
     "writeSkipped",
+    "localReadHitOperations",
+    "localReadMissOperations",
+    "remoteReadHitOperations",
+    "remoteReadMissOperations",
+    "writeBackFailures",
+    "writeThroughputBytesPerSecond",
+    "asyncWriteOperations",
+    "asyncWriteQueueWaitMillis",
+    "asyncWriteMaxQueueWaitMillis",
+    "asyncWriteDropped",
+    "filterAvoidedReads",
 })
 public class CacheServiceMetrics {
 
@@ -47,6 +58,28 @@ public class CacheServiceMetrics {
      */
     private final AtomicInteger writesSkipped = new AtomicInteger(0);
 
+    /**
+     * Per-tier counters of {@link TieredCacheStorage}
+     */
+    private final AtomicInteger localReadHitOperations = new AtomicInteger();
+    private final AtomicInteger localReadMissOperations = new AtomicInteger();
+    private final AtomicInteger remoteReadHitOperations = new AtomicInteger();
+    private final AtomicInteger remoteReadMissOperations = new AtomicInteger();
+    private final AtomicInteger writeBackFailures = new AtomicInteger();
+
+    /**
+     * Write-behind queue counters of {@link CacheService}
+     */
+    private final AtomicInteger asyncWriteOperations = new AtomicInteger();
+    private final AtomicLong asyncWriteQueueWaitNanos = new AtomicLong();
+    private final AtomicLong asyncWriteMaxQueueWaitNanos = new AtomicLong();
+    private final AtomicInteger asyncWriteDropped = new AtomicInteger();
+
+    /**
+     * Lookups of definitely missing entries answered by the key filter of the storage
+     */
+    private final AtomicInteger filterAvoidedReads = new AtomicInteger();
+
     public void addReadHitOperation(long nanos, long bytes) {
         readHitOperations.incrementAndGet();
         readHitNanos.addAndGet(nanos);
@@ -127,4 +160,86 @@ public class CacheServiceMetrics {
     public int getWriteSkipped() {
         return writesSkipped.get();
     }
+
+    public void addLocalReadHit() {
+        localReadHitOperations.incrementAndGet();
+    }
+
+    public int getLocalReadHitOperations() {
+        return localReadHitOperations.get();
+    }
+
+    public void addLocalReadMiss() {
+        localReadMissOperations.incrementAndGet();
+    }
+
+    public int getLocalReadMissOperations() {
+        return localReadMissOperations.get();
+    }
+
+    public void addRemoteReadHit() {
+        remoteReadHitOperations.incrementAndGet();
+    }
+
+    public int getRemoteReadHitOperations() {
+        return remoteReadHitOperations.get();
+    }
+
+    public void addRemoteReadMiss() {
+        remoteReadMissOperations.incrementAndGet();
+    }
+
+    public int getRemoteReadMissOperations() {
+        return remoteReadMissOperations.get();
+    }
+
+    public void addWriteBackFailure() {
+        writeBackFailures.incrementAndGet();
+    }
+
+    public int getWriteBackFailures() {
+        return writeBackFailures.get();
+    }
+
+    /**
+     * @return average write throughput (0 if nothing was written)
+     */
+    public long getWriteThroughputBytesPerSecond() {
+        long nanos = writeNanos.get();
+        return nanos == 0L ? 0L : (long) (writeBytes.get() * 1_000_000_000.0 / nanos);
+    }
+
+    public void addAsyncWriteQueueWait(long nanos) {
+        asyncWriteOperations.incrementAndGet();
+        asyncWriteQueueWaitNanos.addAndGet(nanos);
+        asyncWriteMaxQueueWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public int getAsyncWriteOperations() {
+        return asyncWriteOperations.get();
+    }
+
+    public long getAsyncWriteQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(asyncWriteQueueWaitNanos.get());
+    }
+
+    public long getAsyncWriteMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(asyncWriteMaxQueueWaitNanos.get());
+    }
+
+    public void addAsyncWriteDropped() {
+        asyncWriteDropped.incrementAndGet();
+    }
+
+    public int getAsyncWriteDropped() {
+        return asyncWriteDropped.get();
+    }
+
+    public void addFilterAvoidedRead() {
+        filterAvoidedReads.incrementAndGet();
+    }
+
+    public int getFilterAvoidedReads() {
+        return filterAvoidedReads.get();
+    }
 }
@@ -1,10 +1,20 @@
 package com.github.seregamorph.maven.test.storage;
 
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
 import com.github.seregamorph.maven.test.common.ServerProtocolVersion;
 import com.github.seregamorph.maven.test.util.ResponseBodyUtils;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -12,11 +22,14 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Cache storage on a remote HTTP service. Uses HTTP PUT and GET methods.
+ * Cache storage on a remote HTTP service. Uses HTTP PUT, POST (references to stored content) and GET methods.
  *
  * @author Sergey Chernov
  */
@@ -25,17 +38,62 @@ public class HttpCacheStorage implements CacheStorage {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpCacheStorage.class);
 
     private static final MediaType TYPE = MediaType.get("application/octet-stream");
+    private static final MediaType TEXT_TYPE = MediaType.get("text/plain; charset=utf-8");
+
+    /**
+     * Max number of entities in a batch read request
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+    /**
+     * Entity length in the batch response: the entity does not exist
+     */
+    private static final long BATCH_ENTITY_MISSING = -1L;
+    /**
+     * Entity length in the batch response: the entity is too large for a batch, it should be read with GET
+     */
+    private static final long BATCH_ENTITY_TOO_LARGE = -2L;
 
     private final URI baseUrl;
     private final boolean checkServerVersion;
     private final OkHttpClient client;
     private final String cacheHashPrefix;
+    private final long batchWindowNanos;
+    private final boolean keyFilterEnabled;
+
+    /**
+     * Disabled when the server does not support batch reads
+     */
+    private volatile boolean batchSupported = true;
+    /**
+     * Disabled when the server does not support references
+     */
+    private volatile boolean referenceSupported = true;
+    private final Object batchLock = new Object();
+    /**
+     * Number of reads in progress (batched or not)
+     */
+    private final AtomicInteger activeReads = new AtomicInteger();
+    /**
+     * Batch which is collecting reads, null if there is none
+     */
+    @Nullable
+    private ReadBatch openBatch;
+
+    private final Object keyFilterLock = new Object();
+    private volatile boolean keyFilterLoaded;
+    /**
+     * Filter of the entries existing on the server, downloaded once; null if not loaded or not supported
+     */
+    @Nullable
+    private volatile CacheKeyFilter keyFilter;
 
     public HttpCacheStorage(HttpCacheStorageConfig config) {
         this.baseUrl = config.baseUrl();
         this.checkServerVersion = config.checkServerVersion();
         this.client = createHttpClient(config);
         this.cacheHashPrefix = config.cacheHashPrefix();
+        this.batchWindowNanos = config.batchWindow().toNanos();
+        this.keyFilterEnabled = config.keyFilter();
     }
 
     private static OkHttpClient createHttpClient(HttpCacheStorageConfig config) {
@@ -46,45 +104,267 @@ public class HttpCacheStorage implements CacheStorage {
             .build();
     }
 
+    /**
+     * Check the entry in the key filter, which is downloaded from the server on the first call. Entries stored by
+     * other builds after the download are not in the filter, they are treated as missing until the next build.
+     */
+    @Override
+    public boolean mightContain(CacheEntryKey cacheEntryKey) {
+        if (!keyFilterEnabled) {
+            return true;
+        }
+        CacheKeyFilter filter = getKeyFilter();
+        return filter == null || filter.mightContain(getEntryKeyPath(cacheEntryKey));
+    }
+
+    @Nullable
+    private CacheKeyFilter getKeyFilter() {
+        if (!keyFilterLoaded) {
+            synchronized (keyFilterLock) {
+                if (!keyFilterLoaded) {
+                    keyFilter = loadKeyFilter();
+                    keyFilterLoaded = true;
+                }
+            }
+        }
+        return keyFilter;
+    }
+
+    /**
+     * @return the filter or null if the server does not provide it (then the lookups are not filtered)
+     */
+    @Nullable
+    private CacheKeyFilter loadKeyFilter() {
+        String url = baseUrl + "/filter";
+        Request request = new Request.Builder()
+            .get()
+            .url(url)
+            .build();
+        LOGGER.info("Fetching cache key filter: {}", url);
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 404 || response.code() == 405) {
+                LOGGER.info("Cache server does not provide key filter");
+                return null;
+            }
+            if (checkServerVersion) {
+                checkServerVersion(response);
+            }
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                throw new IOException("No response body with response code: " + response.code());
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response.code()
+                    + "\n" + ResponseBodyUtils.responseBodyForLog(responseBody.string()));
+            }
+            return CacheKeyFilter.read(responseBody.byteStream());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to fetch cache key filter {}: {}", url, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Read the entity. If batching is enabled, concurrent reads (e.g. task outputs of modules built in parallel) are
+     * coalesced into a single batch request: the first read waits for the others during the batch window and then
+     * executes the request for all of them. A read without other reads in progress is executed at once.
+     */
     @Nullable
     @Override
     public byte[] read(CacheEntryKey cacheEntryKey, String fileName) {
+        if (batchWindowNanos <= 0L || !batchSupported) {
+            return readSingle(cacheEntryKey, fileName);
+        }
+        activeReads.incrementAndGet();
+        try {
+            return readBatched(cacheEntryKey, fileName);
+        } finally {
+            activeReads.decrementAndGet();
+        }
+    }
+
+    @Nullable
+    private byte[] readBatched(CacheEntryKey cacheEntryKey, String fileName) {
+        PendingRead pendingRead = new PendingRead(getEntryPath(cacheEntryKey, fileName));
+        ReadBatch batch = null;
+        boolean leader = false;
+        synchronized (batchLock) {
+            if (openBatch != null || activeReads.get() > 1) {
+                leader = openBatch == null;
+                if (leader) {
+                    openBatch = new ReadBatch();
+                }
+                batch = openBatch;
+                batch.reads.add(pendingRead);
+                if (batch.reads.size() >= MAX_BATCH_SIZE) {
+                    openBatch = null;
+                    batch.full.countDown();
+                }
+            }
+        }
+        if (batch == null) {
+            // no other reads in progress to coalesce with
+            return readSingle(cacheEntryKey, fileName);
+        }
+        if (leader) {
+            try {
+                batch.full.await(batchWindowNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (batchLock) {
+                if (openBatch == batch) {
+                    openBatch = null;
+                }
+            }
+            executeBatch(batch);
+        }
+
+        try {
+            return pendingRead.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheStorageException("Interrupted while fetching from cache " + pendingRead.entryPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BatchFallback) {
+                return readSingle(cacheEntryKey, fileName);
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CacheStorageException("Error while fetching from cache " + pendingRead.entryPath, e);
+        }
+    }
+
+    private void executeBatch(ReadBatch batch) {
+        List<PendingRead> reads = batch.reads;
+        if (reads.size() == 1) {
+            // nothing to coalesce
+            reads.get(0).result.completeExceptionally(BatchFallback.INSTANCE);
+            return;
+        }
+
+        String url = baseUrl + "/batch";
+        StringBuilder body = new StringBuilder();
+        for (PendingRead read : reads) {
+            body.append(read.entryPath).append('\n');
+        }
+        Request request = new Request.Builder()
+            .post(RequestBody.create(body.toString(), TEXT_TYPE))
+            .url(url)
+            .build();
+        LOGGER.info("Fetching {} entities from cache: {}", reads.size(), url);
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 404 || response.code() == 405) {
+                LOGGER.info("Cache server does not support batch reads, falling back to single reads");
+                batchSupported = false;
+                reads.forEach(read -> read.result.completeExceptionally(BatchFallback.INSTANCE));
+                return;
+            }
+            if (checkServerVersion) {
+                checkServerVersion(response);
+            }
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                throw new IOException("No response body with response code: " + response.code());
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response.code()
+                    + "\n" + ResponseBodyUtils.responseBodyForLog(responseBody.string()));
+            }
+            DataInputStream in = new DataInputStream(responseBody.byteStream());
+            for (PendingRead read : reads) {
+                long length = in.readLong();
+                if (length == BATCH_ENTITY_MISSING) {
+                    read.result.complete(null);
+                } else if (length == BATCH_ENTITY_TOO_LARGE) {
+                    read.result.completeExceptionally(BatchFallback.INSTANCE);
+                } else if (length < 0L) {
+                    throw new IOException("Unexpected batch entity length " + length + " of " + read.entryPath);
+                } else {
+                    byte[] value = new byte[Math.toIntExact(length)];
+                    in.readFully(value);
+                    read.result.complete(value);
+                }
+            }
+        } catch (IOException e) {
+            CacheStorageException exception = new CacheStorageException("Error while fetching from cache "
+                + url + " " + e, e);
+            // no-op for already completed reads
+            reads.forEach(read -> read.result.completeExceptionally(exception));
+        } catch (RuntimeException e) {
+            reads.forEach(read -> read.result.completeExceptionally(e));
+        }
+    }
+
+    @Nullable
+    private byte[] readSingle(CacheEntryKey cacheEntryKey, String fileName) {
+        try (InputStream in = readStream(cacheEntryKey, fileName)) {
+            return in == null ? null : IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new CacheStorageException("Error while fetching from cache "
+                + getEntryUri(cacheEntryKey, fileName) + " " + e, e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) {
         String url = getEntryUri(cacheEntryKey, fileName);
+        Response response = null;
         try {
             Request request = new Request.Builder()
                 .get()
                 .url(url)
                 .build();
             LOGGER.info("Fetching from cache: {}", url);
-            try (Response response = client.newCall(request).execute()) {
-                boolean isHttp2xx = response.code() / 100 == 2;
-                boolean isHttp404 = response.code() == 404;
-                if ((isHttp2xx || isHttp404) && checkServerVersion) {
-                    checkServerVersion(response);
-                }
-                if (isHttp404) {
-                    return null;
-                }
-                ResponseBody responseBody = response.body();
-                if (responseBody == null) {
-                    throw new IOException("No response body with response code: " + response.code());
-                }
-                if (!response.isSuccessful()) {
-                    throw new IOException("Unexpected response code: " + response.code()
-                        + "\n" + ResponseBodyUtils.responseBodyForLog(responseBody.string()));
-                }
-                return responseBody.bytes();
+            response = client.newCall(request).execute();
+            boolean isHttp2xx = response.code() / 100 == 2;
+            boolean isHttp404 = response.code() == 404;
+            if ((isHttp2xx || isHttp404) && checkServerVersion) {
+                checkServerVersion(response);
+            }
+            if (isHttp404) {
+                response.close();
+                return null;
+            }
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                throw new IOException("No response body with response code: " + response.code());
             }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response.code()
+                    + "\n" + ResponseBodyUtils.responseBodyForLog(responseBody.string()));
+            }
+            // the response is closed with the stream
+            return responseBody.byteStream();
         } catch (IOException e) {
+            closeQuietly(response);
             throw new CacheStorageException("Error while fetching from cache " + url + " " + e, e);
+        } catch (RuntimeException e) {
+            closeQuietly(response);
+            throw e;
         }
     }
 
     @Override
     public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        return write(cacheEntryKey, fileName, RequestBody.create(value, TYPE));
+    }
+
+    @Override
+    public int writeStream(CacheEntryKey cacheEntryKey, String fileName, InputStream in, long length) {
+        return write(cacheEntryKey, fileName, new InputStreamRequestBody(in, length));
+    }
+
+    private int write(CacheEntryKey cacheEntryKey, String fileName, RequestBody requestBody) {
+        CacheKeyFilter filter = keyFilter;
+        if (filter != null) {
+            // the entry may be read later in the same build
+            filter.put(getEntryKeyPath(cacheEntryKey));
+        }
         String url = getEntryUri(cacheEntryKey, fileName);
         try {
-            RequestBody requestBody = RequestBody.create(value, TYPE);
             Request request = new Request.Builder()
                 .put(requestBody)
                 .url(url)
@@ -110,13 +390,61 @@ public class HttpCacheStorage implements CacheStorage {
         return 0;
     }
 
+    /**
+     * Ask the server to store the entity as a reference to the content it already has (uses HTTP POST). The server
+     * responds 404 if the content is unknown, older servers respond 405, in both cases the entity should be written.
+     */
+    @Override
+    public boolean writeReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+        if (!referenceSupported) {
+            return false;
+        }
+        String url = getEntryUri(cacheEntryKey, fileName) + "?contentHash=" + contentHash;
+        try {
+            Request request = new Request.Builder()
+                .post(RequestBody.create(new byte[0], TYPE))
+                .url(url)
+                .build();
+            try (Response response = client.newCall(request).execute()) {
+                if (response.code() == 405) {
+                    LOGGER.info("Cache server does not support references, writing full content");
+                    referenceSupported = false;
+                    return false;
+                }
+                if (!response.isSuccessful()) {
+                    LOGGER.debug("Content is not referenced {}: {}", url, response.code());
+                    return false;
+                }
+                if (checkServerVersion) {
+                    checkServerVersion(response);
+                }
+                LOGGER.info("Pushed reference to cache: {}", url);
+                return true;
+            }
+        } catch (IOException e) {
+            throw new CacheStorageException("Error while pushing reference to cache " + url + " " + e, e);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Response response) {
+        if (response != null) {
+            response.close();
+        }
+    }
+
     private String getEntryUri(CacheEntryKey cacheEntryKey, String fileName) {
-        return baseUrl
-            + "/" + cacheEntryKey.pluginName()
+        return baseUrl + "/" + getEntryPath(cacheEntryKey, fileName);
+    }
+
+    private String getEntryPath(CacheEntryKey cacheEntryKey, String fileName) {
+        return getEntryKeyPath(cacheEntryKey) + "/" + fileName;
+    }
+
+    private String getEntryKeyPath(CacheEntryKey cacheEntryKey) {
+        return cacheEntryKey.pluginName()
             + "/" + cacheEntryKey.groupArtifactId().groupId()
             + "/" + cacheEntryKey.groupArtifactId().artifactId()
-            + "/" + (cacheHashPrefix == null ? "" : cacheHashPrefix + "-") + cacheEntryKey.hash()
-            + "/" + fileName;
+            + "/" + (cacheHashPrefix == null ? "" : cacheHashPrefix + "-") + cacheEntryKey.hash();
     }
 
     private void checkServerVersion(Response response) {
@@ -140,4 +468,67 @@ public class HttpCacheStorage implements CacheStorage {
                 ServerProtocolVersion.MIN_SERVER_PROTOCOL_VERSION);
         }
     }
+
+    /**
+     * Request body streamed from the source without buffering, can be sent only once.
+     */
+    private static final class InputStreamRequestBody extends RequestBody {
+
+        private final InputStream in;
+        private final long length;
+
+        private InputStreamRequestBody(InputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return TYPE;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // the source stream is closed by the caller
+            sink.writeAll(Okio.source(in));
+        }
+    }
+
+    private static final class PendingRead {
+
+        private final String entryPath;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private PendingRead(String entryPath) {
+            this.entryPath = entryPath;
+        }
+    }
+
+    private static final class ReadBatch {
+
+        private final List<PendingRead> reads = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+    }
+
+    /**
+     * The read should be executed as a single request
+     */
+    private static final class BatchFallback extends Exception {
+
+        private static final BatchFallback INSTANCE = new BatchFallback();
+
+        private BatchFallback() {
+            super(null, null, false, false);
+        }
+    }
 }
@@ -16,6 +16,14 @@ public final class HttpCacheStorageConfig {
     private final Duration writeTimeout;
     @Nullable
     private final String cacheHashPrefix;
+    /**
+     * Time window to coalesce concurrent reads into a batch request, zero if disabled
+     */
+    private final Duration batchWindow;
+    /**
+     * Download the filter of existing cache entries from the server and skip lookups of definitely missing ones
+     */
+    private final boolean keyFilter;
 
     public HttpCacheStorageConfig(
         URI baseUrl,
@@ -23,7 +31,9 @@ public final class HttpCacheStorageConfig {
         Duration connectTimeout,
         Duration readTimeout,
         Duration writeTimeout,
-        @Nullable String cacheHashPrefix
+        @Nullable String cacheHashPrefix,
+        Duration batchWindow,
+        boolean keyFilter
     ) {
         this.baseUrl = baseUrl;
         this.checkServerVersion = checkServerVersion;
@@ -31,6 +41,8 @@ public final class HttpCacheStorageConfig {
         this.readTimeout = readTimeout;
         this.writeTimeout = writeTimeout;
         this.cacheHashPrefix = cacheHashPrefix;
+        this.batchWindow = batchWindow;
+        this.keyFilter = keyFilter;
     }
 
     public URI baseUrl() {
@@ -57,6 +69,14 @@ public final class HttpCacheStorageConfig {
         return cacheHashPrefix;
     }
 
+    public Duration batchWindow() {
+        return batchWindow;
+    }
+
+    public boolean keyFilter() {
+        return keyFilter;
+    }
+
     @Override
     public String toString() {
         return "HttpCacheStorageConfig{" +
@@ -66,6 +86,8 @@ public final class HttpCacheStorageConfig {
             ", readTimeout=" + readTimeout +
             ", writeTimeout=" + writeTimeout +
             ", cacheHashPrefix='" + cacheHashPrefix + '\'' +
+            ", batchWindow=" + batchWindow +
+            ", keyFilter=" + keyFilter +
             '}';
     }
 }
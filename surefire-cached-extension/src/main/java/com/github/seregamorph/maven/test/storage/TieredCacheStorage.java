@@ -0,0 +1,320 @@
+package com.github.seregamorph.maven.test.storage;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Two-tier cache storage: local directory (L1) in front of the remote storage (L2). Reads are served from the local
+ * tier first, entities found only in the remote tier are copied to the local one, so the next builds on the same
+ * machine do not download them again.
+ * <p>
+ * Writes always go to the local tier first and are then uploaded from it to the remote tier. In the write-through
+ * mode the upload is done in the caller thread, in the write-back mode it's done by {@link AsyncCacheWriter} (in the
+ * order of writes of each cache entry, so the task output entity which completes the cache entry is uploaded last).
+ * Pending uploads are awaited on {@link #close()}.
+ * <p>
+ * Besides the limit of entries per module of the local storage, the total size of the local tier is bounded: the
+ * least recently used entries are deleted on {@link #close()}, so the budget may be exceeded by the entries of the
+ * current build only.
+ *
+ * @author Sergey Chernov
+ */
+public class TieredCacheStorage implements CacheStorage, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredCacheStorage.class);
+
+    private final FileCacheStorage localStorage;
+    private final CacheStorage remoteStorage;
+    private final CacheServiceMetrics metrics;
+    /**
+     * Max total size of the local tier, {@link Long#MAX_VALUE} if not bounded
+     */
+    private final long localMaxBytes;
+    /**
+     * Background uploader in write-back mode, null in write-through mode
+     */
+    @Nullable
+    private final AsyncCacheWriter writeBackWriter;
+
+    /**
+     * @param writeBackConfig upload config of the write-back mode, null for the write-through mode. The spill
+     *                        directory should be on the same file system as the local tier, so the uploaded files are
+     *                        hard linked (they may be evicted from the local tier before the upload).
+     * @param localMaxBytes   max total size of the local tier
+     */
+    public TieredCacheStorage(
+        FileCacheStorage localStorage,
+        CacheStorage remoteStorage,
+        CacheServiceMetrics metrics,
+        @Nullable AsyncWriteConfig writeBackConfig,
+        long localMaxBytes
+    ) {
+        this.localStorage = localStorage;
+        this.remoteStorage = remoteStorage;
+        this.metrics = metrics;
+        this.localMaxBytes = localMaxBytes;
+        this.writeBackWriter = writeBackConfig == null ? null
+            : new AsyncCacheWriter(new AsyncCacheWriter.Target() {
+                @Override
+                public boolean write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+                    return uploadNow(cacheEntryKey, fileName, () -> remoteStorage.write(cacheEntryKey, fileName,
+                        value));
+                }
+
+                @Override
+                public boolean writeFile(CacheEntryKey cacheEntryKey, String fileName, File source) {
+                    return uploadNow(cacheEntryKey, fileName, () -> remoteStorage.writeFile(cacheEntryKey, fileName,
+                        source.toPath()));
+                }
+            }, metrics, writeBackConfig, "surefire-cached-write-back-");
+    }
+
+    @Nullable
+    @Override
+    public byte[] read(CacheEntryKey cacheEntryKey, String fileName) {
+        byte[] value = localStorage.read(cacheEntryKey, fileName);
+        if (value != null) {
+            touchLocal(cacheEntryKey);
+            metrics.addLocalReadHit();
+            return value;
+        }
+        metrics.addLocalReadMiss();
+        if (isFilteredOut(cacheEntryKey)) {
+            return null;
+        }
+        value = remoteStorage.read(cacheEntryKey, fileName);
+        if (value == null) {
+            metrics.addRemoteReadMiss();
+            return null;
+        }
+        metrics.addRemoteReadHit();
+        try {
+            localStorage.write(cacheEntryKey, fileName, value);
+        } catch (CacheStorageException e) {
+            logger.warn("Failed to populate local cache {} {}: {}", cacheEntryKey, fileName, e.toString());
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) {
+        InputStream in = localStorage.readStream(cacheEntryKey, fileName);
+        if (in != null) {
+            touchLocal(cacheEntryKey);
+            metrics.addLocalReadHit();
+            return in;
+        }
+        metrics.addLocalReadMiss();
+        if (isFilteredOut(cacheEntryKey)) {
+            return null;
+        }
+        try (InputStream remoteIn = remoteStorage.readStream(cacheEntryKey, fileName)) {
+            if (remoteIn == null) {
+                metrics.addRemoteReadMiss();
+                return null;
+            }
+            metrics.addRemoteReadHit();
+            // the remote stream is copied to the local tier and then read from it
+            localStorage.writeStream(cacheEntryKey, fileName, remoteIn, -1L);
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + fileName, e);
+        }
+        return localStorage.readStream(cacheEntryKey, fileName);
+    }
+
+    @Override
+    public boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, Path target) {
+        if (localStorage.readToFile(cacheEntryKey, fileName, target)) {
+            touchLocal(cacheEntryKey);
+            metrics.addLocalReadHit();
+            return true;
+        }
+        metrics.addLocalReadMiss();
+        if (isFilteredOut(cacheEntryKey)) {
+            return false;
+        }
+        if (!remoteStorage.readToFile(cacheEntryKey, fileName, target)) {
+            metrics.addRemoteReadMiss();
+            return false;
+        }
+        metrics.addRemoteReadHit();
+        try {
+            localStorage.writeFile(cacheEntryKey, fileName, target);
+        } catch (CacheStorageException e) {
+            logger.warn("Failed to populate local cache {} {}: {}", cacheEntryKey, fileName, e.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Mark the local entry as recently used for the eviction (both by size and by the number of entries per module).
+     */
+    private void touchLocal(CacheEntryKey cacheEntryKey) {
+        //noinspection ResultOfMethodCallIgnored
+        localStorage.getEntryDirectory(cacheEntryKey).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * The key filter of the remote tier is checked after the local miss, the local tier may have entries which are
+     * not in the remote one (e.g. failed uploads).
+     */
+    private boolean isFilteredOut(CacheEntryKey cacheEntryKey) {
+        if (remoteStorage.mightContain(cacheEntryKey)) {
+            return false;
+        }
+        metrics.addFilterAvoidedRead();
+        return true;
+    }
+
+    @Override
+    public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        int deleted = localStorage.write(cacheEntryKey, fileName, value);
+        upload(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public int writeStream(CacheEntryKey cacheEntryKey, String fileName, InputStream in, long length) {
+        int deleted = localStorage.writeStream(cacheEntryKey, fileName, in, length);
+        upload(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source) {
+        int deleted = localStorage.writeFile(cacheEntryKey, fileName, source);
+        upload(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source, String contentHash) {
+        int deleted = localStorage.writeFile(cacheEntryKey, fileName, source, contentHash);
+        upload(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public boolean writeReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+        if (writeBackWriter != null) {
+            if (!localStorage.writeReference(cacheEntryKey, fileName, contentHash)) {
+                return false;
+            }
+            upload(cacheEntryKey, fileName);
+            return true;
+        }
+        if (!remoteStorage.writeReference(cacheEntryKey, fileName, contentHash)) {
+            return false;
+        }
+        // the local tier is populated on read otherwise
+        localStorage.writeReference(cacheEntryKey, fileName, contentHash);
+        return true;
+    }
+
+    private void upload(CacheEntryKey cacheEntryKey, String fileName) {
+        File localFile = getLocalFile(cacheEntryKey, fileName);
+        if (writeBackWriter == null) {
+            remoteStorage.writeFile(cacheEntryKey, fileName, localFile.toPath());
+        } else {
+            // the file is linked to the spill directory, so it's uploaded even if evicted from the local tier
+            writeBackWriter.submit(cacheEntryKey, fileName, localFile);
+        }
+    }
+
+    private boolean uploadNow(CacheEntryKey cacheEntryKey, String fileName, Runnable upload) {
+        try {
+            upload.run();
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to upload {} {}: {}", cacheEntryKey, fileName, e.toString());
+            metrics.addWriteBackFailure();
+            return false;
+        }
+    }
+
+    private File getLocalFile(CacheEntryKey cacheEntryKey, String fileName) {
+        return localStorage.getEntryFile(cacheEntryKey, fileName);
+    }
+
+    /**
+     * Wait for the pending uploads of the write-back mode, trim the local tier to the size budget, then close the
+     * remote tier.
+     */
+    @Override
+    public void close() {
+        if (writeBackWriter != null) {
+            writeBackWriter.close();
+        }
+        if (localMaxBytes != Long.MAX_VALUE) {
+            trimLocal();
+        }
+        if (remoteStorage instanceof Closeable) {
+            try {
+                ((Closeable) remoteStorage).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used local entries over the size budget. The size of the content shared by several
+     * entries (hard linked blobs) is counted for each of them.
+     */
+    private void trimLocal() {
+        List<LocalEntry> entries = new ArrayList<>();
+        long totalBytes = 0L;
+        for (CacheEntryKey cacheEntryKey : localStorage.getEntryKeys()) {
+            File entryDir = localStorage.getEntryDirectory(cacheEntryKey);
+            LocalEntry entry = new LocalEntry(cacheEntryKey, entryDir.lastModified(), getEntrySize(entryDir));
+            entries.add(entry);
+            totalBytes += entry.size;
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+        for (LocalEntry entry : entries) {
+            if (totalBytes <= localMaxBytes) {
+                break;
+            }
+            logger.debug("Deleting local cache entry {} over the size budget", entry.cacheEntryKey);
+            localStorage.deleteEntry(entry.cacheEntryKey);
+            totalBytes -= entry.size;
+        }
+    }
+
+    private static long getEntrySize(File entryDir) {
+        // hidden blob references and temp files are not counted
+        File[] files = entryDir.listFiles(file -> file.isFile() && !file.getName().startsWith("."));
+        long size = 0L;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static final class LocalEntry {
+
+        private final CacheEntryKey cacheEntryKey;
+        private final long lastModified;
+        private final long size;
+
+        private LocalEntry(CacheEntryKey cacheEntryKey, long lastModified, long size) {
+            this.cacheEntryKey = cacheEntryKey;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
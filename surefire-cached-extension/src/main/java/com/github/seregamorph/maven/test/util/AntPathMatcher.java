@@ -17,6 +17,8 @@ package com.github.seregamorph.maven.test.util;
  *   <li>"com/** /test.java" - matches "com/test.java", "com/dir/test.java", "com/dir/subdir/test.java", etc.</li>
  *   <li>"** /test.java" - matches any file named "test.java" in any directory</li>
  * </ul>
+ * <p>
+ * See {@link AntPathPatterns} for the same matching of compiled patterns.
  *
  * @author Sergey Chernov
  */
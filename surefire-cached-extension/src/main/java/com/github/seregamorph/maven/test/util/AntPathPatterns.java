@@ -0,0 +1,322 @@
+package com.github.seregamorph.maven.test.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable list of Ant-style path patterns compiled once for repeated matching, e.g. "excludeClasspathResources"
+ * which are checked for each classpath resource.
+ * <p>
+ * The matching rules are the same as of {@link AntPathMatcher}, but patterns are split to segments on compilation,
+ * the path is matched in place by segment index ranges, so there is no allocation per match. Each pattern has a
+ * literal prefix (up to the first wildcard) which is checked first to reject most of the paths quickly.
+ *
+ * @author Sergey Chernov
+ */
+public final class AntPathPatterns {
+
+    private static final char WILDCARD_SINGLE = '?';
+    private static final char WILDCARD_MULTIPLE = '*';
+    private static final String DOUBLE_WILDCARD = "**";
+
+    /**
+     * Path or pattern rest of a single empty segment, see {@link #doMatch(String[], int, String, int, int)}
+     */
+    private static final String[] EMPTY_SEGMENT = {""};
+    private static final int EXHAUSTED = -1;
+    private static final int EMPTY_SEGMENT_POS = -2;
+
+    private final List<String> patterns;
+    private final char pathSeparator;
+    private final CompiledPattern[] compiledPatterns;
+
+    private AntPathPatterns(List<String> patterns, char pathSeparator) {
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+        this.pathSeparator = pathSeparator;
+        this.compiledPatterns = new CompiledPattern[patterns.size()];
+        for (int i = 0; i < compiledPatterns.length; i++) {
+            compiledPatterns[i] = compilePattern(patterns.get(i));
+        }
+    }
+
+    /**
+     * Compile patterns with default file separator "/"
+     */
+    public static AntPathPatterns compile(List<String> patterns) {
+        return compile(patterns, '/');
+    }
+
+    public static AntPathPatterns compile(List<String> patterns, char pathSeparator) {
+        return new AntPathPatterns(patterns, pathSeparator);
+    }
+
+    public List<String> patterns() {
+        return patterns;
+    }
+
+    public boolean isEmpty() {
+        return compiledPatterns.length == 0;
+    }
+
+    /**
+     * @param path the path to match
+     * @return true if the path matches any of the patterns
+     */
+    public boolean matchesAny(String path) {
+        if (compiledPatterns.length == 0) {
+            return false;
+        }
+        // same instance if there are no backslashes
+        String normalizedPath = path.replace('\\', '/');
+        int pathEnd = normalizedPath.length();
+        while (pathEnd > 0 && normalizedPath.charAt(pathEnd - 1) == pathSeparator) {
+            // trailing empty segments are ignored like by String.split
+            pathEnd--;
+        }
+        int pathPos = normalizedPath.isEmpty() ? EMPTY_SEGMENT_POS : pathEnd == 0 ? EXHAUSTED : 0;
+        for (CompiledPattern compiledPattern : compiledPatterns) {
+            if (normalizedPath.startsWith(compiledPattern.literalPrefix)
+                && doMatch(compiledPattern.segments, 0, normalizedPath, pathEnd, pathPos)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompiledPattern compilePattern(String pattern) {
+        String[] segments = split(pattern.replace('\\', '/'));
+        StringBuilder literalPrefix = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            int wildcardIdx = indexOfWildcard(segment);
+            if (wildcardIdx == -1) {
+                if (i > 0) {
+                    literalPrefix.append(pathSeparator);
+                }
+                literalPrefix.append(segment);
+            } else {
+                if (wildcardIdx > 0) {
+                    // such segment cannot match a missing one
+                    if (i > 0) {
+                        literalPrefix.append(pathSeparator);
+                    }
+                    literalPrefix.append(segment, 0, wildcardIdx);
+                }
+                break;
+            }
+        }
+        return new CompiledPattern(segments, literalPrefix.toString());
+    }
+
+    /**
+     * Same as {@link String#split(String)}: leading empty segments are kept, trailing are removed.
+     */
+    private String[] split(String str) {
+        if (str.isEmpty()) {
+            return EMPTY_SEGMENT;
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int idx;
+        while ((idx = str.indexOf(pathSeparator, start)) != -1) {
+            segments.add(str.substring(start, idx));
+            start = idx + 1;
+        }
+        segments.add(str.substring(start));
+        int size = segments.size();
+        while (size > 0 && segments.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return segments.subList(0, size).toArray(new String[0]);
+    }
+
+    private static int indexOfWildcard(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char ch = segment.charAt(i);
+            if (ch == WILDCARD_SINGLE || ch == WILDCARD_MULTIPLE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Match path segments starting from pathPos against pattern segments starting from patternIdx. The path
+     * segment is addressed by the index of its first char, {@link #EXHAUSTED} if there are no segments left and
+     * {@link #EMPTY_SEGMENT_POS} for a single empty segment.
+     * <p>
+     * Note: {@link AntPathMatcher} matches the rest after "**" as a joined and split again string, so the empty rest
+     * of the path (or the pattern) is a single empty segment, that is repeated here for compatibility.
+     */
+    private boolean doMatch(String[] patternSegments, int patternIdx, String path, int pathEnd, int pathPos) {
+        while (patternIdx < patternSegments.length && pathPos != EXHAUSTED) {
+            String patternSegment = patternSegments[patternIdx];
+
+            if (DOUBLE_WILDCARD.equals(patternSegment)) {
+                // If this is the last pattern segment, it matches all remaining path segments
+                if (patternIdx == patternSegments.length - 1) {
+                    return true;
+                }
+
+                String nextPatternSegment = patternSegments[patternIdx + 1];
+                String[] restPatternSegments = patternIdx + 2 < patternSegments.length
+                    ? patternSegments : EMPTY_SEGMENT;
+                int restPatternIdx = patternIdx + 2 < patternSegments.length ? patternIdx + 2 : 0;
+                // Try to match the next pattern segment with each remaining path segment
+                for (int pos = pathPos; pos != EXHAUSTED; pos = nextSegment(path, pathEnd, pos)) {
+                    if (matchSegment(nextPatternSegment, 0, path, segmentStart(pos),
+                        segmentEnd(path, pathEnd, pos))) {
+                        int nextPos = nextSegment(path, pathEnd, pos);
+                        if (doMatch(restPatternSegments, restPatternIdx, path, pathEnd,
+                            nextPos == EXHAUSTED ? EMPTY_SEGMENT_POS : nextPos)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            } else if (!matchSegment(patternSegment, 0, path, segmentStart(pathPos),
+                segmentEnd(path, pathEnd, pathPos))) {
+                return false;
+            }
+
+            patternIdx++;
+            pathPos = nextSegment(path, pathEnd, pathPos);
+        }
+
+        if (pathPos != EXHAUSTED) {
+            return false;
+        }
+        // the rest of pattern segments (if any) should be all "**"
+        for (int i = patternIdx; i < patternSegments.length; i++) {
+            if (!DOUBLE_WILDCARD.equals(patternSegments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int segmentStart(int pos) {
+        return pos == EMPTY_SEGMENT_POS ? 0 : pos;
+    }
+
+    private int segmentEnd(String path, int pathEnd, int pos) {
+        if (pos == EMPTY_SEGMENT_POS) {
+            return 0;
+        }
+        int idx = path.indexOf(pathSeparator, pos);
+        return idx == -1 || idx >= pathEnd ? pathEnd : idx;
+    }
+
+    private int nextSegment(String path, int pathEnd, int pos) {
+        if (pos == EMPTY_SEGMENT_POS) {
+            return EXHAUSTED;
+        }
+        int end = segmentEnd(path, pathEnd, pos);
+        return end < pathEnd ? end + 1 : EXHAUSTED;
+    }
+
+    /**
+     * Matches a path segment (region of the path) against the rest of the pattern segment starting from patternFrom.
+     * Same as AntPathMatcher.matchSegment.
+     */
+    private static boolean matchSegment(
+        String pattern,
+        int patternFrom,
+        String path,
+        int segmentFrom,
+        int segmentTo
+    ) {
+        int patternLength = pattern.length() - patternFrom;
+        int segmentLength = segmentTo - segmentFrom;
+        // Fast path for exact match
+        if (patternLength == segmentLength && pattern.regionMatches(patternFrom, path, segmentFrom, segmentLength)) {
+            return true;
+        }
+
+        // Special case for "*Test.java" pattern - it should not match "Test.java"
+        if (patternLength > 1 && pattern.charAt(patternFrom) == WILDCARD_MULTIPLE
+            && pattern.charAt(patternFrom + 1) != WILDCARD_MULTIPLE
+            && patternLength - 1 == segmentLength
+            && pattern.regionMatches(patternFrom + 1, path, segmentFrom, segmentLength)) {
+            return false;
+        }
+
+        int patternIdx = patternFrom;
+        int segmentIdx = segmentFrom;
+        while (patternIdx < pattern.length() && segmentIdx < segmentTo) {
+            char patternChar = pattern.charAt(patternIdx);
+
+            if (patternChar == WILDCARD_SINGLE) {
+                patternIdx++;
+                segmentIdx++;
+            } else if (patternChar == WILDCARD_MULTIPLE) {
+                if (patternIdx == pattern.length() - 1) {
+                    return true;
+                }
+
+                char nextPatternChar = pattern.charAt(patternIdx + 1);
+                for (int i = segmentIdx; i <= segmentTo; i++) {
+                    if (i == segmentTo || path.charAt(i) == nextPatternChar
+                        || nextPatternChar == WILDCARD_SINGLE || nextPatternChar == WILDCARD_MULTIPLE) {
+                        if (matchSegment(pattern, patternIdx + 1, path, i, segmentTo)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            } else {
+                if (patternChar != path.charAt(segmentIdx)) {
+                    return false;
+                }
+                patternIdx++;
+                segmentIdx++;
+            }
+        }
+
+        if (segmentIdx != segmentTo) {
+            return false;
+        }
+        // the rest of the pattern (if any) should be all '*'
+        for (int i = patternIdx; i < pattern.length(); i++) {
+            if (pattern.charAt(i) != WILDCARD_MULTIPLE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        AntPathPatterns that = (AntPathPatterns) obj;
+        return this.pathSeparator == that.pathSeparator
+            && this.patterns.equals(that.patterns);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * patterns.hashCode() + pathSeparator;
+    }
+
+    @Override
+    public String toString() {
+        return patterns.toString();
+    }
+
+    private static final class CompiledPattern {
+
+        private final String[] segments;
+        private final String literalPrefix;
+
+        private CompiledPattern(String[] segments, String literalPrefix) {
+            this.segments = segments;
+            this.literalPrefix = literalPrefix;
+        }
+    }
+}
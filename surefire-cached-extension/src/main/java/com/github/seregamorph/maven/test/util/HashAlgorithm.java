@@ -0,0 +1,113 @@
+package com.github.seregamorph.maven.test.util;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash function of the cache input files and the cache entry key. The id of the algorithm is a part of
+ * {@link com.github.seregamorph.maven.test.core.TestTaskInput}, so the cache entries of different algorithms never
+ * collide.
+ *
+ * @author Sergey Chernov
+ */
+public enum HashAlgorithm {
+
+    /**
+     * Default cryptographic hash (only first 128 bits are used)
+     */
+    SHA1("sha1") {
+        @Override
+        Hasher newHasher() {
+            try {
+                return new MessageDigestHasher(MessageDigest.getInstance("SHA-1"));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    },
+    /**
+     * Fast non-cryptographic 128-bit hash, see {@link Murmur3Hasher}
+     */
+    MURMUR3_128("murmur3-128") {
+        @Override
+        Hasher newHasher() {
+            return new Murmur3Hasher();
+        }
+    };
+
+    private final String id;
+    private final ThreadLocal<Hasher> hasher = ThreadLocal.withInitial(this::newHasher);
+
+    HashAlgorithm(String id) {
+        this.id = id;
+    }
+
+    @JsonValue
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return hasher of the current thread (it's reset after each digest)
+     */
+    Hasher hasher() {
+        return hasher.get();
+    }
+
+    abstract Hasher newHasher();
+
+    @JsonCreator
+    public static HashAlgorithm of(String id) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.id.equals(id)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm: " + id);
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    interface Hasher {
+
+        void reset();
+
+        void update(byte[] input, int offset, int len);
+
+        /**
+         * Complete the hash calculation and reset the hasher
+         *
+         * @return 32 hex chars
+         */
+        String digestHex();
+    }
+
+    private static final class MessageDigestHasher implements Hasher {
+
+        private final MessageDigest messageDigest;
+
+        private MessageDigestHasher(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public void reset() {
+            messageDigest.reset();
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int len) {
+            messageDigest.update(input, offset, len);
+        }
+
+        @Override
+        public String digestHex() {
+            return HashUtils.formatDigest(messageDigest.digest());
+        }
+    }
+}
@@ -5,17 +5,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.math.BigInteger;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import org.jetbrains.annotations.Contract;
 
@@ -29,9 +34,29 @@ public final class HashUtils {
      */
     public static final String HASH_EMPTY_FILE_COLLECTION = "00000000000000000000000000000000";
 
+    /**
+     * Max number of files hashed sequentially by a single fork/join task.
+     */
+    private static final int FILE_BATCH_SIZE = 32;
+
+    /**
+     * Read buffers are reused per thread (as well as hashers), as a directory walk hashes thousands of files.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     @Contract(pure = true)
     public static String hashArray(byte[] array) {
-        return formatDigest(getMessageDigest().digest(array));
+        return hashArray(HashAlgorithm.SHA1, array);
+    }
+
+    @Contract(pure = true)
+    public static String hashArray(HashAlgorithm hashAlgorithm, byte[] array) {
+        HashAlgorithm.Hasher hasher = hashAlgorithm.hasher();
+        hasher.reset();
+        hasher.update(array, 0, array.length);
+        return hasher.digestHex();
     }
 
     /**
@@ -41,15 +66,129 @@ public final class HashUtils {
      * @return zip entry hash sums
      */
     @Contract(pure = true)
-    public static SortedMap<String, String> hashZipFile(File file, List<String> excludePathPatterns) {
+    public static SortedMap<String, String> hashZipFile(File file, AntPathPatterns excludePatterns) {
+        return hashZipFile(file, excludePatterns, HashAlgorithm.SHA1);
+    }
+
+    /**
+     * Calculate hash sums of entries from the ZIP archive. The entries are listed from the central directory with
+     * random access, so the excluded ones are not decompressed. If the central directory cannot be read, the archive
+     * is scanned as a stream.
+     * <p>
+     * The result is the same as of {@link #hashDirectory(File, AntPathPatterns, HashAlgorithm)} for the unpacked
+     * archive.
+     *
+     * @param file zip file
+     * @return zip entry hash sums
+     */
+    @Contract(pure = true)
+    public static SortedMap<String, String> hashZipFile(
+        File file,
+        AntPathPatterns excludePatterns,
+        HashAlgorithm hashAlgorithm
+    ) {
+        SortedMap<String, String> map = new TreeMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                if (!zipEntry.isDirectory()) {
+                    String entryName = zipEntry.getName();
+                    if (include(excludePatterns, entryName)) {
+                        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                            map.put(entryName, hashStream(hashAlgorithm, in));
+                        }
+                    }
+                }
+            }
+        } catch (ZipException e) {
+            // e.g. broken central directory which is still readable as a stream
+            return hashZipStream(file, excludePatterns, hashAlgorithm);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to unzip " + file, e);
+        }
+        return map;
+    }
+
+    private static SortedMap<String, String> hashZipStream(
+        File file,
+        AntPathPatterns excludePatterns,
+        HashAlgorithm hashAlgorithm
+    ) {
+        SortedMap<String, String> map = new TreeMap<>();
+        try (ZipInputStream zipStream = new ZipInputStream(new FileInputStream(file))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipStream.getNextEntry()) != null) {
+                if (!zipEntry.isDirectory()) {
+                    String entryName = zipEntry.getName();
+                    if (include(excludePatterns, entryName)) {
+                        map.put(entryName, hashStream(hashAlgorithm, zipStream));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to unzip " + file, e);
+        }
+        return map;
+    }
+
+    /**
+     * Calculate fingerprints of entries from the ZIP archive. Unlike {@link #hashZipFile(File, AntPathPatterns)}, the
+     * compressed entries are not decompressed: the central directory is read with random access and the fingerprint
+     * of each entry is made of CRC-32 and size of uncompressed content stored there. The content is read to calculate
+     * them only for the STORED entries (no decompression, their stored CRC-32 may not be verified by the writer) and
+     * the entries with unknown CRC-32 or size, or if the central directory cannot be read.
+     * <p>
+     * CRC-32 is weaker than a cryptographic hash against deliberate collisions, but the size is a part of the
+     * fingerprint and the input is the build's own classpath, so only accidental collisions are a concern.
+     * <p>
+     * The result is the same as of {@link #fingerprintDirectory(File, AntPathPatterns)} for the unpacked archive.
+     *
+     * @param file zip file
+     * @return zip entry fingerprints
+     */
+    @Contract(pure = true)
+    public static SortedMap<String, String> fingerprintZipFile(File file, AntPathPatterns excludePatterns) {
+        SortedMap<String, String> map = new TreeMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                if (!zipEntry.isDirectory()) {
+                    String entryName = zipEntry.getName();
+                    if (include(excludePatterns, entryName)) {
+                        if (isFingerprintStored(zipEntry)) {
+                            map.put(entryName, formatFingerprint(zipEntry.getCrc(), zipEntry.getSize()));
+                        } else {
+                            try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                                map.put(entryName, fingerprintStream(in));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (ZipException e) {
+            // e.g. broken central directory which is still readable as a stream
+            return fingerprintZipStream(file, excludePatterns);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to unzip " + file, e);
+        }
+        return map;
+    }
+
+    private static boolean isFingerprintStored(ZipEntry zipEntry) {
+        return zipEntry.getMethod() == ZipEntry.DEFLATED && zipEntry.getCrc() != -1 && zipEntry.getSize() != -1;
+    }
+
+    private static SortedMap<String, String> fingerprintZipStream(File file, AntPathPatterns excludePatterns) {
         SortedMap<String, String> map = new TreeMap<>();
         try (ZipInputStream zipStream = new ZipInputStream(new FileInputStream(file))) {
             ZipEntry zipEntry;
             while ((zipEntry = zipStream.getNextEntry()) != null) {
                 if (!zipEntry.isDirectory()) {
                     String entryName = zipEntry.getName();
-                    if (include(excludePathPatterns, entryName)) {
-                        map.put(entryName, hashStream(zipStream));
+                    if (include(excludePatterns, entryName)) {
+                        map.put(entryName, fingerprintStream(zipStream));
                     }
                 }
             }
@@ -59,84 +198,239 @@ public final class HashUtils {
         return map;
     }
 
-    private static String hashStream(InputStream in) throws IOException {
-        MessageDigest digest = getMessageDigest();
+    private static String fingerprintStream(InputStream in) throws IOException {
+        CRC32 crc32 = new CRC32();
+        long size = 0L;
+        int len;
+        byte[] buffer = BUFFER.get();
+        while ((len = in.read(buffer)) != -1) {
+            crc32.update(buffer, 0, len);
+            size += len;
+        }
+        return formatFingerprint(crc32.getValue(), size);
+    }
+
+    /**
+     * Format CRC-32 and size as 32 hex chars, so fingerprints look like other hash sums
+     */
+    private static String formatFingerprint(long crc32, long size) {
+        return formatHex(crc32, size);
+    }
+
+    private static String hashStream(HashAlgorithm hashAlgorithm, InputStream in) throws IOException {
+        HashAlgorithm.Hasher hasher = hashAlgorithm.hasher();
+        hasher.reset();
         int len;
-        byte[] buffer = new byte[8192];
+        byte[] buffer = BUFFER.get();
         while ((len = in.read(buffer)) != -1) {
-            digest.update(buffer, 0, len);
+            hasher.update(buffer, 0, len);
+        }
+        return hasher.digestHex();
+    }
+
+    /**
+     * Format the digest as 32 hex chars. For compatibility with previously calculated hashes the result is the same
+     * as of {@code String.format("%032x", new BigInteger(1, digest)).substring(0, 32)}: leading zero digits
+     * (but not more than the digest exceeds 32 digits) are skipped.
+     */
+    static String formatDigest(byte[] digest) {
+        int nibbles = digest.length * 2;
+        int leadingZeros = 0;
+        while (leadingZeros < nibbles && nibble(digest, leadingZeros) == 0) {
+            leadingZeros++;
+        }
+        int from = Math.max(0, Math.min(leadingZeros, nibbles - 32));
+        char[] chars = new char[32];
+        for (int i = 0; i < 32; i++) {
+            int index = from + i - Math.max(0, 32 - nibbles);
+            chars[i] = index < 0 ? '0' : HEX_DIGITS[nibble(digest, index)];
         }
-        return formatDigest(digest.digest());
+        return new String(chars);
     }
 
-    private static String formatDigest(byte[] digest) {
-        String fullHash = String.format("%032X", new BigInteger(1, digest)).toLowerCase();
-        return fullHash.substring(0, 32);
+    private static int nibble(byte[] digest, int index) {
+        int b = digest[index >> 1];
+        return (index & 1) == 0 ? (b >> 4) & 0xf : b & 0xf;
     }
 
-    private static MessageDigest getMessageDigest() {
-        try {
-            return MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException(e);
+    /**
+     * Format two longs as 32 hex chars (big-endian)
+     */
+    static String formatHex(long high, long low) {
+        char[] chars = new char[32];
+        for (int i = 0; i < 16; i++) {
+            chars[15 - i] = HEX_DIGITS[(int) (high >>> (i * 4)) & 0xf];
+            chars[31 - i] = HEX_DIGITS[(int) (low >>> (i * 4)) & 0xf];
         }
+        return new String(chars);
     }
 
     /**
-     * Calculate hash sums of files from the directory
+     * Calculate hash sums of files from the directory. The directory tree is walked by a work-stealing fork/join
+     * pool, files are hashed concurrently. The result is the same as of a sequential walk.
      *
      * @param dir
-     * @param excludePathPatterns
+     * @param excludePatterns
      * @return directory entry (relative path) hash sums
      */
     @Contract(pure = true)
-    public static SortedMap<String, String> hashDirectory(File dir, List<String> excludePathPatterns) {
-        SortedMap<String, String> map = new TreeMap<String, String>();
-        hashDirectory(map, dir.toPath(), dir.toPath(), excludePathPatterns);
-        return map;
+    public static SortedMap<String, String> hashDirectory(File dir, AntPathPatterns excludePatterns) {
+        return hashDirectory(dir, excludePatterns, HashAlgorithm.SHA1);
     }
 
-    private static void hashDirectory(
-        Map<String, String> map,
-        Path baseDir,
-        Path dir,
-        List<String> excludePathPatterns
+    @Contract(pure = true)
+    public static SortedMap<String, String> hashDirectory(
+        File dir,
+        AntPathPatterns excludePatterns,
+        HashAlgorithm hashAlgorithm
     ) {
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
-            for (Path path : directoryStream) {
-                if (Files.isDirectory(path)) {
-                    hashDirectory(map, baseDir, path, excludePathPatterns);
-                } else {
-                    String relativePath = baseDir.relativize(path).toString();
-                    if (include(excludePathPatterns, relativePath)) {
-                        map.put(relativePath, hashFile(path.toFile()));
+        return walkDirectory(dir, excludePatterns, (file, relativePath) -> hashFile(hashAlgorithm, file));
+    }
+
+    /**
+     * Calculate fingerprints (CRC-32 and size) of files from the directory. The result is the same as of
+     * {@link #fingerprintZipFile(File, AntPathPatterns)} for the archive of this directory.
+     *
+     * @param dir
+     * @param excludePatterns
+     * @return directory entry (relative path) fingerprints
+     */
+    @Contract(pure = true)
+    public static SortedMap<String, String> fingerprintDirectory(File dir, AntPathPatterns excludePatterns) {
+        return walkDirectory(dir, excludePatterns, (file, relativePath) -> fingerprintFile(file));
+    }
+
+    /**
+     * Walk the directory tree with the fork/join pool and hash included files with the given hasher.
+     *
+     * @param dir
+     * @param excludePatterns
+     * @param fileHasher      called concurrently
+     * @return directory entry (relative path) hash sums
+     */
+    public static SortedMap<String, String> walkDirectory(
+        File dir,
+        AntPathPatterns excludePatterns,
+        FileHasher fileHasher
+    ) {
+        Map<String, String> map = new ConcurrentHashMap<>();
+        Path baseDir = dir.toPath();
+        PoolHolder.POOL.invoke(new HashDirectoryTask(map, baseDir, baseDir, excludePatterns, fileHasher));
+        return new TreeMap<>(map);
+    }
+
+    @FunctionalInterface
+    public interface FileHasher {
+
+        String hash(Path file, String relativePath) throws IOException;
+    }
+
+    private static final class PoolHolder {
+
+        /**
+         * Separate pool (not the common one) to hash with all available cores independently of the caller
+         */
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class HashDirectoryTask extends RecursiveAction {
+
+        private final Map<String, String> map;
+        private final Path baseDir;
+        private final Path dir;
+        private final AntPathPatterns excludePatterns;
+        private final FileHasher fileHasher;
+
+        private HashDirectoryTask(
+            Map<String, String> map,
+            Path baseDir,
+            Path dir,
+            AntPathPatterns excludePatterns,
+            FileHasher fileHasher
+        ) {
+            this.map = map;
+            this.baseDir = baseDir;
+            this.dir = dir;
+            this.excludePatterns = excludePatterns;
+            this.fileHasher = fileHasher;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+                for (Path path : directoryStream) {
+                    if (Files.isDirectory(path)) {
+                        subtasks.add(new HashDirectoryTask(map, baseDir, path, excludePatterns, fileHasher));
+                    } else {
+                        files.add(path);
+                        if (files.size() == FILE_BATCH_SIZE) {
+                            subtasks.add(new HashFilesTask(map, baseDir, files, excludePatterns, fileHasher));
+                            files = new ArrayList<>();
+                        }
                     }
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            if (!files.isEmpty()) {
+                subtasks.add(new HashFilesTask(map, baseDir, files, excludePatterns, fileHasher));
+            }
+            invokeAll(subtasks);
         }
     }
 
-    private static boolean include(List<String> excludePathPatterns, String relativePath) {
-        if (excludePathPatterns.isEmpty()) {
-            return true;
+    private static final class HashFilesTask extends RecursiveAction {
+
+        private final Map<String, String> map;
+        private final Path baseDir;
+        private final List<Path> files;
+        private final AntPathPatterns excludePatterns;
+        private final FileHasher fileHasher;
+
+        private HashFilesTask(
+            Map<String, String> map,
+            Path baseDir,
+            List<Path> files,
+            AntPathPatterns excludePatterns,
+            FileHasher fileHasher
+        ) {
+            this.map = map;
+            this.baseDir = baseDir;
+            this.files = files;
+            this.excludePatterns = excludePatterns;
+            this.fileHasher = fileHasher;
         }
-        AntPathMatcher antPathMatcher = new AntPathMatcher();
-        for (String excludePathPattern : excludePathPatterns) {
-            if (antPathMatcher.match(excludePathPattern, relativePath)) {
-                return false;
+
+        @Override
+        protected void compute() {
+            for (Path path : files) {
+                String relativePath = baseDir.relativize(path).toString();
+                if (include(excludePatterns, relativePath)) {
+                    try {
+                        map.put(relativePath, fileHasher.hash(path, relativePath));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
             }
         }
-        return true;
     }
 
-    @Contract(pure = true)
-    private static String hashFile(File file) {
-        try (FileInputStream in = new FileInputStream(file)) {
-            return hashStream(in);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+    private static boolean include(AntPathPatterns excludePatterns, String relativePath) {
+        return !excludePatterns.matchesAny(relativePath);
+    }
+
+    public static String hashFile(HashAlgorithm hashAlgorithm, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return hashStream(hashAlgorithm, in);
+        }
+    }
+
+    public static String fingerprintFile(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return fingerprintStream(in);
         }
     }
 
@@ -0,0 +1,136 @@
+package com.github.seregamorph.maven.test.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import javax.annotation.Nullable;
+
+/**
+ * Streams a canonical binary encoding of values directly into the hash function (without building the intermediate
+ * text). Each value is prefixed with a type tag and its length, so different sequences of values never have the same
+ * encoding. Sorted maps are hashed separately and only their digest is added (Merkle-style), so the big maps of class
+ * hashes are never materialized.
+ *
+ * @author Sergey Chernov
+ */
+public final class KeyHasher {
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LIST = 3;
+    private static final byte TAG_MAP = 4;
+
+    private final HashAlgorithm hashAlgorithm;
+    private final HashAlgorithm.Hasher hasher;
+    /**
+     * Encoding buffer, flushed to the hasher when full
+     */
+    private final byte[] buffer = new byte[4096];
+    private int position;
+
+    public KeyHasher(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+        this.hasher = hashAlgorithm.newHasher();
+    }
+
+    public KeyHasher putString(@Nullable String value) {
+        if (value == null) {
+            return putTag(TAG_NULL);
+        }
+        putTag(TAG_STRING);
+        writeInt(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            writeChar(value.charAt(i));
+        }
+        return this;
+    }
+
+    public KeyHasher putInt(int value) {
+        putTag(TAG_INT);
+        writeInt(value);
+        return this;
+    }
+
+    public KeyHasher putStrings(@Nullable Collection<String> values) {
+        if (values == null) {
+            return putTag(TAG_NULL);
+        }
+        putTag(TAG_LIST);
+        writeInt(values.size());
+        for (String value : values) {
+            putString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Add digest of the map entries (hashed by a separate hasher) and its size.
+     */
+    public KeyHasher putMap(@Nullable SortedMap<String, String> map) {
+        if (map == null) {
+            return putTag(TAG_NULL);
+        }
+        KeyHasher mapHasher = new KeyHasher(hashAlgorithm);
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            mapHasher.putString(entry.getKey());
+            mapHasher.putString(entry.getValue());
+        }
+        putTag(TAG_MAP);
+        writeInt(map.size());
+        return putString(mapHasher.digestHex());
+    }
+
+    /**
+     * Complete the hash calculation, the instance should not be used after it.
+     *
+     * @return 32 hex chars
+     */
+    public String digestHex() {
+        flush();
+        return hasher.digestHex();
+    }
+
+    private KeyHasher putTag(byte tag) {
+        ensureCapacity(1);
+        buffer[position++] = tag;
+        return this;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * UTF-16 code units are encoded as in modified UTF-8 (surrogates are encoded separately), which is stable and
+     * does not need a lookahead.
+     */
+    private void writeChar(char c) {
+        ensureCapacity(3);
+        if (c != 0 && c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            buffer[position++] = (byte) (0xe0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        hasher.update(buffer, 0, position);
+        position = 0;
+    }
+}
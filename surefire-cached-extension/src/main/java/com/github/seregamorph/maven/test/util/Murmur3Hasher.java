@@ -0,0 +1,138 @@
+package com.github.seregamorph.maven.test.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming implementation of MurmurHash3 x64 128-bit (seed 0), the output is compatible with the reference
+ * implementation (h1 and h2 as little-endian bytes). It processes 16-byte blocks with multiplications and rotations
+ * only and is about twice as fast as SHA-1 on class-file-sized inputs.
+ *
+ * @author Sergey Chernov
+ */
+final class Murmur3Hasher implements HashAlgorithm.Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final byte[] tail = new byte[16];
+    private int tailLength;
+    private long h1;
+    private long h2;
+    private long length;
+
+    @Override
+    public void reset() {
+        tailLength = 0;
+        h1 = 0L;
+        h2 = 0L;
+        length = 0L;
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int len) {
+        length += len;
+        int end = offset + len;
+        if (tailLength > 0) {
+            int fill = Math.min(16 - tailLength, len);
+            System.arraycopy(input, offset, tail, tailLength, fill);
+            tailLength += fill;
+            offset += fill;
+            if (tailLength < 16) {
+                return;
+            }
+            processBlock(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+        if (end - offset >= 16) {
+            // heap buffer reads of longs are intrinsified, unlike assembling them byte by byte
+            ByteBuffer buffer = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+            while (end - offset >= 16) {
+                processBlock(buffer.getLong(offset), buffer.getLong(offset + 8));
+                offset += 16;
+            }
+        }
+        if (offset < end) {
+            tailLength = end - offset;
+            System.arraycopy(input, offset, tail, 0, tailLength);
+        }
+    }
+
+    @Override
+    public String digestHex() {
+        long k1 = 0L;
+        long k2 = 0L;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (tail[i] & 0xffL);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (tail[i] & 0xffL);
+        }
+        if (tailLength > 8) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (tailLength > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        // the reference implementation outputs h1 and h2 as little-endian bytes
+        String hex = HashUtils.formatHex(Long.reverseBytes(h1), Long.reverseBytes(h2));
+        reset();
+        return hex;
+    }
+
+    private void processBlock(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        return (b[offset] & 0xffL)
+            | (b[offset + 1] & 0xffL) << 8
+            | (b[offset + 2] & 0xffL) << 16
+            | (b[offset + 3] & 0xffL) << 24
+            | (b[offset + 4] & 0xffL) << 32
+            | (b[offset + 5] & 0xffL) << 40
+            | (b[offset + 6] & 0xffL) << 48
+            | (b[offset + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -12,6 +12,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -19,6 +20,7 @@ import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 
 /**
  * @author Sergey Chernov
@@ -52,14 +54,21 @@ public final class ZipUtils {
     }
 
     /**
-     * Pack directory filtered included files to TAR.GZ
+     * Fixed modification time of packed entries (1980-01-01), the files are restored with the current time anyway
+     */
+    private static final long PACK_MOD_TIME_MILLIS = 315532800000L;
+
+    /**
+     * Pack directory filtered included files to TAR.GZ. The archive is reproducible: entries are sorted and have
+     * fixed modification time, so identical files are packed to identical archives (and stored once by
+     * content-addressable storages).
      *
      * @param directory
      * @param includes
      * @param packFile  target tar.gz file
      * @return packed files info
      */
-    public static List<PackedFile> packDirectory(File directory, List<String> includes, File packFile) {
+    public static List<PackedFile> packDirectory(File directory, AntPathPatterns includes, File packFile) {
         List<PackedFile> packedFiles = new ArrayList<>();
         try (OutputStream fos = new FileOutputStream(packFile);
              BufferedOutputStream bos = new BufferedOutputStream(fos);
@@ -73,7 +82,10 @@ public final class ZipUtils {
             for (String fileName : matchingFileNames) {
                 File file = new File(directory, fileName);
                 if (file.isFile()) {
-                    TarArchiveEntry entry = new TarArchiveEntry(file, fileName);
+                    // only name, size and content are stored, so the same files produce the same archive
+                    TarArchiveEntry entry = new TarArchiveEntry(fileName);
+                    entry.setSize(file.length());
+                    entry.setModTime(PACK_MOD_TIME_MILLIS);
                     taos.putArchiveEntry(entry);
 
                     try (InputStream fis = new FileInputStream(file)) {
@@ -90,8 +102,18 @@ public final class ZipUtils {
     }
 
     public static void unpackDirectory(File packFile, File targetDirectory) {
-        try (InputStream fis = new FileInputStream(packFile);
-             BufferedInputStream bis = new BufferedInputStream(fis);
+        try (InputStream fis = new FileInputStream(packFile)) {
+            unpackDirectory(fis, targetDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Unpack TAR.GZ content from the stream (it's not closed)
+     */
+    public static void unpackDirectory(InputStream in, File targetDirectory) {
+        try (BufferedInputStream bis = new BufferedInputStream(CloseShieldInputStream.wrap(in));
              GzipCompressorInputStream gzis = new GzipCompressorInputStream(bis);
              TarArchiveInputStream tais = new TarArchiveInputStream(gzis)
         ) {
@@ -126,8 +148,7 @@ public final class ZipUtils {
      * @param includes  the Ant-style patterns to match against
      * @return a list of matching file names
      */
-    private static List<String> findMatchingFileNames(File directory, List<String> includes) throws IOException {
-        AntPathMatcher matcher = new AntPathMatcher();
+    private static List<String> findMatchingFileNames(File directory, AntPathPatterns includes) throws IOException {
         List<String> matchingFileNames = new ArrayList<>();
 
         // Get the base path for creating relative paths
@@ -141,14 +162,12 @@ public final class ZipUtils {
                 String relativePath = basePath.relativize(path).toString();
 
                 // Check if the file matches any of the patterns
-                for (String pattern : includes) {
-                    if (matcher.match(pattern, relativePath)) {
-                        matchingFileNames.add(relativePath);
-                        break;
-                    }
+                if (includes.matchesAny(relativePath)) {
+                    matchingFileNames.add(relativePath);
                 }
             });
 
+        Collections.sort(matchingFileNames);
         return matchingFileNames;
     }
 
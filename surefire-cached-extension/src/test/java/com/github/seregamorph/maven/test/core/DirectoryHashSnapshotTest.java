@@ -0,0 +1,98 @@
+package com.github.seregamorph.maven.test.core;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
+import com.github.seregamorph.maven.test.util.HashUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryHashSnapshotTest {
+
+    private static final AntPathPatterns NO_EXCLUDES = AntPathPatterns.compile(List.of());
+
+    @Test
+    public void shouldHashOnlyChangedFiles(@TempDir Path buildDir) throws IOException {
+        var classesDir = Files.createDirectories(buildDir.resolve("classes"));
+        var pastTime = FileTime.fromMillis(System.currentTimeMillis() - 60_000L);
+        for (int i = 0; i < 10; i++) {
+            var file = Files.write(Files.createDirectories(classesDir.resolve("pkg" + i % 3))
+                .resolve("Class" + i + ".class"), ("class " + i).getBytes(UTF_8));
+            Files.setLastModifiedTime(file, pastTime);
+        }
+        var snapshotFile = DirectoryHashSnapshot.snapshotFile(buildDir.toFile(), classesDir.toFile(), "sha1",
+            NO_EXCLUDES);
+
+        var hashedFiles = new AtomicInteger();
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES), hash(classesDir, hashedFiles));
+        assertEquals(10, hashedFiles.getAndSet(0));
+        assertTrue(snapshotFile.exists());
+
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES), hash(classesDir, hashedFiles));
+        assertEquals(0, hashedFiles.getAndSet(0));
+
+        var changedFile = classesDir.resolve("pkg1/Class1.class");
+        Files.write(changedFile, "class 1 changed".getBytes(UTF_8));
+        Files.setLastModifiedTime(changedFile, FileTime.fromMillis(pastTime.toMillis() + 1000L));
+        Files.write(classesDir.resolve("pkg1/NewClass.class"), "new class".getBytes(UTF_8));
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES), hash(classesDir, hashedFiles));
+        assertEquals(2, hashedFiles.getAndSet(0));
+
+        // the new file is "racily clean", so it's hashed again
+        hash(classesDir, hashedFiles);
+        assertEquals(1, hashedFiles.get());
+    }
+
+    @Test
+    public void shouldKeepSeparateSnapshotsOfExcludePatterns(@TempDir Path buildDir) throws IOException {
+        var classesDir = Files.createDirectories(buildDir.resolve("classes"));
+        var pastTime = FileTime.fromMillis(System.currentTimeMillis() - 60_000L);
+        for (int i = 0; i < 10; i++) {
+            var file = Files.write(classesDir.resolve("Class" + i + "IT.class"), ("class " + i).getBytes(UTF_8));
+            Files.setLastModifiedTime(file, pastTime);
+        }
+        // e.g. surefire and failsafe executions of the same classes
+        var surefireExcludes = AntPathPatterns.compile(List.of("**/*IT.class"));
+        var failsafeExcludes = AntPathPatterns.compile(List.of("**/Class0IT.class"));
+
+        var hashedFiles = new AtomicInteger();
+        hash(classesDir, surefireExcludes, hashedFiles);
+        hash(classesDir, failsafeExcludes, hashedFiles);
+        assertEquals(9, hashedFiles.getAndSet(0));
+
+        // the snapshots don't overwrite each other
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), surefireExcludes),
+            hash(classesDir, surefireExcludes, hashedFiles));
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), failsafeExcludes),
+            hash(classesDir, failsafeExcludes, hashedFiles));
+        assertEquals(0, hashedFiles.get());
+    }
+
+    private static SortedMap<String, String> hash(Path classesDir, AtomicInteger hashedFiles) {
+        return hash(classesDir, NO_EXCLUDES, hashedFiles);
+    }
+
+    private static SortedMap<String, String> hash(
+        Path classesDir,
+        AntPathPatterns excludePatterns,
+        AtomicInteger hashedFiles
+    ) {
+        var snapshotFile = DirectoryHashSnapshot.snapshotFile(classesDir.getParent().toFile(), classesDir.toFile(),
+            "sha1", excludePatterns);
+        return DirectoryHashSnapshot.hashDirectory(classesDir.toFile(), excludePatterns, "sha1",
+            (file, relativePath) -> {
+                hashedFiles.incrementAndGet();
+                return HashUtils.hashFile(HashAlgorithm.SHA1, file);
+            }, snapshotFile);
+    }
+}
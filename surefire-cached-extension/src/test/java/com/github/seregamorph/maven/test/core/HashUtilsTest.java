@@ -1,13 +1,27 @@
 package com.github.seregamorph.maven.test.core;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
 import com.github.seregamorph.maven.test.util.HashUtils;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 import javax.inject.Inject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -18,8 +32,8 @@ class HashUtilsTest {
     public void shouldHashDirectory(boolean exclude) {
         var failsafeReportsFile = new File(getClass().getClassLoader().getResource("failsafe-reports").getFile());
         var resourcesFile = failsafeReportsFile.getParentFile();
-        var actual = HashUtils.hashDirectory(resourcesFile,
-            exclude ? List.of("com/github/seregamorph/**/core/HashUtilsTest.class") : List.of());
+        var excludes = exclude ? List.of("com/github/seregamorph/**/core/HashUtilsTest.class") : List.<String>of();
+        var actual = HashUtils.hashDirectory(resourcesFile, AntPathPatterns.compile(excludes));
 
         assertTrue(actual.containsKey("com/github/seregamorph/maven/test/core/TestSuiteReportTest.class"));
         assertEquals(exclude, !actual.containsKey("com/github/seregamorph/maven/test/core/HashUtilsTest.class"));
@@ -44,7 +58,108 @@ class HashUtilsTest {
             map.put("javax/inject/Singleton.class", "207d735ffb50956af12cb1b955af1927");
         }
         var actual = HashUtils.hashZipFile(javaxInjectJar,
-            exclude ? List.of("javax/*/Singleton.class") : List.of());
+            AntPathPatterns.compile(exclude ? List.of("javax/*/Singleton.class") : List.of()));
         assertEquals(map, actual);
     }
+
+    @Test
+    public void shouldHashDirectoryTreeInParallel(@TempDir Path tempDir) throws IOException {
+        var expected = new TreeMap<String, String>();
+        for (int d = 0; d < 5; d++) {
+            var dir = Files.createDirectories(tempDir.resolve("pkg" + d).resolve("sub" + d));
+            // more files than a single hashing batch
+            for (int f = 0; f < 100; f++) {
+                var content = ("class " + d + "/" + f).getBytes(UTF_8);
+                var file = Files.write(dir.resolve("Class" + f + ".class"), content);
+                expected.put(tempDir.relativize(file).toString(), HashUtils.hashArray(content));
+            }
+        }
+
+        var actual = HashUtils.hashDirectory(tempDir.toFile(), AntPathPatterns.compile(List.of()));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void shouldHashZipSameAsUnpackedDirectory(@TempDir Path tempDir) throws IOException {
+        var javaxInjectJar = new File(Inject.class.getProtectionDomain().getCodeSource().getLocation().getFile());
+        try (var zipFile = new ZipFile(javaxInjectJar)) {
+            for (var entry : Collections.list(zipFile.entries())) {
+                var target = tempDir.resolve(entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    try (var in = zipFile.getInputStream(entry)) {
+                        Files.copy(in, target);
+                    }
+                }
+            }
+        }
+
+        var excludes = AntPathPatterns.compile(List.of("META-INF/MANIFEST.MF"));
+        for (var hashAlgorithm : HashAlgorithm.values()) {
+            var expected = HashUtils.hashZipFile(javaxInjectJar, excludes, hashAlgorithm);
+            assertEquals(Set.of(
+                "javax/inject/Inject.class",
+                "javax/inject/Named.class",
+                "javax/inject/Provider.class",
+                "javax/inject/Qualifier.class",
+                "javax/inject/Scope.class",
+                "javax/inject/Singleton.class"
+            ), expected.keySet());
+            assertEquals(expected, HashUtils.hashDirectory(tempDir.toFile(), excludes, hashAlgorithm));
+        }
+    }
+
+    @Test
+    public void shouldFingerprintZipSameAsUnpackedDirectory(@TempDir Path tempDir) throws IOException {
+        var dir = Files.createDirectories(tempDir.resolve("classes"));
+        var deflated = "deflated content ".repeat(100).getBytes(UTF_8);
+        var stored = "stored content".getBytes(UTF_8);
+        Files.write(Files.createDirectories(dir.resolve("pkg")).resolve("Deflated.class"), deflated);
+        Files.write(dir.resolve("pkg/Stored.properties"), stored);
+        Files.write(dir.resolve("pkg/Excluded.class"), stored);
+
+        var jar = tempDir.resolve("classes.jar");
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("pkg/"));
+            out.putNextEntry(new ZipEntry("pkg/Deflated.class"));
+            out.write(deflated);
+            var storedEntry = new ZipEntry("pkg/Stored.properties");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            var crc32 = new CRC32();
+            crc32.update(stored);
+            storedEntry.setCrc(crc32.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+            out.putNextEntry(new ZipEntry("pkg/Excluded.class"));
+            out.write(stored);
+        }
+
+        var excludes = AntPathPatterns.compile(List.of("**/Excluded.class"));
+        var expected = HashUtils.fingerprintZipFile(jar.toFile(), excludes);
+        assertEquals(Set.of("pkg/Deflated.class", "pkg/Stored.properties"), expected.keySet());
+        assertEquals(expected, HashUtils.fingerprintDirectory(dir.toFile(), excludes));
+    }
+
+    @Test
+    public void shouldFingerprintDeflatedEntriesWithoutDecompression(@TempDir Path tempDir) throws IOException {
+        var content = "deflated content ".repeat(100).getBytes(UTF_8);
+        var jar = tempDir.resolve("lib.jar");
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("A.class"));
+            out.write(content);
+        }
+        var expected = HashUtils.fingerprintZipFile(jar.toFile(), AntPathPatterns.compile(List.of()));
+
+        // corrupt the compressed data after the local file header, the central directory is intact
+        var bytes = Files.readAllBytes(jar);
+        int dataOffset = 30 + "A.class".length();
+        bytes[dataOffset + 2] ^= (byte) 0xff;
+        bytes[dataOffset + 3] ^= (byte) 0xff;
+        Files.write(jar, bytes);
+
+        assertEquals(expected, HashUtils.fingerprintZipFile(jar.toFile(), AntPathPatterns.compile(List.of())));
+    }
 }
@@ -0,0 +1,177 @@
+package com.github.seregamorph.maven.test.core;
+
+import static com.github.seregamorph.maven.test.util.HashAlgorithm.MURMUR3_128;
+import static com.github.seregamorph.maven.test.util.HashAlgorithm.SHA1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PersistentHashIndexTest {
+
+    @Test
+    public void shouldPersistAcrossSessions(@TempDir Path tempDir) throws IOException {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+        var jar = repository.resolve("lib.jar").toFile().getCanonicalPath();
+        var excludes = List.of("META-INF/MANIFEST.MF");
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertTrue(index.isIndexed(jar));
+            assertFalse(index.isIndexed(tempDir.resolve("repository2/lib.jar").toString()));
+            assertNull(index.get(SHA1, jar, excludes, 100L, 1000L));
+            index.put(SHA1, jar, excludes, 100L, 1000L, "0123456789abcdef0123456789abcdef");
+        }
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals("0123456789abcdef0123456789abcdef", index.get(SHA1, jar, excludes, 100L, 1000L));
+            // modified file
+            assertNull(index.get(SHA1, jar, excludes, 100L, 2000L));
+            // other exclude patterns
+            assertNull(index.get(SHA1, jar, List.of(), 100L, 1000L));
+            // other hash algorithm
+            assertNull(index.get(MURMUR3_128, jar, excludes, 100L, 1000L));
+        }
+    }
+
+    @Test
+    public void shouldSkipTornRecord(@TempDir Path tempDir) throws IOException {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+        // entries of deleted files are dropped by the compaction
+        var jar = Files.createFile(repository.resolve("lib.jar")).toString();
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            index.put(SHA1, jar, List.of(), 100L, 1000L, "0123456789abcdef0123456789abcdef");
+        }
+        // simulate a crashed process in the middle of append
+        Files.write(indexDir.resolve(PersistentHashIndex.INDEX_FILE_NAME), new byte[]{0, 0, 0, 42, 1, 2},
+            StandardOpenOption.APPEND);
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals(1, index.size());
+            index.put(SHA1, jar, List.of(), 200L, 2000L, "fedcba9876543210fedcba9876543210");
+        }
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals("fedcba9876543210fedcba9876543210", index.get(SHA1, jar, List.of(), 200L, 2000L));
+        }
+    }
+
+    @Test
+    public void shouldAppendConcurrentlyFromInstancesOfSameJvm(@TempDir Path tempDir) throws Exception {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+
+        var executor = Executors.newFixedThreadPool(2);
+        try (var index1 = PersistentHashIndex.open(indexDir, repository);
+             var index2 = PersistentHashIndex.open(indexDir, repository)) {
+            // file locks of the same JVM overlap, so they should be serialized
+            Future<?> future1 = executor.submit(() -> putAll(index1, repository, "a"));
+            Future<?> future2 = executor.submit(() -> putAll(index2, repository, "b"));
+            future1.get();
+            future2.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals(200, index.size());
+        }
+    }
+
+    @Test
+    public void shouldAppendAfterCompactionByAnotherInstance(@TempDir Path tempDir) throws IOException {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+        var jar1 = Files.createFile(repository.resolve("lib1.jar")).toString();
+        var jar2 = Files.createFile(repository.resolve("lib2.jar")).toString();
+
+        try (var index1 = PersistentHashIndex.open(indexDir, repository)) {
+            index1.put(SHA1, jar1, List.of(), 100L, 1000L, "0123456789abcdef0123456789abcdef");
+            // torn record, the next instance compacts the log replacing the file
+            Files.write(indexDir.resolve(PersistentHashIndex.INDEX_FILE_NAME), new byte[]{0, 0, 0, 42, 1, 2},
+                StandardOpenOption.APPEND);
+            try (var index2 = PersistentHashIndex.open(indexDir, repository)) {
+                assertEquals(1, index2.size());
+            }
+            // should not be appended to the replaced file
+            index1.put(SHA1, jar2, List.of(), 200L, 2000L, "fedcba9876543210fedcba9876543210");
+        }
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals("0123456789abcdef0123456789abcdef", index.get(SHA1, jar1, List.of(), 100L, 1000L));
+            assertEquals("fedcba9876543210fedcba9876543210", index.get(SHA1, jar2, List.of(), 200L, 2000L));
+        }
+    }
+
+    @Test
+    public void shouldCompactSupersededRecords(@TempDir Path tempDir) throws IOException {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+        var jar = Files.createFile(repository.resolve("lib.jar")).toString();
+        var indexFile = indexDir.resolve(PersistentHashIndex.INDEX_FILE_NAME);
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            for (int i = 0; i < 1000; i++) {
+                index.put(SHA1, jar, List.of(), 100L, i, "0123456789abcdef0123456789abcdef");
+            }
+        }
+        assertTrue(Files.size(indexFile) > PersistentHashIndex.MIN_COMPACT_LOG_SIZE);
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals(1, index.size());
+            assertEquals("0123456789abcdef0123456789abcdef", index.get(SHA1, jar, List.of(), 100L, 999L));
+        }
+        assertTrue(Files.size(indexFile) < 1000L);
+    }
+
+    @Test
+    public void shouldDropEntriesOfDeletedFiles(@TempDir Path tempDir) throws IOException {
+        var indexDir = tempDir.resolve("hash-index");
+        var repository = Files.createDirectories(tempDir.resolve("repository"));
+        var indexFile = indexDir.resolve(PersistentHashIndex.INDEX_FILE_NAME);
+
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            for (int i = 0; i < 1000; i++) {
+                var jar = Files.createFile(repository.resolve("lib-1." + i + ".jar")).toString();
+                index.put(SHA1, jar, List.of(), 100L, 1000L, "0123456789abcdef0123456789abcdef");
+            }
+        }
+        var size = Files.size(indexFile);
+        assertTrue(size > PersistentHashIndex.MIN_COMPACT_LOG_SIZE);
+
+        // all live entries, not compacted
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals(1000, index.size());
+        }
+        assertEquals(size, Files.size(indexFile));
+
+        // old versions removed from the repository
+        for (int i = 0; i < 800; i++) {
+            Files.delete(repository.resolve("lib-1." + i + ".jar"));
+        }
+        try (var index = PersistentHashIndex.open(indexDir, repository)) {
+            assertEquals(200, index.size());
+            var jar = repository.resolve("lib-1.999.jar").toString();
+            assertEquals("0123456789abcdef0123456789abcdef", index.get(SHA1, jar, List.of(), 100L, 1000L));
+        }
+        assertTrue(Files.size(indexFile) < size / 4);
+    }
+
+    private static void putAll(PersistentHashIndex index, Path repository, String prefix) {
+        for (int i = 0; i < 100; i++) {
+            index.put(SHA1, repository.resolve(prefix + i + ".jar").toString(), List.of(), 100L, 1000L,
+                "0123456789abcdef0123456789abcdef");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.seregamorph.maven.test.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.github.seregamorph.maven.test.core.FileHashCache;
+import com.github.seregamorph.maven.test.util.HashAlgorithm;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.project.MavenProject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathPrehasherTest {
+
+    @Test
+    public void shouldPrehashOnlyProjectsWithCachedPlugins(@TempDir Path tempDir) throws IOException {
+        var tasks = new ArrayList<Runnable>();
+        var prehasher = new ClasspathPrehasher(new FileHashCache(), HashAlgorithm.SHA1, Set.of(), tasks::add);
+        var artifact = createArtifact(tempDir);
+
+        prehasher.submitArtifacts(createProject(tempDir.resolve("no-tests")), List.of(artifact));
+        assertEquals(0, tasks.size());
+
+        prehasher.submitArtifacts(createProject(tempDir.resolve("unit-tests"), "maven-surefire-plugin"),
+            List.of(artifact));
+        assertEquals(1, tasks.size());
+        // same file, algorithm and exclude patterns
+        prehasher.submitArtifacts(createProject(tempDir.resolve("unit-tests-2"), "maven-surefire-plugin"),
+            List.of(artifact));
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void shouldPrehashWithExcludePatternsOfEachPlugin(@TempDir Path tempDir) throws IOException {
+        var tasks = new ArrayList<Runnable>();
+        var prehasher = new ClasspathPrehasher(new FileHashCache(), HashAlgorithm.SHA1, Set.of(), tasks::add);
+        var artifact = createArtifact(tempDir);
+
+        var projectDir = Files.createDirectories(tempDir.resolve("integration-tests"));
+        Files.write(projectDir.resolve("surefire-cached.json"), """
+            {
+              "failsafe": {
+                "excludeClasspathResources": ["META-INF/MANIFEST.MF", "git.properties"]
+              }
+            }
+            """.getBytes(UTF_8));
+        prehasher.submitArtifacts(createProject(projectDir, "maven-surefire-plugin", "maven-failsafe-plugin"),
+            List.of(artifact));
+        assertEquals(2, tasks.size());
+    }
+
+    private static Artifact createArtifact(Path tempDir) throws IOException {
+        var artifact = new DefaultArtifact("com.acme", "library", "1.0", "compile", "jar", null,
+            new DefaultArtifactHandler("jar"));
+        artifact.setFile(Files.write(tempDir.resolve("library-1.0.jar"), new byte[0]).toFile());
+        return artifact;
+    }
+
+    private static MavenProject createProject(Path projectDir, String... pluginArtifactIds) throws IOException {
+        var project = new MavenProject();
+        project.setFile(Files.createDirectories(projectDir).resolve("pom.xml").toFile());
+        var build = new Build();
+        for (var pluginArtifactId : pluginArtifactIds) {
+            var plugin = new Plugin();
+            plugin.setGroupId("org.apache.maven.plugins");
+            plugin.setArtifactId(pluginArtifactId);
+            build.addPlugin(plugin);
+        }
+        project.setBuild(build);
+        return project;
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.seregamorph.maven.test.extension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConcurrentArtifactRestoreTest {
+
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "core"), "01234567890abcdef");
+
+    @TempDir
+    private Path tempDir;
+
+    private ExecutorService executor;
+
+    @AfterEach
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldUnpackAllFetchedArtifacts() throws InconsistentCacheException {
+        executor = Executors.newFixedThreadPool(3);
+        var unpacked = new CopyOnWriteArrayList<String>();
+
+        ConcurrentArtifactRestore.restore(KEY, List.of("a.tar.gz", "b.tar.gz", "c.tar.gz"), executor,
+            this::createPackFile, packFile -> unpacked.add(packFile.getName()));
+
+        assertEquals(Set.of("a.tar.gz", "b.tar.gz", "c.tar.gz"), Set.copyOf(unpacked));
+        assertEquals(List.of(), List.of(tempDir.toFile().list()));
+    }
+
+    @Test
+    public void shouldCancelPendingFetchesOnMissingArtifact() {
+        // only the first fetch is started, the rest are pending
+        var started = new AtomicBoolean();
+        var pending = new ArrayList<Runnable>();
+        Executor executor = task -> {
+            if (started.getAndSet(true)) {
+                pending.add(task);
+            } else {
+                new Thread(task).start();
+            }
+        };
+        var fetched = ConcurrentHashMap.<String>newKeySet();
+
+        var e = assertThrows(InconsistentCacheException.class, () -> ConcurrentArtifactRestore.restore(KEY,
+            List.of("a.tar.gz", "b.tar.gz", "c.tar.gz"), executor, fileName -> {
+                fetched.add(fileName);
+                throw new InconsistentCacheException("Cache file not found " + fileName);
+            }, packFile -> {
+                throw new AssertionError("Unexpected unpack " + packFile);
+            }));
+
+        assertEquals("Cache file not found a.tar.gz", e.getMessage());
+        // cancelled
+        pending.forEach(Runnable::run);
+        assertEquals(Set.of("a.tar.gz"), fetched);
+    }
+
+    @Test
+    public void shouldDeletePackFilesOfSiblingsOnFailure() {
+        executor = Executors.newFixedThreadPool(2);
+
+        var e = assertThrows(IllegalStateException.class, () -> ConcurrentArtifactRestore.restore(KEY,
+            List.of("a.tar.gz", "b.tar.gz"), executor, fileName -> {
+                if (fileName.equals("a.tar.gz")) {
+                    throw new UncheckedIOException(new IOException("Connection reset"));
+                }
+                // still in progress on failure of the sibling
+                sleep(200L);
+                return createPackFile(fileName);
+            }, packFile -> {
+            }));
+
+        assertEquals("Failed to restore " + KEY, e.getMessage());
+        assertFalse(Files.exists(tempDir.resolve("b.tar.gz")));
+    }
+
+    private File createPackFile(String fileName) {
+        try {
+            return Files.write(tempDir.resolve(fileName), new byte[10]).toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
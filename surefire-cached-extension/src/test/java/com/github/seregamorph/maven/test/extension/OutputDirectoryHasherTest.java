@@ -0,0 +1,135 @@
+package com.github.seregamorph.maven.test.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.github.seregamorph.maven.test.core.FileHashCache;
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
+import com.github.seregamorph.maven.test.util.HashUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputDirectoryHasherTest {
+
+    private static final AntPathPatterns NO_EXCLUDES = AntPathPatterns.compile(List.of());
+    private static final long RACY_INTERVAL_MILLIS = 100L;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final CountingFileHashCache fileHashCache = new CountingFileHashCache();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldReuseBackgroundHashesOfJustCompiledFiles(@TempDir Path classesDir) throws Exception {
+        // compiled "now"
+        Files.write(classesDir.resolve("Class1.class"), "class 1".getBytes(UTF_8));
+        Files.write(classesDir.resolve("Class2.class"), "class 2".getBytes(UTF_8));
+
+        var hasher = new OutputDirectoryHasher(fileHashCache, executor, RACY_INTERVAL_MILLIS);
+        hasher.submit(classesDir.toFile(), NO_EXCLUDES, null);
+        Thread.sleep(5L * RACY_INTERVAL_MILLIS);
+
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+        // hashed once in background
+        assertEquals(1, fileHashCache.directoryHashes.get());
+    }
+
+    @Test
+    public void shouldRehashDirectoryChangedAfterSubmit(@TempDir Path classesDir) throws Exception {
+        var file = Files.write(classesDir.resolve("Class1.class"), "class 1".getBytes(UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60_000L));
+
+        var hasher = new OutputDirectoryHasher(fileHashCache, executor, RACY_INTERVAL_MILLIS);
+        hasher.submit(classesDir.toFile(), NO_EXCLUDES, null);
+        Thread.sleep(5L * RACY_INTERVAL_MILLIS);
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+
+        // e.g. instrumented after compilation
+        Files.write(file, "class 1 instrumented".getBytes(UTF_8));
+        Files.write(classesDir.resolve("Class2.class"), "class 2".getBytes(UTF_8));
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+    }
+
+    @Test
+    public void shouldHashNotStartedTaskInCallerThreadOnce(@TempDir Path classesDir) throws IOException {
+        Files.write(classesDir.resolve("Class1.class"), "class 1".getBytes(UTF_8));
+
+        // the task is not started before the join
+        var hasher = new OutputDirectoryHasher(fileHashCache, executor, 60_000L);
+        hasher.submit(classesDir.toFile(), NO_EXCLUDES, null);
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+        assertEquals(1, fileHashCache.directoryHashes.get());
+    }
+
+    @Test
+    public void shouldRehashRacilyCleanFile(@TempDir Path classesDir) throws Exception {
+        var hasher = new OutputDirectoryHasher(fileHashCache, executor, RACY_INTERVAL_MILLIS);
+        hasher.submit(classesDir.toFile(), NO_EXCLUDES, null);
+        // written after the submit, racily clean when hashed in background
+        var file = Files.write(classesDir.resolve("Class1.class"), "class 1".getBytes(UTF_8));
+        var lastModified = FileTime.fromMillis(System.currentTimeMillis() + 60_000L);
+        Files.setLastModifiedTime(file, lastModified);
+        Thread.sleep(5L * RACY_INTERVAL_MILLIS);
+
+        // changed within the timestamp granularity: same size and last modified
+        Files.write(file, "class 2".getBytes(UTF_8));
+        Files.setLastModifiedTime(file, lastModified);
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+        // only the racily clean file is hashed again
+        assertEquals(1, fileHashCache.directoryHashes.get());
+    }
+
+    @Test
+    public void shouldUseBackgroundHashesOnce(@TempDir Path classesDir) throws Exception {
+        var file = Files.write(classesDir.resolve("Class1.class"), "class 1".getBytes(UTF_8));
+        var lastModified = FileTime.fromMillis(System.currentTimeMillis() - 60_000L);
+        Files.setLastModifiedTime(file, lastModified);
+
+        var hasher = new OutputDirectoryHasher(fileHashCache, executor, RACY_INTERVAL_MILLIS);
+        hasher.submit(classesDir.toFile(), NO_EXCLUDES, null);
+        Thread.sleep(5L * RACY_INTERVAL_MILLIS);
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+
+        Files.write(file, "class 2".getBytes(UTF_8));
+        Files.setLastModifiedTime(file, lastModified);
+        assertEquals(HashUtils.hashDirectory(classesDir.toFile(), NO_EXCLUDES),
+            hasher.getDirectoryHashes(classesDir.toFile(), NO_EXCLUDES, null));
+        assertEquals(2, fileHashCache.directoryHashes.get());
+    }
+
+    private static class CountingFileHashCache extends FileHashCache {
+
+        private final AtomicInteger directoryHashes = new AtomicInteger();
+
+        @Override
+        public SortedMap<String, String> getDirectoryHashes(
+            File dir,
+            AntPathPatterns excludePatterns,
+            @Nullable File snapshotDir
+        ) {
+            directoryHashes.incrementAndGet();
+            return super.getDirectoryHashes(dir, excludePatterns, snapshotDir);
+        }
+    }
+}
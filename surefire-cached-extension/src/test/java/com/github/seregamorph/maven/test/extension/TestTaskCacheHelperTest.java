@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.github.seregamorph.maven.test.util.AntPathPatterns;
 import java.util.List;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.handler.ArtifactHandler;
@@ -23,11 +24,15 @@ class TestTaskCacheHelperTest {
         when(artifact.getGroupId()).thenReturn("com.acme");
         when(artifact.getArtifactId()).thenReturn("lib");
 
-        assertTrue(TestTaskCacheHelper.isIncludeToCacheEntry(List.of("com.acme:lib1", "com.acme:lib2"), artifact));
-        assertTrue(TestTaskCacheHelper.isIncludeToCacheEntry(List.of("com.example:*"), artifact));
+        assertTrue(TestTaskCacheHelper.isIncludeToCacheEntry(modules("com.acme:lib1", "com.acme:lib2"), artifact));
+        assertTrue(TestTaskCacheHelper.isIncludeToCacheEntry(modules("com.example:*"), artifact));
 
-        assertFalse(TestTaskCacheHelper.isIncludeToCacheEntry(List.of("com.acme:lib1", "com.acme:lib"), artifact));
-        assertFalse(TestTaskCacheHelper.isIncludeToCacheEntry(List.of("com.acme:*"), artifact));
+        assertFalse(TestTaskCacheHelper.isIncludeToCacheEntry(modules("com.acme:lib1", "com.acme:lib"), artifact));
+        assertFalse(TestTaskCacheHelper.isIncludeToCacheEntry(modules("com.acme:*"), artifact));
+    }
+
+    private static AntPathPatterns modules(String... excludeModules) {
+        return AntPathPatterns.compile(List.of(excludeModules), ':');
     }
 
     @Test
@@ -0,0 +1,103 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.util.MoreFileUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CacheServiceTest {
+
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "utils"), "01234567890abcdef");
+
+    @Test
+    public void shouldWriteAsynchronously(@TempDir Path tempDir) throws IOException {
+        var storage = new FileCacheStorage(tempDir.resolve("cache").toFile());
+        var metrics = new CacheServiceMetrics();
+        var spillDir = tempDir.resolve("spill").toFile();
+        var packFile = tempDir.resolve("reports.tar.gz");
+        Files.writeString(packFile, "reports");
+
+        try (var cacheService = new CacheService(storage, metrics, 4,
+            new AsyncWriteConfig(2, 1024 * 1024, spillDir))) {
+            cacheService.writeFromFile(KEY, "reports.tar.gz", packFile.toFile());
+            // the next pack overwrites the file while the write is pending
+            Files.delete(packFile);
+            Files.writeString(packFile, "other");
+            cacheService.write(KEY, "output.json", "{}".getBytes(UTF_8));
+        }
+
+        assertArrayEquals("reports".getBytes(UTF_8), storage.read(KEY, "reports.tar.gz"));
+        assertArrayEquals("{}".getBytes(UTF_8), storage.read(KEY, "output.json"));
+        assertEquals(2, metrics.getAsyncWriteOperations());
+        assertEquals(0, metrics.getAsyncWriteDropped());
+        assertFalse(spillDir.exists());
+    }
+
+    @Test
+    public void shouldDropIncompleteEntry(@TempDir Path tempDir) throws IOException {
+        var storage = new FileCacheStorage(tempDir.resolve("cache").toFile());
+        var metrics = new CacheServiceMetrics();
+        var packFile = tempDir.resolve("reports.tar.gz");
+        Files.writeString(packFile, "reports over the limit");
+
+        try (var cacheService = new CacheService(storage, metrics, 4,
+            new AsyncWriteConfig(1, 4, tempDir.resolve("spill").toFile()))) {
+            cacheService.writeFromFile(KEY, "reports.tar.gz", packFile.toFile());
+            cacheService.write(KEY, "output.json", "{}".getBytes(UTF_8));
+        }
+
+        assertNull(storage.read(KEY, "reports.tar.gz"));
+        assertNull(storage.read(KEY, "output.json"));
+        assertEquals(2, metrics.getAsyncWriteDropped());
+    }
+
+    @Test
+    public void shouldTryReferenceOnlyForSharedContent(@TempDir Path tempDir) throws IOException {
+        var references = new ArrayList<String>();
+        var contentHashes = new ArrayList<String>();
+        var storage = new FileCacheStorage(tempDir.resolve("cache").toFile()) {
+            @Override
+            public boolean writeReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+                references.add(fileName);
+                return super.writeReference(cacheEntryKey, fileName, contentHash);
+            }
+
+            @Override
+            public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source, String contentHash) {
+                contentHashes.add(contentHash);
+                return super.writeFile(cacheEntryKey, fileName, source, contentHash);
+            }
+        };
+        var bundleFile = tempDir.resolve("surefire-cached-bundle.bin");
+        Files.writeString(bundleFile, "bundle");
+        var packFile = tempDir.resolve("reports.tar.gz");
+        Files.writeString(packFile, "reports");
+
+        try (var cacheService = new CacheService(storage, new CacheServiceMetrics(), 4)) {
+            cacheService.writeFromFile(KEY, "surefire-cached-bundle.bin", bundleFile.toFile());
+            cacheService.writeFromFile(KEY, "surefire-cached-output.json", bundleFile.toFile());
+            assertTrue(references.isEmpty());
+
+            contentHashes.clear();
+            cacheService.writeFromFile(KEY, "reports.tar.gz", packFile.toFile());
+            assertEquals(List.of("reports.tar.gz"), references);
+            // the hash calculated for the reference is passed to the storage
+            assertEquals(List.of(MoreFileUtils.sha256(packFile)), contentHashes);
+        }
+    }
+}
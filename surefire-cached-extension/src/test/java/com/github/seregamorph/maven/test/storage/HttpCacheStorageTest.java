@@ -0,0 +1,255 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class HttpCacheStorageTest {
+
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "core"), "01234567890abcdef");
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> batchEntities = new CopyOnWriteArrayList<>();
+    private final CountDownLatch blockedRequested = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private int batchStatus = 200;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldNotRetryReferencesNotSupportedByServer() {
+        server.createContext("/cache", exchange -> {
+            record(exchange);
+            respond(exchange, 405, new byte[0]);
+        });
+        var storage = createStorage(Duration.ZERO);
+
+        assertFalse(storage.writeReference(KEY, "reports.tar.gz", "0123"));
+        assertFalse(storage.writeReference(KEY, "reports.tar.gz", "4567"));
+        assertEquals(List.of("POST /cache/surefire-cached/com.acme/core/01234567890abcdef/reports.tar.gz"),
+            requests);
+    }
+
+    @Test
+    public void shouldReadAtOnceWithoutOtherReadsInProgress() {
+        server.createContext("/cache", this::handleEntities);
+        var storage = createStorage(Duration.ofSeconds(30));
+
+        var startTime = System.nanoTime();
+        assertArrayEquals(content("output.json"), storage.read(KEY, "output.json"));
+        assertTrue(Duration.ofNanos(System.nanoTime() - startTime).compareTo(Duration.ofSeconds(10)) < 0);
+        assertEquals(List.of("GET /cache/surefire-cached/com.acme/core/01234567890abcdef/output.json"), requests);
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentReads() throws Exception {
+        server.createContext("/cache", this::handleEntities);
+        var storage = createStorage(Duration.ofMillis(500));
+
+        var blockedRead = startBlockedRead(storage);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var outputRead = executor.submit(() -> storage.read(KEY, "output.json"));
+            var largeRead = executor.submit(() -> storage.read(KEY, "large.json"));
+            var missingRead = storage.read(KEY, "missing.json");
+            assertArrayEquals(content("output.json"), outputRead.get());
+            // too large for a batch, read with GET
+            assertArrayEquals(content("large.json"), largeRead.get());
+            assertNull(missingRead);
+        } finally {
+            executor.shutdownNow();
+        }
+        release.countDown();
+        assertArrayEquals(content("blocked.json"), blockedRead.get());
+
+        assertEquals(List.of(
+            "GET /cache/surefire-cached/com.acme/core/01234567890abcdef/blocked.json",
+            "POST /cache/batch",
+            "GET /cache/surefire-cached/com.acme/core/01234567890abcdef/large.json"
+        ), requests);
+        assertEquals(Set.of(
+            "surefire-cached/com.acme/core/01234567890abcdef/output.json",
+            "surefire-cached/com.acme/core/01234567890abcdef/large.json",
+            "surefire-cached/com.acme/core/01234567890abcdef/missing.json"
+        ), Set.copyOf(batchEntities));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {404, 405})
+    public void shouldFallbackToSingleReadsIfBatchNotSupported(int batchStatus) throws Exception {
+        this.batchStatus = batchStatus;
+        server.createContext("/cache", this::handleEntities);
+        var storage = createStorage(Duration.ofMillis(500));
+
+        var blockedRead = startBlockedRead(storage);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var outputRead = executor.submit(() -> storage.read(KEY, "output.json"));
+            assertArrayEquals(content("reports.json"), storage.read(KEY, "reports.json"));
+            assertArrayEquals(content("output.json"), outputRead.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        // batching is disabled after the first attempt
+        assertArrayEquals(content("result.json"), storage.read(KEY, "result.json"));
+        release.countDown();
+        assertArrayEquals(content("blocked.json"), blockedRead.get());
+
+        assertEquals(List.of(
+            "GET /cache/surefire-cached/com.acme/core/01234567890abcdef/blocked.json",
+            "POST /cache/batch"
+        ), requests.subList(0, 2));
+        assertEquals(Set.of(
+            "GET /cache/surefire-cached/com.acme/core/01234567890abcdef/output.json",
+            "GET /cache/surefire-cached/com.acme/core/01234567890abcdef/reports.json"
+        ), Set.copyOf(requests.subList(2, 4)));
+        assertEquals(List.of("GET /cache/surefire-cached/com.acme/core/01234567890abcdef/result.json"),
+            requests.subList(4, requests.size()));
+    }
+
+    @Test
+    public void shouldDownloadKeyFilterOnce() {
+        var filter = CacheKeyFilter.create(100);
+        filter.put("surefire-cached/com.acme/core/01234567890abcdef");
+        server.createContext("/cache/filter", exchange -> {
+            record(exchange);
+            respond(exchange, 200, filter.toByteArray());
+        });
+        var storage = createStorage(Duration.ZERO, true);
+
+        assertTrue(storage.mightContain(KEY));
+        assertFalse(storage.mightContain(new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+            new GroupArtifactId("com.acme", "web"), "01234567890abcdef")));
+        assertEquals(List.of("GET /cache/filter"), requests);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {404, 405})
+    public void shouldNotFilterIfServerDoesNotProvideKeyFilter(int status) {
+        server.createContext("/cache/filter", exchange -> {
+            record(exchange);
+            respond(exchange, status, new byte[0]);
+        });
+        var storage = createStorage(Duration.ZERO, true);
+
+        assertTrue(storage.mightContain(KEY));
+        assertTrue(storage.mightContain(new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+            new GroupArtifactId("com.acme", "web"), "01234567890abcdef")));
+        assertEquals(List.of("GET /cache/filter"), requests);
+    }
+
+    /**
+     * Start a read which is in progress until {@link #release}, so the next reads are batched.
+     */
+    private Future<byte[]> startBlockedRead(HttpCacheStorage storage) throws InterruptedException {
+        var blockedRead = CompletableFuture.supplyAsync(() -> storage.read(KEY, "blocked.json"));
+        assertTrue(blockedRequested.await(10L, TimeUnit.SECONDS));
+        return blockedRead;
+    }
+
+    private void handleEntities(HttpExchange exchange) throws IOException {
+        record(exchange);
+        var path = exchange.getRequestURI().getPath();
+        if (path.equals("/cache/batch")) {
+            if (batchStatus != 200) {
+                respond(exchange, batchStatus, new byte[0]);
+                return;
+            }
+            var out = new ByteArrayOutputStream();
+            var dataOut = new DataOutputStream(out);
+            for (var line : new String(exchange.getRequestBody().readAllBytes(), UTF_8).split("\n")) {
+                batchEntities.add(line);
+                var fileName = line.substring(line.lastIndexOf('/') + 1);
+                if (fileName.equals("missing.json")) {
+                    dataOut.writeLong(-1L);
+                } else if (fileName.equals("large.json")) {
+                    dataOut.writeLong(-2L);
+                } else {
+                    dataOut.writeLong(content(fileName).length);
+                    dataOut.write(content(fileName));
+                }
+            }
+            respond(exchange, 200, out.toByteArray());
+            return;
+        }
+        var fileName = path.substring(path.lastIndexOf('/') + 1);
+        if (fileName.equals("blocked.json")) {
+            blockedRequested.countDown();
+            try {
+                release.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        respond(exchange, 200, content(fileName));
+    }
+
+    private static byte[] content(String fileName) {
+        return ("content of " + fileName).getBytes(UTF_8);
+    }
+
+    private HttpCacheStorage createStorage(Duration batchWindow) {
+        return createStorage(batchWindow, false);
+    }
+
+    private HttpCacheStorage createStorage(Duration batchWindow, boolean keyFilter) {
+        var baseUrl = URI.create("http://localhost:" + server.getAddress().getPort() + "/cache");
+        return new HttpCacheStorage(new HttpCacheStorageConfig(baseUrl, false, Duration.ofSeconds(5),
+            Duration.ofSeconds(5), Duration.ofSeconds(5), null, batchWindow, keyFilter));
+    }
+
+    private void record(HttpExchange exchange) {
+        requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.seregamorph.maven.test.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TieredCacheStorageTest {
+
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "utils"), "01234567890abcdef");
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void shouldWriteToBothTiersAndReadLocalFirst(boolean writeBack, @TempDir Path tempDir) {
+        var localStorage = new FileCacheStorage(tempDir.resolve("local").toFile());
+        var remoteStorage = new FileCacheStorage(tempDir.resolve("remote").toFile());
+        var metrics = new CacheServiceMetrics();
+        var bytes = "content".getBytes(UTF_8);
+
+        try (var storage = createStorage(localStorage, remoteStorage, metrics, writeBack, tempDir)) {
+            storage.write(KEY, "output.json", bytes);
+        }
+        assertArrayEquals(bytes, remoteStorage.read(KEY, "output.json"));
+
+        var storage = createStorage(localStorage, remoteStorage, metrics, writeBack, tempDir);
+        assertArrayEquals(bytes, storage.read(KEY, "output.json"));
+        assertNull(storage.read(KEY, "missing.json"));
+        assertEquals(1, metrics.getLocalReadHitOperations());
+        assertEquals(1, metrics.getLocalReadMissOperations());
+        assertEquals(1, metrics.getRemoteReadMissOperations());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void shouldPopulateLocalTierFromRemote(boolean writeBack, @TempDir Path tempDir) {
+        var localStorage = new FileCacheStorage(tempDir.resolve("local").toFile());
+        var remoteStorage = new FileCacheStorage(tempDir.resolve("remote").toFile());
+        var metrics = new CacheServiceMetrics();
+        var bytes = "content".getBytes(UTF_8);
+        remoteStorage.write(KEY, "reports.tar.gz", bytes);
+
+        var storage = createStorage(localStorage, remoteStorage, metrics, writeBack, tempDir);
+        var target = tempDir.resolve("reports.tar.gz");
+        assertEquals(true, storage.readToFile(KEY, "reports.tar.gz", target));
+        assertArrayEquals(bytes, localStorage.read(KEY, "reports.tar.gz"));
+        assertEquals(true, storage.readToFile(KEY, "reports.tar.gz", target));
+
+        assertEquals(1, metrics.getLocalReadHitOperations());
+        assertEquals(1, metrics.getLocalReadMissOperations());
+        assertEquals(1, metrics.getRemoteReadHitOperations());
+    }
+
+    @Test
+    public void shouldDeleteLeastRecentlyUsedLocalEntriesOverBudget(@TempDir Path tempDir) {
+        var localStorage = new FileCacheStorage(tempDir.resolve("local").toFile());
+        var remoteStorage = new FileCacheStorage(tempDir.resolve("remote").toFile());
+        var metrics = new CacheServiceMetrics();
+        var keys = new ArrayList<CacheEntryKey>();
+        for (int i = 0; i < 3; i++) {
+            var key = new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", "module" + i),
+                "01234567890abcdef");
+            localStorage.write(key, "artifacts.tar.gz", new byte[100]);
+            localStorage.getEntryDirectory(key).setLastModified(1_000_000_000L + i * 1000L);
+            keys.add(key);
+        }
+
+        try (var storage = new TieredCacheStorage(localStorage, remoteStorage, metrics, null, 250L)) {
+            // the oldest entry becomes the most recently used
+            assertNotNull(storage.read(keys.get(0), "artifacts.tar.gz"));
+        }
+        assertNotNull(localStorage.read(keys.get(0), "artifacts.tar.gz"));
+        assertNull(localStorage.read(keys.get(1), "artifacts.tar.gz"));
+        assertNotNull(localStorage.read(keys.get(2), "artifacts.tar.gz"));
+    }
+
+    @Test
+    public void shouldSkipRestOfEntryAfterFailedWriteBack(@TempDir Path tempDir) {
+        var localStorage = new FileCacheStorage(tempDir.resolve("local").toFile());
+        var remoteStorage = new FileCacheStorage(tempDir.resolve("remote").toFile()) {
+            @Override
+            public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source) {
+                if (fileName.equals("artifacts.tar.gz")) {
+                    throw new CacheStorageException("Failed to upload " + fileName, new IOException("Broken pipe"));
+                }
+                return super.writeFile(cacheEntryKey, fileName, source);
+            }
+        };
+        var metrics = new CacheServiceMetrics();
+
+        try (var storage = createStorage(localStorage, remoteStorage, metrics, true, tempDir)) {
+            storage.write(KEY, "artifacts.tar.gz", new byte[100]);
+            storage.write(KEY, "output.json", "content".getBytes(UTF_8));
+        }
+        // incomplete entry is not published
+        assertNull(remoteStorage.read(KEY, "output.json"));
+        assertNotNull(localStorage.read(KEY, "output.json"));
+        assertEquals(1, metrics.getWriteBackFailures());
+        assertFalse(Files.exists(tempDir.resolve("local/.write-back")));
+    }
+
+    private static TieredCacheStorage createStorage(
+        FileCacheStorage localStorage,
+        CacheStorage remoteStorage,
+        CacheServiceMetrics metrics,
+        boolean writeBack,
+        Path tempDir
+    ) {
+        var writeBackConfig = writeBack
+            ? new AsyncWriteConfig(2, 1024 * 1024, tempDir.resolve("local/.write-back").toFile()) : null;
+        return new TieredCacheStorage(localStorage, remoteStorage, metrics, writeBackConfig, Long.MAX_VALUE);
+    }
+}
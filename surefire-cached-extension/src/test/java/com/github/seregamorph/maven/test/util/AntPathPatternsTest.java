@@ -0,0 +1,65 @@
+package com.github.seregamorph.maven.test.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class AntPathPatternsTest {
+
+    @Test
+    public void shouldMatchAny() {
+        var patterns = AntPathPatterns.compile(List.of("META-INF/MANIFEST.MF", "META-INF/maven/**/pom.properties",
+            "**/*Test.class"));
+        assertTrue(patterns.matchesAny("META-INF/MANIFEST.MF"));
+        assertTrue(patterns.matchesAny("META-INF/maven/com.acme/lib/pom.properties"));
+        assertTrue(patterns.matchesAny("com/acme/LibTest.class"));
+        assertTrue(patterns.matchesAny("com\\acme\\LibTest.class"));
+
+        assertFalse(patterns.matchesAny("META-INF/maven/com.acme/lib/pom.xml"));
+        assertFalse(patterns.matchesAny("com/acme/Test.class"));
+        assertFalse(patterns.matchesAny("com/acme/Lib.class"));
+        assertFalse(AntPathPatterns.compile(List.of()).matchesAny("com/acme/Lib.class"));
+    }
+
+    @Test
+    public void shouldMatchModules() {
+        var patterns = AntPathPatterns.compile(List.of("com.acme:*", "org.example.*:core"), ':');
+        assertTrue(patterns.matchesAny("com.acme:lib"));
+        assertTrue(patterns.matchesAny("org.example.module:core"));
+        assertFalse(patterns.matchesAny("com.meac:lib"));
+        assertFalse(patterns.matchesAny("org.example.module:api"));
+    }
+
+    @Test
+    public void shouldMatchSameAsAntPathMatcher() {
+        assertSameAsAntPathMatcher('/', new String[]{"a", "b", "ab", "*", "?", "**", "a*", "*b", "/", "/", "\\"},
+            new String[]{"a", "b", "ab", "ba", "/", "/", "\\"});
+        assertSameAsAntPathMatcher(':', new String[]{"a", "b.c", "*", "**", "*.c", ":", ":"},
+            new String[]{"a", "b", "b.c", ".", ":", ":"});
+    }
+
+    private static void assertSameAsAntPathMatcher(char separator, String[] patternTokens, String[] pathTokens) {
+        var matcher = new AntPathMatcher(String.valueOf(separator));
+        var random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            var pattern = randomString(random, patternTokens);
+            var path = randomString(random, pathTokens);
+            var patterns = AntPathPatterns.compile(List.of(pattern), separator);
+            assertEquals(matcher.match(pattern, path), patterns.matchesAny(path),
+                () -> "pattern [" + pattern + "] path [" + path + "]");
+        }
+    }
+
+    private static String randomString(Random random, String[] tokens) {
+        var sb = new StringBuilder();
+        int length = random.nextInt(7);
+        for (int i = 0; i < length; i++) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.seregamorph.maven.test.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.core.TestTaskInput;
+import java.math.BigInteger;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class HashAlgorithmTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "'', 00000000000000000000000000000000",
+        "hello, 029bbd41b3a7d8cb191dae486a901e5b",
+        "The quick brown fox jumps over the lazy dog, 6c1b07bc7bbc4be347939ac4a93c437a",
+        "0123456789abcdef0123456789abcdef!, 3503929145dd631d6d5858a82a70fcb3",
+    })
+    public void shouldHashMurmur3SameAsReference(String input, String expected) {
+        assertEquals(expected, HashUtils.hashArray(HashAlgorithm.MURMUR3_128, input.getBytes(UTF_8)));
+    }
+
+    @Test
+    public void shouldHashMurmur3Streaming() {
+        var input = new byte[1000];
+        new Random(42).nextBytes(input);
+        var expected = HashUtils.hashArray(HashAlgorithm.MURMUR3_128, input);
+
+        var hasher = HashAlgorithm.MURMUR3_128.newHasher();
+        for (int chunk : new int[]{1, 7, 16, 33}) {
+            for (int offset = 0; offset < input.length; offset += chunk) {
+                hasher.update(input, offset, Math.min(chunk, input.length - offset));
+            }
+            assertEquals(expected, hasher.digestHex());
+        }
+    }
+
+    @Test
+    public void shouldFormatDigestCompatible() {
+        var random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            var digest = new byte[20];
+            random.nextBytes(digest);
+            // leading zeros
+            for (int z = 0; z < i % 12; z++) {
+                digest[z] = 0;
+            }
+            var expected = String.format("%032X", new BigInteger(1, digest)).toLowerCase().substring(0, 32);
+            assertEquals(expected, HashUtils.formatDigest(digest));
+        }
+    }
+
+    @Test
+    public void shouldResolveById() {
+        assertEquals(HashAlgorithm.SHA1, HashAlgorithm.of("sha1"));
+        assertEquals(HashAlgorithm.MURMUR3_128, HashAlgorithm.of("murmur3-128"));
+        assertThrows(IllegalArgumentException.class, () -> HashAlgorithm.of("md5"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    public void shouldSerializeById(HashAlgorithm hashAlgorithm) {
+        var testTaskInput = new TestTaskInput();
+        testTaskInput.setHashAlgorithm(hashAlgorithm);
+        var content = new String(JsonSerializers.serialize(testTaskInput), UTF_8);
+        assertTrue(content.contains("\"hashAlgorithm\" : \"" + hashAlgorithm.id() + "\""), content);
+
+        var json = JsonSerializers.serialize(testTaskInput.getHashAlgorithm());
+        assertEquals(hashAlgorithm, JsonSerializers.deserialize(json, HashAlgorithm.class, "hashAlgorithm"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.seregamorph.maven.test.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.List;
+import java.util.TreeMap;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class KeyHasherTest {
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    public void shouldBeStable(HashAlgorithm hashAlgorithm) {
+        var map = new TreeMap<String, String>();
+        map.put("pkg/Class.class", "a3c4");
+        map.put("pkg/Класс.class", "b5d6");
+        assertEquals(hash(hashAlgorithm, map), hash(hashAlgorithm, new TreeMap<>(map)));
+        assertEquals(32, hash(hashAlgorithm, map).length());
+
+        var longValue = "x".repeat(10_000);
+        assertEquals(new KeyHasher(hashAlgorithm).putString(longValue).digestHex(),
+            new KeyHasher(hashAlgorithm).putString(longValue).digestHex());
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    public void shouldNotCollideOnBoundaries(HashAlgorithm hashAlgorithm) {
+        assertNotEquals(new KeyHasher(hashAlgorithm).putString("a").putString("bc").digestHex(),
+            new KeyHasher(hashAlgorithm).putString("ab").putString("c").digestHex());
+        assertNotEquals(new KeyHasher(hashAlgorithm).putString(null).digestHex(),
+            new KeyHasher(hashAlgorithm).putString("").digestHex());
+        assertNotEquals(new KeyHasher(hashAlgorithm).putStrings(List.of("a", "b")).digestHex(),
+            new KeyHasher(hashAlgorithm).putStrings(List.of("a")).putString("b").digestHex());
+
+        var map = new TreeMap<String, String>();
+        map.put("a", "b");
+        var swapped = new TreeMap<String, String>();
+        swapped.put("b", "a");
+        assertNotEquals(hash(hashAlgorithm, map), hash(hashAlgorithm, swapped));
+    }
+
+    private static String hash(HashAlgorithm hashAlgorithm, TreeMap<String, String> map) {
+        return new KeyHasher(hashAlgorithm).putString("classes").putMap(map).digestHex();
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.seregamorph.maven.test.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipUtilsTest {
+
+    @Test
+    public void shouldPackReproducibly(@TempDir Path tempDir) throws IOException {
+        var dir = tempDir.resolve("reports");
+        Files.createDirectories(dir.resolve("nested"));
+        Files.write(dir.resolve("b.xml"), "<b/>".getBytes(UTF_8));
+        Files.write(dir.resolve("nested/a.xml"), "<a/>".getBytes(UTF_8));
+        var includes = AntPathPatterns.compile(List.of("**/*.xml"));
+
+        var packFile1 = tempDir.resolve("reports1.tar.gz").toFile();
+        ZipUtils.packDirectory(dir.toFile(), includes, packFile1);
+        Files.setLastModifiedTime(dir.resolve("b.xml"), FileTime.fromMillis(System.currentTimeMillis() - 60_000L));
+        var packFile2 = tempDir.resolve("reports2.tar.gz").toFile();
+        ZipUtils.packDirectory(dir.toFile(), includes, packFile2);
+
+        assertArrayEquals(Files.readAllBytes(packFile1.toPath()), Files.readAllBytes(packFile2.toPath()));
+
+        var target = tempDir.resolve("target");
+        ZipUtils.unpackDirectory(packFile2, target.toFile());
+        assertEquals("<a/>", Files.readString(target.resolve("nested/a.xml")));
+        assertEquals("<b/>", Files.readString(target.resolve("b.xml")));
+    }
+}
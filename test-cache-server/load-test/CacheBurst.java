@@ -0,0 +1,128 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the test cache server without k6, the same scenario as cache-burst.js: stores 100 entries, then the
+ * clients repeatedly read a random task output and its 1MB artifacts. Runs with JDK 17+ without compilation:
+ * <pre>
+ * java test-cache-server/load-test/CacheBurst.java http://localhost:8080/cache 200 30
+ * </pre>
+ * The arguments are the base URL, the number of concurrent clients and the duration in seconds.
+ *
+ * @author Sergey Chernov
+ */
+public class CacheBurst {
+
+    private static final int MODULES = 100;
+    private static final int ARTIFACT_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: java CacheBurst.java <baseUrl> <clients> <durationSeconds>");
+            System.exit(1);
+        }
+        String baseUrl = args[0];
+        int clients = Integer.parseInt(args[1]);
+        int durationSeconds = Integer.parseInt(args[2]);
+
+        var http = HttpClient.newBuilder()
+            .executor(Executors.newFixedThreadPool(8))
+            .build();
+        setup(http, baseUrl);
+
+        var outputLatencies = new ConcurrentLinkedQueue<Long>();
+        var artifactsLatencies = new ConcurrentLinkedQueue<Long>();
+        var failed = new AtomicLong();
+        long deadline = System.nanoTime() + durationSeconds * 1_000_000_000L;
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < clients; i++) {
+            var thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    // a restore reads the task output, then the packed artifacts
+                    int module = ThreadLocalRandom.current().nextInt(MODULES);
+                    get(http, entityUri(baseUrl, module, "surefire-cached-output.json"), outputLatencies, failed);
+                    get(http, entityUri(baseUrl, module, "surefire-cached-artifacts.tar.gz"), artifactsLatencies,
+                        failed);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        long requests = outputLatencies.size() + artifactsLatencies.size();
+        System.out.printf("clients=%d duration=%ds requests=%d rate=%.1f/s failed=%d%n", clients, durationSeconds,
+            requests, requests / (double) durationSeconds, failed.get());
+        report("output", outputLatencies);
+        report("artifacts", artifactsLatencies);
+        System.exit(0);
+    }
+
+    private static void setup(HttpClient http, String baseUrl) throws Exception {
+        var artifacts = new byte[ARTIFACT_SIZE];
+        Arrays.fill(artifacts, (byte) 'x');
+        var output = """
+            {"startTime":"2025-01-01T00:00:00Z","endTime":"2025-01-01T00:01:00Z","totalTimeSeconds":60,\
+            "totalTestTimeSeconds":55,"totalTests":100,"totalErrors":0,"totalFailures":0,"artifacts":{}}""";
+        for (int module = 0; module < MODULES; module++) {
+            put(http, entityUri(baseUrl, module, "surefire-cached-artifacts.tar.gz"), artifacts);
+            put(http, entityUri(baseUrl, module, "surefire-cached-output.json"), output.getBytes());
+        }
+    }
+
+    private static URI entityUri(String baseUrl, int module, String fileName) {
+        return URI.create(baseUrl + "/surefire-cached/com.example.loadtest/module-" + module + "/hash-" + module
+            + "/" + fileName);
+    }
+
+    private static void put(HttpClient http, URI uri, byte[] body) throws Exception {
+        var response = http.send(HttpRequest.newBuilder(uri)
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Failed to store " + uri + ": " + response.statusCode());
+        }
+    }
+
+    private static void get(HttpClient http, URI uri, Queue<Long> latencies, AtomicLong failed) {
+        long start = System.nanoTime();
+        try {
+            var response = http.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                failed.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+        }
+        latencies.add((System.nanoTime() - start) / 1000L);
+    }
+
+    private static void report(String entity, Queue<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        Collections.sort(sorted);
+        System.out.printf("%s: n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms%n", entity, sorted.size(),
+            percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+            sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        return sorted.get((int) (sorted.size() * percentile)) / 1000.0;
+    }
+}
@@ -0,0 +1,68 @@
+// k6 load test of the test cache server: a burst of CI agents restoring the same cache entries after a merge.
+// Usage: k6 run -e BASE_URL=http://localhost:8080/cache -e VUS=5000 test-cache-server/load-test/cache-burst.js
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080/cache';
+const VUS = parseInt(__ENV.VUS || '5000');
+const DURATION = __ENV.DURATION || '5m';
+const MODULES = parseInt(__ENV.MODULES || '100');
+const ARTIFACT_SIZE = parseInt(__ENV.ARTIFACT_SIZE || '1048576');
+
+export const options = {
+    discardResponseBodies: true,
+    scenarios: {
+        burst: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '1m', target: VUS },
+                { duration: DURATION, target: VUS },
+                { duration: '30s', target: 0 },
+            ],
+            gracefulRampDown: '30s',
+        },
+    },
+    thresholds: {
+        'http_req_failed': ['rate<0.01'],
+        'http_req_duration{entity:output}': ['p(99)<1000'],
+        'http_req_duration{entity:artifacts}': ['p(99)<5000'],
+    },
+};
+
+function entityUrl(module, fileName) {
+    return `${BASE_URL}/surefire-cached/com.example.loadtest/module-${module}/hash-${module}/${fileName}`;
+}
+
+export function setup() {
+    const artifacts = 'x'.repeat(ARTIFACT_SIZE);
+    for (let module = 0; module < MODULES; module++) {
+        const output = JSON.stringify({
+            startTime: '2025-01-01T00:00:00Z',
+            endTime: '2025-01-01T00:01:00Z',
+            totalTimeSeconds: 60,
+            totalTestTimeSeconds: 55,
+            totalTests: 100,
+            totalErrors: 0,
+            totalFailures: 0,
+            artifacts: {},
+        });
+        const params = { headers: { 'Content-Type': 'application/octet-stream' } };
+        check(http.put(entityUrl(module, 'surefire-cached-artifacts.tar.gz'), artifacts, params), {
+            'artifacts stored': (r) => r.status === 200,
+        });
+        check(http.put(entityUrl(module, 'surefire-cached-output.json'), output, params), {
+            'output stored': (r) => r.status === 200,
+        });
+    }
+}
+
+export default function () {
+    // a restore reads the task output, then the packed artifacts
+    const module = Math.floor(Math.random() * MODULES);
+    const output = http.get(entityUrl(module, 'surefire-cached-output.json'), { tags: { entity: 'output' } });
+    check(output, { 'output found': (r) => r.status === 200 });
+    const artifacts = http.get(entityUrl(module, 'surefire-cached-artifacts.tar.gz'),
+        { tags: { entity: 'artifacts' } });
+    check(artifacts, { 'artifacts found': (r) => r.status === 200 });
+}
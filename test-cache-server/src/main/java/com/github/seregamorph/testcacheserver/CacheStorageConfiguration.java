@@ -1,12 +1,16 @@
 package com.github.seregamorph.testcacheserver;
 
 import com.github.seregamorph.maven.test.storage.CacheStorage;
-import com.github.seregamorph.maven.test.storage.FileCacheStorage;
+import com.github.seregamorph.testcacheserver.storage.EvictingFileCacheStorage;
+import com.github.seregamorph.testcacheserver.storage.EvictionPolicy;
 import java.io.File;
+import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 
 /**
  * @author Sergey Chernov
@@ -20,14 +24,25 @@ public class CacheStorageConfiguration {
     // Configure it if needed instead of FileCacheStorage
 
     @Bean
-    public CacheStorage cacheStorage() {
+    public CacheStorage cacheStorage(
+        @Value("${test-cache-server.storage.dir:}") String dir,
+        @Value("${test-cache-server.storage.max-size:50GB}") DataSize maxSize,
+        @Value("${test-cache-server.storage.max-entries-per-module:16}") int maxEntriesPerModule,
+        @Value("${test-cache-server.storage.min-idle:5m}") Duration minIdle,
+        @Value("${test-cache-server.storage.eviction-policy:gdsf}") EvictionPolicy evictionPolicy
+    ) {
+        var baseDir = dir.isEmpty() ? getDefaultDir() : new File(dir);
+        logger.info("Using cache storage located at {} with max size {} and {} eviction", baseDir, maxSize,
+            evictionPolicy);
+        return new EvictingFileCacheStorage(baseDir, maxSize.toBytes(), maxEntriesPerModule, minIdle, evictionPolicy);
+    }
+
+    private static File getDefaultDir() {
         String userHome = System.getProperty("user.home");
         if (userHome == null) {
             throw new IllegalStateException("Could not resolve default cacheStorageUrl, user.home is not defined.\n"
-                + "Please provide custom CacheStorageConfiguration.");
+                + "Please provide test-cache-server.storage.dir property.");
         }
-        var baseDir = new File(userHome, ".m2/test-cache-server");
-        logger.info("Using cache storage located at {}", baseDir);
-        return new FileCacheStorage(baseDir, 16);
+        return new File(userHome, ".m2/test-cache-server");
     }
 }
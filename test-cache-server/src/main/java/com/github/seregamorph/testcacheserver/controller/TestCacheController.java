@@ -3,18 +3,30 @@ package com.github.seregamorph.testcacheserver.controller;
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
 import com.github.seregamorph.maven.test.common.GroupArtifactId;
 import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.testcacheserver.service.CacheKeyFilterService;
+import com.github.seregamorph.testcacheserver.service.FileChannelResource;
 import com.github.seregamorph.testcacheserver.service.TestCacheService;
 import io.micrometer.core.annotation.Counted;
 import io.micrometer.core.annotation.Timed;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.apache.catalina.Globals;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 /**
  * @author Sergey Chernov
@@ -23,10 +35,20 @@ import org.springframework.web.bind.annotation.RequestMapping;
 @RequestMapping("/cache")
 public class TestCacheController {
 
+    private static final int MAX_BATCH_SIZE = 256;
+    /**
+     * Max size of an entity in the batch response, the larger ones should be read with GET
+     */
+    private static final int MAX_BATCH_ENTITY_BYTES = 1024 * 1024;
+    private static final long BATCH_ENTITY_MISSING = -1L;
+    private static final long BATCH_ENTITY_TOO_LARGE = -2L;
+
     private final TestCacheService testCacheService;
+    private final CacheKeyFilterService cacheKeyFilterService;
 
-    public TestCacheController(TestCacheService testCacheService) {
+    public TestCacheController(TestCacheService testCacheService, CacheKeyFilterService cacheKeyFilterService) {
         this.testCacheService = testCacheService;
+        this.cacheKeyFilterService = cacheKeyFilterService;
     }
 
     @Timed(value = "putCache")
@@ -38,35 +60,170 @@ public class TestCacheController {
         @PathVariable("artifactId") String artifactId,
         @PathVariable("hash") String hash,
         @PathVariable("fileName") String fileName,
-        @RequestBody byte[] body
-    ) {
+        HttpServletRequest request
+    ) throws IOException {
         var cacheEntryKey = new CacheEntryKey(pluginName, new GroupArtifactId(groupId, artifactId), hash);
-        testCacheService.putCache(cacheEntryKey, fileName, body);
+        // the body is streamed to the storage without buffering
+        try (var body = request.getInputStream()) {
+            testCacheService.putCache(cacheEntryKey, fileName, body, request.getContentLengthLong());
+        }
         return ResponseEntity.ok().build();
     }
 
+    @Timed(value = "putReference")
+    @Counted(value = "putReference")
+    @PostMapping(path = "/{pluginName}/{groupId}/{artifactId}/{hash}/{fileName}", params = "contentHash")
+    public ResponseEntity<?> putReference(
+        @PathVariable("pluginName") PluginName pluginName,
+        @PathVariable("groupId") String groupId,
+        @PathVariable("artifactId") String artifactId,
+        @PathVariable("hash") String hash,
+        @PathVariable("fileName") String fileName,
+        @RequestParam("contentHash") String contentHash
+    ) {
+        var cacheEntryKey = new CacheEntryKey(pluginName, new GroupArtifactId(groupId, artifactId), hash);
+        if (testCacheService.putReference(cacheEntryKey, fileName, contentHash)) {
+            return ResponseEntity.ok().build();
+        }
+        // the content is unknown, the client should upload it with PUT
+        return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Read many small entities in one request. The request body has a line per entity
+     * "$pluginName/$groupId/$artifactId/$hash/$fileName", the response has the entities in the same order, each one
+     * is prefixed with its length as 8-byte big-endian number (-1 if the entity does not exist, -2 if it's larger
+     * than 1 MB and should be read with GET).
+     */
+    @Timed(value = "getCacheBatch")
+    @Counted(value = "getCacheBatch")
+    @PostMapping(path = "/batch", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public void getCacheBatch(@RequestBody String body, HttpServletResponse response) throws IOException {
+        var entities = new ArrayList<BatchEntity>();
+        for (var line : body.split("\n")) {
+            if (!line.isBlank()) {
+                entities.add(BatchEntity.parse(line.trim()));
+            }
+        }
+        if (entities.size() > MAX_BATCH_SIZE) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many entities: " + entities.size());
+            return;
+        }
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        var out = new DataOutputStream(new BufferedOutputStream(response.getOutputStream()));
+        for (var entity : entities) {
+            var resource = testCacheService.getCache(entity.cacheEntryKey(), entity.fileName());
+            if (resource == null) {
+                out.writeLong(BATCH_ENTITY_MISSING);
+                continue;
+            }
+            if (resource instanceof FileChannelResource fileResource) {
+                // the length is known, the content is streamed from the opened file
+                try (fileResource) {
+                    if (fileResource.contentLength() > MAX_BATCH_ENTITY_BYTES) {
+                        out.writeLong(BATCH_ENTITY_TOO_LARGE);
+                    } else {
+                        out.writeLong(fileResource.contentLength());
+                        fileResource.transferTo(out);
+                    }
+                }
+                continue;
+            }
+            byte[] bytes;
+            try (var in = resource.getInputStream()) {
+                bytes = in.readNBytes(MAX_BATCH_ENTITY_BYTES + 1);
+            }
+            if (bytes.length > MAX_BATCH_ENTITY_BYTES) {
+                out.writeLong(BATCH_ENTITY_TOO_LARGE);
+            } else {
+                out.writeLong(bytes.length);
+                out.write(bytes);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Bloom filter of the existing cache entries, see CacheKeyFilter for the format. Clients download it once per
+     * build and skip the requests of definitely missing entries.
+     */
+    @Timed(value = "getCacheKeyFilter")
+    @Counted(value = "getCacheKeyFilter")
+    @GetMapping("/filter")
+    public ResponseEntity<byte[]> getCacheKeyFilter() {
+        var filter = cacheKeyFilterService.getFilter();
+        if (filter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .body(filter);
+    }
+
     @Timed(value = "getCache")
     @Counted(value = "getCache")
     @GetMapping("/{pluginName}/{groupId}/{artifactId}/{hash}/{fileName}")
-    public ResponseEntity<byte[]> getCache(
+    public ResponseEntity<Resource> getCache(
         @PathVariable("pluginName") PluginName pluginName,
         @PathVariable("groupId") String groupId,
         @PathVariable("artifactId") String artifactId,
         @PathVariable("hash") String hash,
-        @PathVariable("fileName") String fileName
-    ) {
+        @PathVariable("fileName") String fileName,
+        HttpServletRequest request,
+        HttpServletResponse response
+    ) throws IOException {
         var cacheEntryKey = new CacheEntryKey(pluginName, new GroupArtifactId(groupId, artifactId), hash);
         var body = testCacheService.getCache(cacheEntryKey, fileName);
         if (body == null) {
             return ResponseEntity.notFound().build();
         }
+        var contentDisposition = "attachment; filename=\"" + fileName + "\"";
+        if (body instanceof FileChannelResource fileResource) {
+            try (fileResource) {
+                var length = fileResource.contentLength();
+                var pinnedFile = fileResource.getPinnedFile();
+                if (pinnedFile != null && Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+                    // Tomcat sends the file via sendfile (zero-copy) after the handler, the body is not written.
+                    // The stored file may be replaced meanwhile, so the blob with the content of this length is sent
+                    request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, pinnedFile.getAbsolutePath());
+                    request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, 0L);
+                    request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, length);
+                    return ResponseEntity.ok()
+                        .contentType(getContentType(fileName))
+                        .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                        .contentLength(length)
+                        .build();
+                }
+                // copied from the file opened by the service, the stored one may be replaced meanwhile
+                response.setContentType(getContentType(fileName).toString());
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+                response.setContentLengthLong(length);
+                fileResource.transferTo(response.getOutputStream());
+            }
+            // the response is already written
+            return null;
+        }
         return ResponseEntity.ok()
             .contentType(getContentType(fileName))
-            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+            .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
             .body(body);
     }
 
     private static MediaType getContentType(String fileName) {
         return fileName.endsWith(".json") ? MediaType.APPLICATION_JSON : MediaType.APPLICATION_OCTET_STREAM;
     }
+
+    private record BatchEntity(CacheEntryKey cacheEntryKey, String fileName) {
+
+        static BatchEntity parse(String line) {
+            var parts = line.split("/");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Invalid batch entity: " + line);
+            }
+            var cacheEntryKey = new CacheEntryKey(PluginName.valueOf(parts[0]),
+                new GroupArtifactId(parts[1], parts[2]), parts[3]);
+            return new BatchEntity(cacheEntryKey, parts[4]);
+        }
+    }
 }
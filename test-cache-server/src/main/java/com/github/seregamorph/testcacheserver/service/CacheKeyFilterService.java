@@ -0,0 +1,165 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
+import com.github.seregamorph.maven.test.storage.CacheStorage;
+import com.github.seregamorph.maven.test.storage.FileCacheStorage;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Maintains the filter of existing cache entries, which is downloaded by the clients to skip lookups of missing
+ * entries. The filter is built from the storage on the first request and then updated on each write. Evicted entries
+ * stay in the filter (false positives are allowed) until it's rebuilt, this happens when the number of added entries
+ * reaches the capacity of the filter.
+ * <p>
+ * The rebuild lists the storage in a background thread while the old filter is still served and updated, then the
+ * new filter is swapped in together with the entries added during the rebuild. The writes only take the shared read
+ * lock, which is a {@link java.util.concurrent.locks.Lock} (unlike synchronized it does not pin virtual threads).
+ *
+ * @author Sergey Chernov
+ */
+@Service
+public class CacheKeyFilterService implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheKeyFilterService.class);
+
+    private static final int MIN_EXPECTED_KEYS = 10_000;
+
+    /**
+     * Null if the storage can't list the entries, then the filter is not provided
+     */
+    @Nullable
+    private final FileCacheStorage fileCacheStorage;
+    private final ExecutorService rebuildExecutor;
+
+    /**
+     * Read lock for the updates of the current filter, write lock for the swap
+     */
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    @Nullable
+    private volatile FilterState state;
+    private final AtomicInteger keys = new AtomicInteger();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    /**
+     * Keys added during the rebuild, they may be missing in the listing of the storage
+     */
+    private final Set<String> rebuildKeys = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Void> initialBuild = new CompletableFuture<>();
+
+    public CacheKeyFilterService(CacheStorage cacheStorage) {
+        this.fileCacheStorage = cacheStorage instanceof FileCacheStorage ? (FileCacheStorage) cacheStorage : null;
+        this.rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "test-cache-key-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return serialized filter or null if it's not supported by the storage (or the initial build failed)
+     */
+    @Nullable
+    public byte[] getFilter() {
+        if (fileCacheStorage == null) {
+            return null;
+        }
+        var current = state;
+        if (current == null) {
+            // only the first request waits for the filter
+            scheduleRebuild();
+            try {
+                initialBuild.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building cache key filter", e);
+            } catch (ExecutionException e) {
+                // already logged, the lookups of the clients are not filtered
+                return null;
+            }
+            current = state;
+        }
+        // the filter is thread-safe, concurrent writes are either included or not
+        return current.filter.toByteArray();
+    }
+
+    public void addEntry(CacheEntryKey cacheEntryKey) {
+        var key = CacheKeyFilter.getKey(cacheEntryKey);
+        boolean overCapacity;
+        var readLock = swapLock.readLock();
+        readLock.lock();
+        try {
+            if (rebuilding.get()) {
+                rebuildKeys.add(key);
+            }
+            var current = state;
+            if (current == null) {
+                // not requested yet, will be built with this entry
+                return;
+            }
+            overCapacity = current.filter.put(key) && keys.incrementAndGet() > current.expectedKeys;
+        } finally {
+            readLock.unlock();
+        }
+        if (overCapacity) {
+            scheduleRebuild();
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (rebuilding.compareAndSet(false, true)) {
+            rebuildExecutor.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        assert fileCacheStorage != null;
+        try {
+            long start = System.nanoTime();
+            var entryKeys = fileCacheStorage.getEntryKeys();
+            int expectedKeys = Math.max(MIN_EXPECTED_KEYS, entryKeys.size() * 2);
+            var newFilter = CacheKeyFilter.create(expectedKeys);
+            entryKeys.forEach(entryKey -> newFilter.put(CacheKeyFilter.getKey(entryKey)));
+            var writeLock = swapLock.writeLock();
+            writeLock.lock();
+            try {
+                rebuildKeys.forEach(newFilter::put);
+                keys.set(entryKeys.size() + rebuildKeys.size());
+                rebuildKeys.clear();
+                state = new FilterState(newFilter, expectedKeys);
+                rebuilding.set(false);
+            } finally {
+                writeLock.unlock();
+            }
+            initialBuild.complete(null);
+            logger.info("Built cache key filter of {} entries in {}ms", entryKeys.size(),
+                (System.nanoTime() - start) / 1_000_000L);
+        } catch (RuntimeException e) {
+            // the previous filter (if any) is still used
+            logger.error("Failed to build cache key filter", e);
+            rebuildKeys.clear();
+            rebuilding.set(false);
+            initialBuild.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    private record FilterState(CacheKeyFilter filter, int expectedKeys) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import com.github.seregamorph.maven.test.storage.CacheStorage;
+import com.github.seregamorph.testcacheserver.storage.EvictingFileCacheStorage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import javax.annotation.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Size and value of the retained and evicted cache entries. The value of an entry is the test time saved by a hit
+ * multiplied by the number of hits since startup (as ranked by the GDSF eviction policy), so "cache.storage.saved.time.seconds.per.gb" shows how effectively the disk budget is used and
+ * "cache.storage.evicted.saved.time.seconds" how much of the value is lost by eviction.
+ *
+ * @author Sergey Chernov
+ */
+@Component
+public class CacheStorageMetrics implements MeterBinder {
+
+    private static final double BYTES_PER_GB = 1024.0 * 1024.0 * 1024.0;
+
+    /**
+     * Null if the storage does not track its entries, then no metrics are provided
+     */
+    @Nullable
+    private final EvictingFileCacheStorage evictingCacheStorage;
+
+    public CacheStorageMetrics(CacheStorage cacheStorage) {
+        this.evictingCacheStorage = cacheStorage instanceof EvictingFileCacheStorage evicting ? evicting : null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (evictingCacheStorage == null) {
+            return;
+        }
+        var storage = evictingCacheStorage;
+        var policy = storage.getEvictionPolicy().name();
+
+        Gauge.builder("cache.storage.size", storage, EvictingFileCacheStorage::getTotalBytes)
+            .baseUnit(BaseUnits.BYTES)
+            .register(registry);
+        Gauge.builder("cache.storage.entries", storage, EvictingFileCacheStorage::getEntries)
+            .register(registry);
+        Gauge.builder("cache.storage.saved.time.seconds", storage, EvictingFileCacheStorage::getRetainedSavedSeconds)
+            .tag("policy", policy)
+            .register(registry);
+        Gauge.builder("cache.storage.saved.time.seconds.per.gb", storage, CacheStorageMetrics::getSavedSecondsPerGb)
+            .tag("policy", policy)
+            .register(registry);
+
+        FunctionCounter.builder("cache.storage.evicted.entries", storage, EvictingFileCacheStorage::getEvictedEntries)
+            .tag("policy", policy)
+            .register(registry);
+        FunctionCounter.builder("cache.storage.evicted.saved.time.seconds", storage,
+                EvictingFileCacheStorage::getEvictedSavedSeconds)
+            .tag("policy", policy)
+            .register(registry);
+    }
+
+    private static double getSavedSecondsPerGb(EvictingFileCacheStorage storage) {
+        long totalBytes = storage.getTotalBytes();
+        return totalBytes == 0L ? 0.0 : storage.getRetainedSavedSeconds() / (totalBytes / BYTES_PER_GB);
+    }
+}
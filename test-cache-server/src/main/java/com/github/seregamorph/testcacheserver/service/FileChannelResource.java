@@ -0,0 +1,120 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import javax.annotation.Nullable;
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Stored file opened by the handler. The length and the content are of the same opened file, even if the stored one
+ * is replaced (atomic move) meanwhile, so the response always matches its Content-Length. The resource should be
+ * closed by the caller.
+ * <p>
+ * If the stored file is a hard link to a content-addressable blob of the same length, the blob is the pinned file:
+ * its content is never replaced, so it may be sent by path via sendfile after the handler.
+ *
+ * @author Sergey Chernov
+ */
+public final class FileChannelResource extends AbstractResource implements Closeable {
+
+    private final FileChannel channel;
+    private final long length;
+    @Nullable
+    private final File pinnedFile;
+    private final String description;
+
+    private FileChannelResource(FileChannel channel, long length, @Nullable File pinnedFile, String description) {
+        this.channel = channel;
+        this.length = length;
+        this.pinnedFile = pinnedFile;
+        this.description = description;
+    }
+
+    /**
+     * @param file       stored file
+     * @param pinnedFile optional blob of the stored file, ignored if its length differs from the opened file
+     * @return opened resource or null if the file does not exist
+     */
+    @Nullable
+    static FileChannelResource open(File file, @Nullable File pinnedFile) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            long length = channel.size();
+            if (pinnedFile != null && pinnedFile.length() != length) {
+                // replaced after the blob was resolved
+                pinnedFile = null;
+            }
+            return new FileChannelResource(channel, length, pinnedFile, "file [" + file + "]");
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file with the same content which may be reopened by path (e.g. for sendfile) or null
+     */
+    @Nullable
+    public File getPinnedFile() {
+        return pinnedFile;
+    }
+
+    /**
+     * Write the content of the opened file to the stream. This is not zero-copy: the content is copied in chunks
+     * through the buffers of the stream channel, so it's a fallback if sendfile is not available.
+     */
+    public void transferTo(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = 0L;
+        while (position < length) {
+            long transferred = channel.transferTo(position, length - position, target);
+            if (transferred <= 0L) {
+                throw new IOException("Unexpected end of " + description + " at " + position + " of " + length);
+            }
+            position += transferred;
+        }
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return Channels.newInputStream(channel);
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import com.github.seregamorph.maven.test.storage.CacheStorageException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Optional in-memory tier of the hot cache entities in front of the storage (e.g. the entries of the main branch
+ * requested by many CI agents at once). The cache is bounded by the total size of the entities and uses the
+ * frequency-aware W-TinyLFU admission of Caffeine, so a scan of entities requested once does not flush the hot ones.
+ * The content is kept in direct buffers outside of the heap (the limit is -XX:MaxDirectMemorySize, by default the
+ * max heap size).
+ * <p>
+ * The entities are loaded from the stored file straight into a direct buffer on the first request, the concurrent
+ * requests of the same entity wait for this load instead of reading the file again. The invalidation on write waits
+ * for the load in progress as well, so the content loaded before the write is not cached after it. The entities
+ * expire after some time without access, which should be less than the min idle time of the storage eviction: the
+ * reads of the cached entities are not visible to the storage, so they are reported via {@link TestCacheService}.
+ * <p>
+ * The direct buffers of the evicted entities are not released explicitly (the cached ones may still be read by
+ * in-flight responses), their memory is freed when they are garbage collected, so the direct memory usage may exceed
+ * the max size for a while. If the direct memory is exhausted, the entity is served from the storage.
+ *
+ * @author Sergey Chernov
+ */
+@Component
+public class HotTierCache implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotTierCache.class);
+
+    /**
+     * Null if disabled
+     */
+    @Nullable
+    private final Cache<EntityKey, ByteBuffer> cache;
+    private final int maxEntityBytes;
+
+    public HotTierCache(
+        @Value("${test-cache-server.hot-tier.max-size:0}") DataSize maxSize,
+        @Value("${test-cache-server.hot-tier.max-entity-size:16MB}") DataSize maxEntitySize,
+        @Value("${test-cache-server.hot-tier.expire-after-access:1m}") Duration expireAfterAccess
+    ) {
+        if (maxSize.toBytes() > 0L) {
+            logger.info("Using hot tier cache of max size {} (max entity size {})", maxSize, maxEntitySize);
+            this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((EntityKey key, ByteBuffer value) -> Math.max(1, value.capacity()))
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        } else {
+            this.cache = null;
+        }
+        this.maxEntityBytes = (int) Math.min(maxEntitySize.toBytes(), Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * @return stream of the cached entity content or null if it's not cached
+     */
+    @Nullable
+    public InputStream get(CacheEntryKey cacheEntryKey, String fileName) {
+        if (cache == null) {
+            return null;
+        }
+        ByteBuffer buffer = cache.getIfPresent(new EntityKey(cacheEntryKey, fileName));
+        // independent position for each reader
+        return buffer == null ? null : new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Get the cached entity or load it from the stored file if it's small enough.
+     *
+     * @return stream of the cached entity content or null if it's not cacheable (then it should be read from the
+     * storage)
+     */
+    @Nullable
+    public InputStream getOrLoad(CacheEntryKey cacheEntryKey, String fileName, File file) {
+        if (cache == null) {
+            return null;
+        }
+        var entityKey = new EntityKey(cacheEntryKey, fileName);
+        ByteBuffer buffer = cache.getIfPresent(entityKey);
+        if (buffer == null) {
+            // zero for a missing file
+            long length = file.length();
+            if (length == 0L || length > maxEntityBytes) {
+                return null;
+            }
+            // the miss is already counted; the loader returns null (not cached) if the file was deleted or replaced
+            // by a big one meanwhile
+            buffer = cache.asMap().computeIfAbsent(entityKey, key -> load(file));
+        }
+        return buffer == null ? null : new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * @return true if the entity of such size may be cached
+     */
+    public boolean isCacheable(long length) {
+        return cache != null && length <= maxEntityBytes;
+    }
+
+    public void invalidate(CacheEntryKey cacheEntryKey, String fileName) {
+        if (cache != null) {
+            cache.invalidate(new EntityKey(cacheEntryKey, fileName));
+        }
+    }
+
+    @Nullable
+    ByteBuffer load(File file) {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0L || size > maxEntityBytes) {
+                return null;
+            }
+            ByteBuffer buffer;
+            try {
+                buffer = ByteBuffer.allocateDirect((int) size);
+            } catch (OutOfMemoryError e) {
+                // the direct memory of the evicted entities is not garbage collected yet
+                logger.warn("Failed to allocate {} bytes for hot tier cache: {}", size, e.toString());
+                return null;
+            }
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read till the end
+            }
+            if (buffer.hasRemaining()) {
+                // truncated meanwhile
+                return null;
+            }
+            return buffer.flip().asReadOnlyBuffer();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CacheStorageException("Error reading " + file, e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache == null) {
+            return;
+        }
+        CaffeineCacheMetrics.monitor(registry, cache, "hotTier");
+        Gauge.builder("cache.hot.tier.size", cache, HotTierCache::getWeightedSize)
+            .baseUnit(BaseUnits.BYTES)
+            .register(registry);
+    }
+
+    private static long getWeightedSize(Cache<EntityKey, ByteBuffer> cache) {
+        return cache.policy().eviction()
+            .flatMap(eviction -> eviction.weightedSize().stream().boxed().findFirst())
+            .orElse(0L);
+    }
+
+    private record EntityKey(CacheEntryKey cacheEntryKey, String fileName) {
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
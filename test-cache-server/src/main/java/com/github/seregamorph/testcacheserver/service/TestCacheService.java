@@ -1,14 +1,26 @@
 package com.github.seregamorph.testcacheserver.service;
 
+import com.github.seregamorph.maven.test.common.CacheBundle;
 import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.PluginName;
 import com.github.seregamorph.maven.test.common.TestTaskOutput;
 import com.github.seregamorph.maven.test.storage.CacheStorage;
+import com.github.seregamorph.maven.test.storage.FileCacheStorage;
 import com.github.seregamorph.maven.test.util.JsonSerializers;
 import com.github.seregamorph.maven.test.util.ValidatorUtils;
+import com.github.seregamorph.testcacheserver.storage.EvictingFileCacheStorage;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
 /**
@@ -21,87 +33,266 @@ public class TestCacheService {
         "surefire-cached-output.json",
         "failsafe-cached-output.json"
     );
+    private static final List<String> TRACKED_BUNDLES = List.of(
+        CacheBundle.getBundleFileName(PluginName.SUREFIRE_CACHED),
+        CacheBundle.getBundleFileName(PluginName.FAILSAFE_CACHED)
+    );
+
+    private static final Pattern CONTENT_HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
 
     private final CacheStorage cacheStorage;
+    @Nullable
+    private final EvictingFileCacheStorage evictingCacheStorage;
+    private final HotTierCache hotTierCache;
+    private final CacheKeyFilterService cacheKeyFilterService;
     private final MeterRegistry meterRegistry;
 
-    public TestCacheService(CacheStorage cacheStorage, MeterRegistry meterRegistry) {
+    public TestCacheService(
+        CacheStorage cacheStorage,
+        HotTierCache hotTierCache,
+        CacheKeyFilterService cacheKeyFilterService,
+        MeterRegistry meterRegistry
+    ) {
         this.cacheStorage = cacheStorage;
+        this.evictingCacheStorage = cacheStorage instanceof EvictingFileCacheStorage evicting ? evicting : null;
+        this.hotTierCache = hotTierCache;
+        this.cacheKeyFilterService = cacheKeyFilterService;
         this.meterRegistry = meterRegistry;
     }
 
-    public void putCache(CacheEntryKey cacheEntryKey, String fileName, byte[] body) {
+    public void putCache(CacheEntryKey cacheEntryKey, String fileName, InputStream body, long contentLength)
+        throws IOException {
         ValidatorUtils.validateFileName(fileName);
-        cacheStorage.write(cacheEntryKey, fileName, body);
         var pluginName = cacheEntryKey.pluginName().name();
+        var sizeCounter = Counter.builder("put.cache.size")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry);
+
+        if (TRACKED_TASK_OUTPUTS.contains(fileName)) {
+            // small json entity, buffered to collect metrics
+            var bytes = body.readAllBytes();
+            cacheStorage.write(cacheEntryKey, fileName, bytes);
+            sizeCounter.increment(bytes.length);
+            countPut(pluginName, JsonSerializers.deserialize(bytes, TestTaskOutput.class, fileName));
+        } else {
+            cacheStorage.writeStream(cacheEntryKey, fileName, countingStream(body, sizeCounter), contentLength);
+            if (TRACKED_BUNDLES.contains(fileName)) {
+                var testTaskOutput = readBundleTaskOutput(cacheEntryKey, fileName);
+                if (testTaskOutput != null) {
+                    countPut(pluginName, testTaskOutput);
+                }
+            }
+        }
 
-        Counter.builder("put.cache.size")
+        hotTierCache.invalidate(cacheEntryKey, fileName);
+        cacheKeyFilterService.addEntry(cacheEntryKey);
+
+        Counter.builder("put.cache.files")
             .tag("pluginName", pluginName)
             .register(meterRegistry)
-            .increment(body.length);
+            .increment();
+    }
 
-        Counter.builder("put.cache.files")
+    private void countPut(String pluginName, TestTaskOutput testTaskOutput) {
+        Counter.builder("put.cache")
             .tag("pluginName", pluginName)
             .register(meterRegistry)
             .increment();
 
-        if (TRACKED_TASK_OUTPUTS.contains(fileName)) {
-            Counter.builder("put.cache")
-                .tag("pluginName", pluginName)
-                .register(meterRegistry)
-                .increment();
-
-            var testTaskOutput = JsonSerializers.deserialize(body, TestTaskOutput.class, fileName);
-            var totalTimeSeconds = testTaskOutput.getTotalTimeSeconds();
-            Counter.builder("cache.spent.time.seconds")
-                .tag("pluginName", pluginName)
-                .register(meterRegistry)
-                .increment(totalTimeSeconds.doubleValue());
+        Counter.builder("cache.spent.time.seconds")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry)
+            .increment(testTaskOutput.getTotalTimeSeconds().doubleValue());
+    }
+
+    /**
+     * Store the entity as a reference to the already stored content with the same SHA-256 hash.
+     *
+     * @return true if the content is known, false if it should be uploaded
+     */
+    public boolean putReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+        ValidatorUtils.validateFileName(fileName);
+        if (TRACKED_TASK_OUTPUTS.contains(fileName) || !CONTENT_HASH_PATTERN.matcher(contentHash).matches()) {
+            // task outputs are always uploaded to collect metrics
+            return false;
         }
+        var referenced = cacheStorage.writeReference(cacheEntryKey, fileName, contentHash);
+        if (referenced) {
+            hotTierCache.invalidate(cacheEntryKey, fileName);
+            cacheKeyFilterService.addEntry(cacheEntryKey);
+        }
+        Counter.builder("put.cache.references")
+            .tag("pluginName", cacheEntryKey.pluginName().name())
+            .tag("exist", Boolean.toString(referenced))
+            .register(meterRegistry)
+            .increment();
+        return referenced;
     }
 
+    /**
+     * @return the entity content or null if it does not exist. Big entities of the file storage are returned as an
+     * opened {@link FileChannelResource} to be sent via sendfile or streamed from the opened file, others as an
+     * {@link InputStreamResource} or {@link ByteArrayResource} (the resource or its stream should be closed by the
+     * caller).
+     */
     @Nullable
-    public byte[] getCache(CacheEntryKey cacheEntryKey, String fileName) {
+    public Resource getCache(CacheEntryKey cacheEntryKey, String fileName) throws IOException {
         ValidatorUtils.validateFileName(fileName);
-        var body = cacheStorage.read(cacheEntryKey, fileName);
+        var file = TRACKED_TASK_OUTPUTS.contains(fileName) ? null : openStoredFile(cacheEntryKey, fileName);
+        var body = file == null ? readStream(cacheEntryKey, fileName) : null;
+        var exists = file != null || body != null;
         var pluginName = cacheEntryKey.pluginName().name();
 
-        if (body != null) {
-            Counter.builder("get.cache.size")
-                .tag("pluginName", pluginName)
-                .register(meterRegistry)
-                .increment(body.length);
-        }
-
         // this is different from "get_cache_hit" - calculate all returned files
         Counter.builder("get.cache.files")
             .tag("pluginName", pluginName)
-            .tag("exist", Boolean.toString(body != null))
+            .tag("exist", Boolean.toString(exists))
             .register(meterRegistry)
             .increment();
 
+        var sizeCounter = Counter.builder("get.cache.size")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry);
         if (TRACKED_TASK_OUTPUTS.contains(fileName)) {
             // "get_cache_miss" and "get_cache_hit" calculate once per test execution entity
             if (body == null) {
-                Counter.builder("get.cache.miss")
-                    .tag("pluginName", pluginName)
-                    .register(meterRegistry)
-                    .increment();
+                countGetMiss(pluginName);
                 return null;
             }
 
-            Counter.builder("get.cache.hit")
-                .tag("pluginName", pluginName)
-                .register(meterRegistry)
-                .increment();
+            byte[] bytes;
+            try (body) {
+                bytes = body.readAllBytes();
+            }
+            sizeCounter.increment(bytes.length);
+            countGetHit(cacheEntryKey, JsonSerializers.deserialize(bytes, TestTaskOutput.class, fileName));
+            return new ByteArrayResource(bytes);
+        }
+
+        if (TRACKED_BUNDLES.contains(fileName)) {
+            if (!exists) {
+                countGetMiss(pluginName);
+                return null;
+            }
+            TestTaskOutput testTaskOutput;
+            try {
+                testTaskOutput = readBundleTaskOutput(cacheEntryKey, fileName);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(file, e);
+                throw e;
+            }
+            if (testTaskOutput != null) {
+                countGetHit(cacheEntryKey, testTaskOutput);
+            }
+        }
 
-            var testTaskOutput = JsonSerializers.deserialize(body, TestTaskOutput.class, fileName);
-            Counter.builder("cache.saved.time.seconds")
-                .tag("pluginName", pluginName)
-                .register(meterRegistry)
-                .increment(testTaskOutput.getTotalTimeSeconds().doubleValue());
+        if (file != null) {
+            sizeCounter.increment(file.contentLength());
+            return file;
         }
+        return body == null ? null : new InputStreamResource(countingStream(body, sizeCounter));
+    }
 
-        return body;
+    /**
+     * @return the opened stored file of the entity to be sent as is or null if it should be read as a stream
+     */
+    @Nullable
+    private FileChannelResource openStoredFile(CacheEntryKey cacheEntryKey, String fileName) throws IOException {
+        if (!(cacheStorage instanceof FileCacheStorage fileCacheStorage)) {
+            return null;
+        }
+        var file = FileChannelResource.open(fileCacheStorage.getEntryFile(cacheEntryKey, fileName),
+            fileCacheStorage.getEntryBlobFile(cacheEntryKey, fileName));
+        if (file == null) {
+            return null;
+        }
+        var length = file.contentLength();
+        if (length == 0L || hotTierCache.isCacheable(length)) {
+            // empty files and small ones which may be served from memory are read as streams
+            file.close();
+            return null;
+        }
+        if (evictingCacheStorage != null) {
+            evictingCacheStorage.touch(cacheEntryKey);
+        }
+        return file;
+    }
+
+    private static void closeQuietly(@Nullable FileChannelResource file, Exception e) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+        }
+    }
+
+    @Nullable
+    private InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) {
+        if (cacheStorage instanceof FileCacheStorage fileCacheStorage) {
+            var cached = hotTierCache.getOrLoad(cacheEntryKey, fileName,
+                fileCacheStorage.getEntryFile(cacheEntryKey, fileName));
+            if (cached != null) {
+                if (evictingCacheStorage != null) {
+                    // served from memory, but should not be evicted from the storage as idle
+                    evictingCacheStorage.touch(cacheEntryKey);
+                }
+                return cached;
+            }
+        }
+        return cacheStorage.readStream(cacheEntryKey, fileName);
+    }
+
+    private void countGetMiss(String pluginName) {
+        Counter.builder("get.cache.miss")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry)
+            .increment();
+    }
+
+    private void countGetHit(CacheEntryKey cacheEntryKey, TestTaskOutput testTaskOutput) {
+        if (evictingCacheStorage != null) {
+            evictingCacheStorage.recordHit(cacheEntryKey);
+        }
+
+        var pluginName = cacheEntryKey.pluginName().name();
+        Counter.builder("get.cache.hit")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry)
+            .increment();
+
+        Counter.builder("cache.saved.time.seconds")
+            .tag("pluginName", pluginName)
+            .register(meterRegistry)
+            .increment(testTaskOutput.getTotalTimeSeconds().doubleValue());
+    }
+
+    /**
+     * Read the task output metadata from the beginning of the stored bundle (the artifacts are not read).
+     */
+    @Nullable
+    private TestTaskOutput readBundleTaskOutput(CacheEntryKey cacheEntryKey, String fileName) throws IOException {
+        var taskOutputFileName = cacheEntryKey.pluginName() + "-output.json";
+        var cached = hotTierCache.get(cacheEntryKey, fileName);
+        try (var in = cached == null ? cacheStorage.readStream(cacheEntryKey, fileName) : cached) {
+            if (in == null) {
+                return null;
+            }
+            var bytes = CacheBundle.readBytes(new BufferedInputStream(in), taskOutputFileName);
+            return bytes == null ? null
+                : JsonSerializers.deserialize(bytes, TestTaskOutput.class, taskOutputFileName);
+        }
+    }
+
+    private static InputStream countingStream(InputStream in, Counter counter) {
+        return new ProxyInputStream(in) {
+            @Override
+            protected void afterRead(int n) {
+                if (n > 0) {
+                    counter.increment(n);
+                }
+            }
+        };
     }
 }
@@ -0,0 +1,446 @@
+package com.github.seregamorph.testcacheserver.storage;
+
+import com.github.seregamorph.maven.test.common.CacheBundle;
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.common.TestTaskOutput;
+import com.github.seregamorph.maven.test.storage.FileCacheStorage;
+import com.github.seregamorph.maven.test.util.JsonSerializers;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File cache storage of the server with a total size budget. The sizes and last access times (reads and writes) of
+ * the entries are kept in an in-memory index, which is built from the directory layout at startup (the last access
+ * time is initialized with the last modification time of the entry directory).
+ * <p>
+ * Eviction runs in a background thread, so requests never wait for it: when the total size exceeds the budget, the
+ * entries are deleted in the order of the {@link EvictionPolicy} until the size is below 90% of it. Entries accessed
+ * within the min idle time are not evicted, so an entry is not deleted while its files are being written. The
+ * per-module limit of entries is applied by the same thread. Content-addressable blobs shared by several entries are
+ * counted for each of them, so the disk usage may be lower than the counted size, but not higher.
+ * <p>
+ * The test time saved by a hit of the entry is read from the task output (plain or in the bundle) when it's written
+ * and at startup, hits are reported via {@link #recordHit(CacheEntryKey)}. Hit counts are not persisted, so a restart
+ * resets the value of the entries to a single hit.
+ *
+ * @author Sergey Chernov
+ */
+public class EvictingFileCacheStorage extends FileCacheStorage implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EvictingFileCacheStorage.class);
+
+    private static final long EVICTION_PERIOD_SECONDS = 60L;
+
+    private final long maxBytes;
+    private final long targetBytes;
+    private final int maxEntriesPerModule;
+    private final long minIdleMillis;
+    private final EvictionPolicy evictionPolicy;
+
+    private final Map<CacheEntryKey, EntryStats> index = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong evictedEntries = new AtomicLong();
+    private final DoubleAdder evictedSavedSeconds = new DoubleAdder();
+    /**
+     * GreedyDual-Size "L" value: the max priority of the evicted entries
+     */
+    private volatile double inflation;
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param maxBytes            total size budget of the entries
+     * @param maxEntriesPerModule max number of entries per "$pluginName/$groupId/$artifactId"
+     * @param minIdle             entries accessed within this time are not evicted
+     */
+    public EvictingFileCacheStorage(File baseDir, long maxBytes, int maxEntriesPerModule, Duration minIdle) {
+        this(baseDir, maxBytes, maxEntriesPerModule, minIdle, EvictionPolicy.LRU);
+    }
+
+    /**
+     * @param maxBytes            total size budget of the entries
+     * @param maxEntriesPerModule max number of entries per "$pluginName/$groupId/$artifactId"
+     * @param minIdle             entries accessed within this time are not evicted
+     * @param evictionPolicy      order of eviction
+     */
+    public EvictingFileCacheStorage(
+        File baseDir,
+        long maxBytes,
+        int maxEntriesPerModule,
+        Duration minIdle,
+        EvictionPolicy evictionPolicy
+    ) {
+        super(baseDir, Integer.MAX_VALUE);
+        if (maxBytes < 1L) {
+            throw new IllegalArgumentException("maxBytes must be >= 1");
+        }
+        if (maxEntriesPerModule < 1) {
+            throw new IllegalArgumentException("maxEntriesPerModule must be >= 1");
+        }
+        this.maxBytes = maxBytes;
+        this.targetBytes = maxBytes / 10L * 9L;
+        this.maxEntriesPerModule = maxEntriesPerModule;
+        this.minIdleMillis = minIdle.toMillis();
+        this.evictionPolicy = evictionPolicy;
+        buildIndex();
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "test-cache-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictSafely, 0L, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void buildIndex() {
+        long start = System.nanoTime();
+        for (CacheEntryKey entryKey : super.getEntryKeys()) {
+            EntryStats stats = new EntryStats(getEntryDirectory(entryKey).lastModified());
+            long size = getEntrySize(entryKey);
+            stats.size.set(size);
+            stats.savedSeconds = readSavedSeconds(entryKey);
+            updatePriority(stats);
+            index.put(entryKey, stats);
+            totalBytes.addAndGet(size);
+        }
+        logger.info("Indexed {} cache entries of {} bytes in {}ms (max {} bytes)", index.size(), totalBytes.get(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), maxBytes);
+    }
+
+    @Override
+    public List<CacheEntryKey> getEntryKeys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public int getEntries() {
+        return index.size();
+    }
+
+    public long getEvictedEntries() {
+        return evictedEntries.get();
+    }
+
+    /**
+     * @return sum of the value of the retained entries: the test time saved by a hit multiplied by the number of hits
+     * (including the test run which wrote the entry) since startup, the same value is used by {@link EvictionPolicy#GDSF}
+     */
+    public double getRetainedSavedSeconds() {
+        double savedSeconds = 0.0;
+        for (EntryStats stats : index.values()) {
+            savedSeconds += stats.getValue();
+        }
+        return savedSeconds;
+    }
+
+    /**
+     * @return sum of the value of the evicted entries, see {@link #getRetainedSavedSeconds()}
+     */
+    public double getEvictedSavedSeconds() {
+        return evictedSavedSeconds.sum();
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    @Override
+    public byte[] read(CacheEntryKey cacheEntryKey, String fileName) {
+        byte[] value = super.read(cacheEntryKey, fileName);
+        if (value != null) {
+            touch(cacheEntryKey);
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public InputStream readStream(CacheEntryKey cacheEntryKey, String fileName) {
+        InputStream in = super.readStream(cacheEntryKey, fileName);
+        if (in != null) {
+            touch(cacheEntryKey);
+        }
+        return in;
+    }
+
+    @Override
+    public boolean readToFile(CacheEntryKey cacheEntryKey, String fileName, Path target) {
+        boolean exists = super.readToFile(cacheEntryKey, fileName, target);
+        if (exists) {
+            touch(cacheEntryKey);
+        }
+        return exists;
+    }
+
+    @Override
+    public int write(CacheEntryKey cacheEntryKey, String fileName, byte[] value) {
+        int deleted = super.write(cacheEntryKey, fileName, value);
+        updateEntry(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public int writeStream(CacheEntryKey cacheEntryKey, String fileName, InputStream in, long length) {
+        int deleted = super.writeStream(cacheEntryKey, fileName, in, length);
+        updateEntry(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public int writeFile(CacheEntryKey cacheEntryKey, String fileName, Path source, String contentHash) {
+        int deleted = super.writeFile(cacheEntryKey, fileName, source, contentHash);
+        updateEntry(cacheEntryKey, fileName);
+        return deleted;
+    }
+
+    @Override
+    public boolean writeReference(CacheEntryKey cacheEntryKey, String fileName, String contentHash) {
+        boolean referenced = super.writeReference(cacheEntryKey, fileName, contentHash);
+        if (referenced) {
+            updateEntry(cacheEntryKey, fileName);
+        }
+        return referenced;
+    }
+
+    @Override
+    public boolean deleteEntry(CacheEntryKey cacheEntryKey) {
+        EntryStats stats = index.remove(cacheEntryKey);
+        if (stats != null) {
+            totalBytes.addAndGet(-stats.size.get());
+        }
+        return super.deleteEntry(cacheEntryKey);
+    }
+
+    /**
+     * Count a cache hit of the entry (restored test task), it's not derived from the reads as a restore may read the
+     * task output more than once.
+     */
+    public void recordHit(CacheEntryKey cacheEntryKey) {
+        EntryStats stats = index.get(cacheEntryKey);
+        if (stats != null) {
+            stats.hits.incrementAndGet();
+            updatePriority(stats);
+        }
+    }
+
+    /**
+     * Update the last access time of the entry, e.g. when it's served from memory without a read of the storage.
+     */
+    public void touch(CacheEntryKey cacheEntryKey) {
+        EntryStats stats = index.get(cacheEntryKey);
+        if (stats != null) {
+            stats.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    private void updateEntry(CacheEntryKey cacheEntryKey, String fileName) {
+        long size = getEntrySize(cacheEntryKey);
+        EntryStats stats = index.computeIfAbsent(cacheEntryKey, key -> new EntryStats(System.currentTimeMillis()));
+        stats.lastAccessMillis = System.currentTimeMillis();
+        long total = totalBytes.addAndGet(size - stats.size.getAndSet(size));
+        if (isTaskOutput(cacheEntryKey, fileName)) {
+            stats.savedSeconds = readSavedSeconds(cacheEntryKey);
+        }
+        updatePriority(stats);
+        if (total > maxBytes) {
+            scheduleEviction();
+        }
+    }
+
+    private void updatePriority(EntryStats stats) {
+        stats.priority = inflation + stats.getValue() / Math.max(1L, stats.size.get());
+    }
+
+    private static boolean isTaskOutput(CacheEntryKey cacheEntryKey, String fileName) {
+        PluginName pluginName = cacheEntryKey.pluginName();
+        return fileName.equals(pluginName + "-output.json")
+            || fileName.equals(CacheBundle.getBundleFileName(pluginName));
+    }
+
+    /**
+     * @return totalTimeSeconds of the stored task output or 0 if it's not written yet
+     */
+    private double readSavedSeconds(CacheEntryKey cacheEntryKey) {
+        PluginName pluginName = cacheEntryKey.pluginName();
+        String taskOutputFileName = pluginName + "-output.json";
+        try {
+            byte[] bytes = super.read(cacheEntryKey, taskOutputFileName);
+            if (bytes == null) {
+                try (InputStream in = super.readStream(cacheEntryKey, CacheBundle.getBundleFileName(pluginName))) {
+                    if (in != null) {
+                        bytes = CacheBundle.readBytes(new BufferedInputStream(in), taskOutputFileName);
+                    }
+                }
+            }
+            return bytes == null ? 0.0 : JsonSerializers.deserialize(bytes, TestTaskOutput.class, taskOutputFileName)
+                .getTotalTimeSeconds().doubleValue();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read {} of cache entry {}", taskOutputFileName, cacheEntryKey, e);
+            return 0.0;
+        }
+    }
+
+    private long getEntrySize(CacheEntryKey cacheEntryKey) {
+        // hidden blob references and temp files of writes in progress are not counted
+        File[] files = getEntryDirectory(cacheEntryKey).listFiles(file -> file.isFile()
+            && !file.getName().startsWith("."));
+        long size = 0L;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private void scheduleEviction() {
+        if (evictionScheduled.compareAndSet(false, true)) {
+            try {
+                evictor.execute(this::evictSafely);
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }
+    }
+
+    private void evictSafely() {
+        try {
+            evict();
+        } catch (RuntimeException e) {
+            logger.error("Failed to evict cache entries", e);
+        }
+    }
+
+    /**
+     * Delete the entries over the per-module limit and over the size budget in the order of the eviction policy.
+     */
+    synchronized void evict() {
+        evictionScheduled.set(false);
+        long now = System.currentTimeMillis();
+        long evicted = 0L;
+
+        Map<String, List<CacheEntryKey>> modules = index.keySet().stream()
+            .collect(Collectors.groupingBy(key -> key.pluginName() + "/" + key.groupArtifactId()));
+        for (List<CacheEntryKey> moduleEntries : modules.values()) {
+            if (moduleEntries.size() > maxEntriesPerModule) {
+                List<CacheEntryKey> sortedEntries = sortForEviction(moduleEntries);
+                for (int i = 0; i < sortedEntries.size() - maxEntriesPerModule; i++) {
+                    if (evictIdle(sortedEntries.get(i), now)) {
+                        evicted++;
+                    }
+                }
+            }
+        }
+
+        if (totalBytes.get() > maxBytes) {
+            for (CacheEntryKey entryKey : sortForEviction(new ArrayList<>(index.keySet()))) {
+                if (totalBytes.get() <= targetBytes) {
+                    break;
+                }
+                if (evictIdle(entryKey, now)) {
+                    evicted++;
+                }
+            }
+        }
+
+        if (evicted > 0L) {
+            evictedEntries.addAndGet(evicted);
+            logger.info("Evicted {} cache entries, total {} entries of {} bytes", evicted, index.size(),
+                totalBytes.get());
+        }
+    }
+
+    private List<CacheEntryKey> sortForEviction(List<CacheEntryKey> entryKeys) {
+        // snapshot of the stats, they may change during the sort
+        List<Candidate> candidates = new ArrayList<>(entryKeys.size());
+        for (CacheEntryKey entryKey : entryKeys) {
+            EntryStats stats = index.get(entryKey);
+            candidates.add(stats == null ? new Candidate(entryKey, 0.0, 0L)
+                : new Candidate(entryKey, stats.priority, stats.lastAccessMillis));
+        }
+        Comparator<Candidate> lru = Comparator.comparingLong(candidate -> candidate.lastAccessMillis);
+        candidates.sort(evictionPolicy == EvictionPolicy.GDSF
+            ? Comparator.<Candidate>comparingDouble(candidate -> candidate.priority).thenComparing(lru) : lru);
+        return candidates.stream()
+            .map(candidate -> candidate.entryKey)
+            .collect(Collectors.toList());
+    }
+
+    private boolean evictIdle(CacheEntryKey entryKey, long now) {
+        EntryStats stats = index.get(entryKey);
+        if (stats == null || now - stats.lastAccessMillis < minIdleMillis) {
+            return false;
+        }
+        logger.debug("Evicting cache entry {}", entryKey);
+        if (!deleteEntry(entryKey)) {
+            return false;
+        }
+        evictedSavedSeconds.add(stats.getValue());
+        if (stats.priority > inflation) {
+            // only the eviction thread updates it
+            inflation = stats.priority;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+    }
+
+    private static final class EntryStats {
+
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicInteger hits = new AtomicInteger();
+        private volatile long lastAccessMillis;
+        private volatile double savedSeconds;
+        private volatile double priority;
+
+        private EntryStats(long lastAccessMillis) {
+            this.lastAccessMillis = lastAccessMillis;
+        }
+
+        private double getValue() {
+            // the task output is written by a test run, so it's counted as the first hit
+            return (hits.get() + 1) * savedSeconds;
+        }
+    }
+
+    private static final class Candidate {
+
+        private final CacheEntryKey entryKey;
+        private final double priority;
+        private final long lastAccessMillis;
+
+        private Candidate(CacheEntryKey entryKey, double priority, long lastAccessMillis) {
+            this.entryKey = entryKey;
+            this.priority = priority;
+            this.lastAccessMillis = lastAccessMillis;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.seregamorph.testcacheserver.storage;
+
+/**
+ * Order in which the cache entries are evicted when the storage is over the size budget.
+ *
+ * @author Sergey Chernov
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Least recently used entries first
+     */
+    LRU,
+
+    /**
+     * GreedyDual-Size-Frequency: entries with the lowest value per stored byte first, where the value is the test
+     * time saved by a hit (totalTimeSeconds of the task output) multiplied by the number of hits. The priority of the
+     * last evicted entry is added to the priority of each accessed entry, so the entries which are not accessed anymore
+     * age out even if they were valuable.
+     */
+    GDSF
+}
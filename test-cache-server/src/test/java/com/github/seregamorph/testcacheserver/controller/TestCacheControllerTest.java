@@ -0,0 +1,154 @@
+package com.github.seregamorph.testcacheserver.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class TestCacheControllerTest {
+
+    private static final String ENTRY_PATH = "surefire-cached/com.acme/core/0123456789abcdef";
+
+    @TempDir
+    static Path storageDir;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("test-cache-server.storage.dir", () -> storageDir.toString());
+    }
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void shouldReadBatch() throws IOException, InterruptedException {
+        var small = "small content".getBytes(UTF_8);
+        put("small.json", small);
+        put("large.tar.gz", new byte[2 * 1024 * 1024]);
+
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/batch"))
+            .header("Content-Type", "text/plain")
+            .POST(HttpRequest.BodyPublishers.ofString(ENTRY_PATH + "/small.json\n"
+                + ENTRY_PATH + "/large.tar.gz\n"
+                + ENTRY_PATH + "/missing.json\n"))
+            .build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        var in = new DataInputStream(new ByteArrayInputStream(response.body()));
+        assertEquals(small.length, in.readLong());
+        var value = new byte[small.length];
+        in.readFully(value);
+        assertArrayEquals(small, value);
+        // too large for a batch
+        assertEquals(-2L, in.readLong());
+        assertEquals(-1L, in.readLong());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void shouldTransferStoredFile() throws IOException, InterruptedException {
+        var content = new byte[2 * 1024 * 1024 + 1];
+        new Random(42L).nextBytes(content);
+        put("artifacts.tar.gz", content);
+
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/" + ENTRY_PATH + "/artifacts.tar.gz"))
+            .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(OptionalLong.of(content.length), response.headers().firstValueAsLong("Content-Length"));
+        assertEquals(Optional.of("application/octet-stream"), response.headers().firstValue("Content-Type"));
+        assertArrayEquals(content, response.body());
+    }
+
+    @Test
+    void shouldTransferStoredFileNotLinkedToBlob() throws IOException, InterruptedException {
+        var content = new byte[2 * 1024 * 1024 + 1];
+        new Random(43L).nextBytes(content);
+        // stored without the content-addressable blob, e.g. by a previous version
+        var entryPath = "surefire-cached/com.acme/web/0123456789abcdef";
+        var file = storageDir.resolve(entryPath + "/artifacts.tar.gz");
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/" + entryPath + "/artifacts.tar.gz"))
+            .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(OptionalLong.of(content.length), response.headers().firstValueAsLong("Content-Length"));
+        assertArrayEquals(content, response.body());
+    }
+
+    @Test
+    void shouldServeStreamedEntity() throws IOException, InterruptedException {
+        // empty entities are not transferred from the file, but returned as a resource
+        put("empty.json", new byte[0]);
+
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/" + ENTRY_PATH + "/empty.json"))
+            .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(Optional.of("application/json"), response.headers().firstValue("Content-Type"));
+        assertArrayEquals(new byte[0], response.body());
+
+        response = client.send(HttpRequest.newBuilder(uri("/cache/" + ENTRY_PATH + "/missing.json"))
+            .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(404, response.statusCode());
+    }
+
+    @Test
+    void shouldProvideKeyFilterOfStoredEntries() throws IOException, InterruptedException {
+        put("jacoco.tar.gz", new byte[]{1, 2, 3});
+
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/filter")).GET().build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        var filter = CacheKeyFilter.read(new ByteArrayInputStream(response.body()));
+        assertTrue(filter.mightContain(ENTRY_PATH));
+        assertFalse(filter.mightContain("surefire-cached/com.acme/web/0123456789abcdef"));
+
+        // added to the downloaded filter on write
+        client.send(HttpRequest.newBuilder(uri("/cache/surefire-cached/com.acme/web/0123456789abcdef/jacoco.tar.gz"))
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(new byte[]{1, 2, 3}))
+            .build(), HttpResponse.BodyHandlers.discarding());
+        response = client.send(HttpRequest.newBuilder(uri("/cache/filter")).GET().build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+        filter = CacheKeyFilter.read(new ByteArrayInputStream(response.body()));
+        assertTrue(filter.mightContain("surefire-cached/com.acme/web/0123456789abcdef"));
+    }
+
+    private void put(String fileName, byte[] content) throws IOException, InterruptedException {
+        var response = client.send(HttpRequest.newBuilder(uri("/cache/" + ENTRY_PATH + "/" + fileName))
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+            .build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(200, response.statusCode());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.CacheKeyFilter;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.storage.FileCacheStorage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CacheKeyFilterServiceTest {
+
+    @Test
+    void shouldKeepEntriesAddedDuringRebuild(@TempDir Path tempDir) throws Exception {
+        var listing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var stored = key("core");
+        var storage = new FileCacheStorage(tempDir.toFile()) {
+            @Override
+            public List<CacheEntryKey> getEntryKeys() {
+                var entryKeys = super.getEntryKeys();
+                listing.countDown();
+                await(release);
+                return entryKeys;
+            }
+        };
+        storage.write(stored, "jacoco.tar.gz", new byte[]{1, 2, 3});
+
+        try (var service = new CacheKeyFilterService(storage)) {
+            var filterBytes = new ArrayList<byte[]>();
+            var request = new Thread(() -> filterBytes.add(service.getFilter()));
+            request.start();
+            assertTrue(listing.await(10L, TimeUnit.SECONDS));
+            // written after the storage is listed
+            var added = key("web");
+            service.addEntry(added);
+            release.countDown();
+            request.join(10_000L);
+
+            var filter = CacheKeyFilter.read(new ByteArrayInputStream(filterBytes.get(0)));
+            assertTrue(filter.mightContain(CacheKeyFilter.getKey(stored)));
+            assertTrue(filter.mightContain(CacheKeyFilter.getKey(added)));
+            assertFalse(filter.mightContain(CacheKeyFilter.getKey(key("utils"))));
+        }
+    }
+
+    private static CacheEntryKey key(String artifactId) {
+        return new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", artifactId),
+            "0123456789abcdef");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
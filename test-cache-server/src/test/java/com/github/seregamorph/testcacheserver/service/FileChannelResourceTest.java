@@ -0,0 +1,56 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileChannelResourceTest {
+
+    @Test
+    void shouldTransferOpenedFileWhenReplaced(@TempDir Path tempDir) throws IOException {
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), new byte[]{1, 2, 3});
+
+        try (var resource = FileChannelResource.open(file.toFile(), null)) {
+            assertNotNull(resource);
+            // replaced by a concurrent write after the length is sent
+            var replacement = Files.write(tempDir.resolve("artifacts.tar.gz.tmp"), new byte[]{4, 5, 6, 7, 8});
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            assertEquals(3L, resource.contentLength());
+            var out = new ByteArrayOutputStream();
+            resource.transferTo(out);
+            assertArrayEquals(new byte[]{1, 2, 3}, out.toByteArray());
+        }
+    }
+
+    @Test
+    void shouldPinBlobOfSameLength(@TempDir Path tempDir) throws IOException {
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), new byte[]{1, 2, 3});
+        var blob = Files.createLink(tempDir.resolve("blob"), file);
+        var replacedBlob = Files.write(tempDir.resolve("replaced-blob"), new byte[]{4, 5, 6, 7, 8});
+
+        try (var resource = FileChannelResource.open(file.toFile(), blob.toFile())) {
+            assertNotNull(resource);
+            assertEquals(blob.toFile(), resource.getPinnedFile());
+        }
+        // the stored file is replaced after the blob was resolved
+        try (var resource = FileChannelResource.open(file.toFile(), replacedBlob.toFile())) {
+            assertNotNull(resource);
+            assertNull(resource.getPinnedFile());
+        }
+    }
+
+    @Test
+    void shouldNotOpenMissingFile(@TempDir Path tempDir) throws IOException {
+        assertNull(FileChannelResource.open(tempDir.resolve("missing.tar.gz").toFile(), null));
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.seregamorph.testcacheserver.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class HotTierCacheTest {
+
+    private static final CacheEntryKey KEY = new CacheEntryKey(PluginName.SUREFIRE_CACHED,
+        new GroupArtifactId("com.acme", "core"), "hash");
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void shouldLoadEntitiesFromFile() throws IOException {
+        var cache = new HotTierCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), Duration.ofMinutes(1));
+        var content = new byte[1000];
+        content[999] = 42;
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), content).toFile();
+
+        assertNull(cache.get(KEY, "artifacts.tar.gz"));
+        assertArrayEquals(content, readAllBytes(cache.getOrLoad(KEY, "artifacts.tar.gz", file)));
+        for (int i = 0; i < 2; i++) {
+            var cached = cache.get(KEY, "artifacts.tar.gz");
+            assertNotNull(cached);
+            assertArrayEquals(content, cached.readAllBytes());
+        }
+
+        cache.invalidate(KEY, "artifacts.tar.gz");
+        assertNull(cache.get(KEY, "artifacts.tar.gz"));
+    }
+
+    @Test
+    void shouldNotCacheBigOrMissingEntities() throws IOException {
+        var cache = new HotTierCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), Duration.ofMinutes(1));
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), new byte[2000]).toFile();
+
+        assertNull(cache.getOrLoad(KEY, "artifacts.tar.gz", file));
+        assertNull(cache.getOrLoad(KEY, "missing.tar.gz", tempDir.resolve("missing.tar.gz").toFile()));
+        assertNull(cache.get(KEY, "artifacts.tar.gz"));
+    }
+
+    @Test
+    void shouldLoadConcurrentlyRequestedEntityOnce() throws Exception {
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var loads = new AtomicInteger();
+        var cache = new HotTierCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), Duration.ofMinutes(1)) {
+            @Override
+            ByteBuffer load(File file) {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return super.load(file);
+            }
+        };
+        var content = new byte[]{1, 2, 3};
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), content).toFile();
+
+        var first = new Thread(() -> cache.getOrLoad(KEY, "artifacts.tar.gz", file));
+        first.start();
+        assertTrue(loading.await(10L, TimeUnit.SECONDS));
+        var result = new byte[1][];
+        var second = new Thread(() -> result[0] = readAllBytes(cache.getOrLoad(KEY, "artifacts.tar.gz", file)));
+        second.start();
+        release.countDown();
+        first.join(10_000L);
+        second.join(10_000L);
+
+        assertArrayEquals(content, result[0]);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void shouldNotCacheContentLoadedBeforeWrite() throws Exception {
+        var loaded = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var cache = new HotTierCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), Duration.ofMinutes(1)) {
+            @Override
+            ByteBuffer load(File file) {
+                var buffer = super.load(file);
+                loaded.countDown();
+                await(release);
+                return buffer;
+            }
+        };
+        var file = Files.write(tempDir.resolve("artifacts.tar.gz"), new byte[]{1, 2, 3}).toFile();
+
+        var read = new Thread(() -> cache.getOrLoad(KEY, "artifacts.tar.gz", file));
+        read.start();
+        assertTrue(loaded.await(10L, TimeUnit.SECONDS));
+        // the old content is loaded, then the entity is overwritten
+        Files.write(file.toPath(), new byte[]{4, 5, 6});
+        var invalidate = new Thread(() -> cache.invalidate(KEY, "artifacts.tar.gz"));
+        invalidate.start();
+        invalidate.join(200L);
+        // waits for the load
+        assertTrue(invalidate.isAlive());
+        release.countDown();
+        read.join(10_000L);
+        invalidate.join(10_000L);
+        assertFalse(invalidate.isAlive());
+
+        assertNull(cache.get(KEY, "artifacts.tar.gz"));
+        assertArrayEquals(new byte[]{4, 5, 6}, readAllBytes(cache.getOrLoad(KEY, "artifacts.tar.gz", file)));
+    }
+
+    private static byte[] readAllBytes(InputStream in) {
+        assertNotNull(in);
+        try (in) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
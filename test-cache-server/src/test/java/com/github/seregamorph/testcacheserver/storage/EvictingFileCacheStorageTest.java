@@ -0,0 +1,124 @@
+package com.github.seregamorph.testcacheserver.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.github.seregamorph.maven.test.common.CacheEntryKey;
+import com.github.seregamorph.maven.test.common.GroupArtifactId;
+import com.github.seregamorph.maven.test.common.PluginName;
+import com.github.seregamorph.maven.test.common.TestTaskOutput;
+import com.github.seregamorph.maven.test.util.JsonSerializers;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EvictingFileCacheStorageTest {
+
+    @Test
+    void shouldEvictLeastRecentlyUsedOverBudget(@TempDir Path tempDir) throws InterruptedException {
+        var key1 = key("core", "hash1");
+        var key2 = key("utils", "hash2");
+        var key3 = key("web", "hash3");
+        long totalBytes;
+        try (var storage = new EvictingFileCacheStorage(tempDir.toFile(), 2500, 16, Duration.ZERO)) {
+            storage.write(key1, "output.json", new byte[1000]);
+            Thread.sleep(10L);
+            storage.write(key2, "output.json", new byte[1000]);
+            Thread.sleep(10L);
+            // the read makes key2 the least recently used
+            assertNotNull(storage.read(key1, "output.json"));
+            Thread.sleep(10L);
+            storage.write(key3, "output.json", new byte[1000]);
+
+            storage.evict();
+
+            assertNull(storage.read(key2, "output.json"));
+            assertNotNull(storage.read(key1, "output.json"));
+            assertNotNull(storage.read(key3, "output.json"));
+            // hidden content-addressable blob references are not counted
+            totalBytes = storage.getTotalBytes();
+            assertEquals(2000L, totalBytes);
+        }
+
+        // the index is restored at startup
+        try (var storage = new EvictingFileCacheStorage(tempDir.toFile(), 2500, 16, Duration.ZERO)) {
+            assertEquals(Set.of(key1, key3), Set.copyOf(storage.getEntryKeys()));
+            assertEquals(totalBytes, storage.getTotalBytes());
+        }
+    }
+
+    @Test
+    void shouldKeepRecentlyUsedAndLimitEntriesPerModule(@TempDir Path tempDir) throws InterruptedException {
+        try (var storage = new EvictingFileCacheStorage(tempDir.toFile(), 1000, 2, Duration.ZERO)) {
+            for (int i = 1; i <= 3; i++) {
+                storage.write(key("core", "hash" + i), "output.json", new byte[10]);
+                Thread.sleep(10L);
+            }
+
+            storage.evict();
+
+            assertEquals(Set.of(key("core", "hash2"), key("core", "hash3")), Set.copyOf(storage.getEntryKeys()));
+            assertEquals(1L, storage.getEvictedEntries());
+        }
+    }
+
+    @Test
+    void shouldNotEvictEntriesAccessedWithinMinIdle(@TempDir Path tempDir) throws InterruptedException {
+        try (var storage = new EvictingFileCacheStorage(tempDir.toFile(), 25, 2, Duration.ofHours(1))) {
+            for (int i = 1; i <= 3; i++) {
+                storage.write(key("core", "hash" + i), "output.json", new byte[10]);
+                Thread.sleep(10L);
+            }
+
+            // over the per-module limit and over the size budget
+            storage.evict();
+
+            assertEquals(Set.of(key("core", "hash1"), key("core", "hash2"), key("core", "hash3")),
+                Set.copyOf(storage.getEntryKeys()));
+            assertEquals(0L, storage.getEvictedEntries());
+            assertEquals(30L, storage.getTotalBytes());
+        }
+    }
+
+    @Test
+    void shouldEvictLowestSavedTimePerByte(@TempDir Path tempDir) throws InterruptedException {
+        var slowModule = key("slow", "hash1");
+        var fastModule = key("fast", "hash2");
+        var hitModule = key("hit", "hash3");
+        try (var storage = new EvictingFileCacheStorage(tempDir.toFile(), 6000, 16, Duration.ZERO,
+            EvictionPolicy.GDSF)) {
+            writeEntry(storage, slowModule, 120);
+            writeEntry(storage, hitModule, 10);
+            storage.recordHit(hitModule);
+            Thread.sleep(10L);
+            // the most recently used one, but saves the least time
+            writeEntry(storage, fastModule, 10);
+
+            // may be already evicted in background
+            storage.evict();
+
+            assertEquals(Set.of(slowModule, hitModule), Set.copyOf(storage.getEntryKeys()));
+            // the hit entry is counted twice: written by a test run and then hit
+            assertEquals(140.0, storage.getRetainedSavedSeconds(), 0.001);
+            assertEquals(10.0, storage.getEvictedSavedSeconds(), 0.001);
+        }
+    }
+
+    private static void writeEntry(EvictingFileCacheStorage storage, CacheEntryKey key, int totalTimeSeconds) {
+        storage.write(key, "surefire-cached-output.json", JsonSerializers.serialize(new TestTaskOutput(
+            Instant.now(), Instant.now(), BigDecimal.valueOf(totalTimeSeconds), BigDecimal.valueOf(totalTimeSeconds),
+            1, 0, 0, null, List.of(), List.of(), List.of(), Map.of())));
+        storage.write(key, "surefire-cached-artifacts.tar.gz", new byte[2000]);
+    }
+
+    private static CacheEntryKey key(String artifactId, String hash) {
+        return new CacheEntryKey(PluginName.SUREFIRE_CACHED, new GroupArtifactId("com.acme", artifactId), hash);
+    }
+}